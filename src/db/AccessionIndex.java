@@ -0,0 +1,232 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import main.Accession;
+import main.LongIntMap;
+
+/**
+ * In-memory normalization index of the protein accessions in a pathway database.
+ * Secondary accessions are mapped to their primary accession, and isoforms
+ * (e.g. P04637-2) that are not stored in the database themselves are mapped
+ * to their canonical accession (e.g. P04637).
+ * <p> Primary accessions are interned to dense integer IDs, and a bitmap over
+ * these IDs marks the accessions that have at least one pathway association,
+ * so that accessions that cannot match are rejected without querying the DB.
+ * UniProt accessions are keyed by their 64-bit code, see 
+ * {@link Accession#encode(CharSequence)}, identifiers of other formats by
+ * their string.
+ */
+public class AccessionIndex {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	/**
+	 * Optional column of {@code PROTEININFO} holding the secondary accessions
+	 * of a protein, separated by {@link #SEC_ID_SEPARATOR}
+	 */
+	public static final String SEC_IDS_COLUMN = "SEC_IDS";
+	public static final String SEC_ID_SEPARATOR = ";";
+
+	// UniProt accessions are keyed by their code, see Accession#encode
+	private final LongIntMap primary, secondary;
+	private long[] codes;
+	
+	// identifiers of other formats, and the names of their IDs
+	private final HashMap<String, Integer> otherPrimary, otherSecondary;
+	private String[] otherNames;
+	
+	private final BitSet associated;
+	private int size = 0;
+
+	public AccessionIndex(){
+		this.primary = new LongIntMap();
+		this.secondary = new LongIntMap();
+		this.codes = new long[1024];
+		this.otherPrimary = new HashMap<String, Integer>();
+		this.otherSecondary = new HashMap<String, Integer>();
+		this.otherNames = new String[1024];
+		this.associated = new BitSet();
+	}
+
+	/**
+	 * Reads all accessions stored in the {@code PROTEININFO} table
+	 * over the given connection.
+	 * @throws SQLException
+	 */
+	public static AccessionIndex load(Connection conn) throws SQLException{
+		AccessionIndex index = new AccessionIndex();
+		boolean hasSecIds = hasColumn(conn.getMetaData(), "PROTEININFO", SEC_IDS_COLUMN);
+
+		Statement s = conn.createStatement();
+		ResultSet set = s.executeQuery(hasSecIds ?
+				"select ACC, " + SEC_IDS_COLUMN + " from PROTEININFO" :
+				"select ACC from PROTEININFO");
+
+		while(set.next()){
+			String acc = set.getString(1);
+			index.addPrimary(acc);
+			if(hasSecIds && set.getString(2) != null){
+				for(String sec : set.getString(2).split(SEC_ID_SEPARATOR))
+					index.addSecondary(sec.trim(), acc);
+			}
+		}
+		set = s.executeQuery("select distinct ACCESSION from PATHWAYASSOC");
+		while(set.next())
+			index.markAssociated(set.getString(1));
+		s.close();
+
+		logger.info("Accession index loaded: " + index.size() + " primary and "
+				+ (index.secondary.size() + index.otherSecondary.size()) + " secondary accessions, "
+				+ index.associated.cardinality() + " with pathway associations" 
+				+ System.lineSeparator());
+		return index;
+	}
+
+	public void addPrimary(String acc){
+		if(getId(acc) >= 0)
+			return;
+		
+		if(size == codes.length){
+			codes = Arrays.copyOf(codes, size * 2);
+			otherNames = Arrays.copyOf(otherNames, size * 2);
+		}
+		
+		long code = Accession.encode(acc);
+		if(code != Accession.INVALID)
+			primary.put(code, size);
+		else{
+			otherPrimary.put(acc, size);
+			otherNames[size] = acc;
+		}
+		codes[size++] = code;
+	}
+	
+	/**
+	 * Marks the given primary accession as being associated with at least one pathway
+	 * @return {@code false} if the accession is not a known primary accession
+	 */
+	public boolean markAssociated(String acc){
+		int id = getId(acc);
+		if(id < 0)
+			return false;
+		
+		associated.set(id);
+		return true;
+	}
+
+	/**
+	 * Maps a secondary accession to the given primary one, secondary accessions
+	 * that are also used as primary accessions, or that map to an accession that 
+	 * is not a known primary accession, are ignored.
+	 */
+	public void addSecondary(String sec, String acc){
+		int id = getId(acc);
+		if(sec.isEmpty() || id < 0 || isPrimary(sec))
+			return;
+		
+		long code = Accession.encode(sec);
+		if(code != Accession.INVALID)
+			secondary.put(code, id);
+		else
+			otherSecondary.put(sec, id);
+	}
+
+	public boolean isPrimary(String acc){
+		return getId(acc) >= 0;
+	}
+	
+	/**
+	 * @param acc - a primary accession, see {@link #normalize(String)}
+	 * @return {@code true} if the accession has any pathway associations in the database
+	 */
+	public boolean hasPathways(String acc){
+		int id = getId(acc);
+		return id >= 0 && associated.get(id);
+	}
+
+	/**
+	 * @param acc - a UniProt accession, possibly secondary or an isoform
+	 * @return the primary accession that the given one corresponds to in the
+	 * database, or {@code acc} itself if it cannot be resolved
+	 */
+	public String normalize(String acc){
+		long code = Accession.encode(acc);
+		int id;
+		if(code != Accession.INVALID){
+			if(primary.containsKey(code))
+				return acc;
+			
+			id = resolve(code);
+			if(id < 0 && Accession.getIsoform(code) >= 0)
+				id = resolve(Accession.getCanonical(code));
+		}
+		else{
+			if(otherPrimary.containsKey(acc))
+				return acc;
+			
+			Integer sec = otherSecondary.get(acc);
+			id = (sec != null) ? sec : -1;
+			
+			// isoform numbers too large to be encoded
+			int dash = acc.indexOf('-');
+			if(id < 0 && dash > 0 && Accession.isIsoform(acc))
+				id = resolve(Accession.encode(acc.substring(0, dash)));
+		}
+		return id >= 0 ? getName(id) : acc;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public Set<String> getPrimaryAccessions(){
+		Set<String> accs = new LinkedHashSet<String>(size * 2);
+		for(int id=0; id < size; id++)
+			accs.add(getName(id));
+		return Collections.unmodifiableSet(accs);
+	}
+	
+	/**
+	 * @return ID of the primary accession, -1 if it is not a primary accession
+	 */
+	private int getId(String acc){
+		long code = Accession.encode(acc);
+		if(code != Accession.INVALID)
+			return primary.get(code);
+		
+		Integer id = otherPrimary.get(acc);
+		return (id != null) ? id : -1;
+	}
+	
+	/**
+	 * @return ID of the primary accession that the code belongs
+	 * to, either directly or as a secondary accession
+	 */
+	private int resolve(long code){
+		int id = primary.get(code);
+		return id >= 0 ? id : secondary.get(code);
+	}
+	
+	private String getName(int id){
+		return codes[id] != Accession.INVALID ? Accession.decode(codes[id]) : otherNames[id];
+	}
+
+	private static boolean hasColumn(DatabaseMetaData meta, String table, String column) throws SQLException{
+		ResultSet set = meta.getColumns(null, null, table, column);
+		boolean exists = set.next();
+		set.close();
+		return exists;
+	}
+}
@@ -0,0 +1,473 @@
+package db;
+
+import io.CompressionUtils;
+import io.SProtParser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+/**
+ * Builds a pathway database, as read by {@link DbManager}, from local UniProt
+ * and Reactome files instead of downloading one. The tables are created
+ * without indexes, filled with JDBC batch inserts in large transactions while
+ * the transaction log of the database is disabled, and indexed only once
+ * all rows are loaded. The load rate of each table is logged and kept in
+ * the {@link TableStats}.
+ * <p> Pathways are read from the Reactome {@code ReactomePathways.txt} and
+ * {@code ReactomePathwaysRelation.txt} files, proteins from the UniProt flat
+ * file, and proteins are associated with the pathways that their Reactome
+ * cross-references point to. The tryptic peptides of the loaded proteins
+ * are digested on several threads, see {@link DigestionPipeline}.
+ */
+public class DbBuilder {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	public static final int INSERT_BATCH_SIZE = 10000;
+	/**
+	 * Number of rows inserted per transaction
+	 */
+	public static final int COMMIT_INTERVAL = 500000;
+	public static final String REACTOME = "Reactome";
+
+	static final String[] SCHEMA = {
+		"create cached table PROTEININFO (ACC varchar(32), UNIPROT_ID varchar(64), " +
+			"NAME varchar(4096), GENE_SYMBOL varchar(256), " + AccessionIndex.SEC_IDS_COLUMN + " varchar(16384))",
+		"create cached table PATHWAYINFO (UID bigint, NAME varchar(4096), DB varchar(64), " +
+			"ORGANISM varchar(256), RDFID varchar(64), PARENT varchar(64))",
+		"create cached table PATHWAYASSOC (ACCESSION varchar(32), PATHWAY_UID bigint)",
+		"create cached table PEPTIDEINFO (SEQUENCE varchar(256), PROTEIN varchar(32), " +
+			"START integer, STOP integer, PTMS varchar(1024))"
+	};
+
+	static final String[] PRIMARY_KEYS = {
+		"alter table PROTEININFO add primary key (ACC)",
+		"alter table PATHWAYINFO add primary key (UID)"
+	};
+
+	static final String PROTEIN_INSERT_SQL =
+			"insert into PROTEININFO (ACC, UNIPROT_ID, NAME, GENE_SYMBOL, " + AccessionIndex.SEC_IDS_COLUMN
+				+ ") values (?, ?, ?, ?, ?)";
+	static final String PATHWAY_INSERT_SQL =
+			"insert into PATHWAYINFO (UID, NAME, DB, ORGANISM, RDFID, PARENT) values (?, ?, ?, ?, ?, ?)";
+	static final String ASSOC_INSERT_SQL =
+			"insert into PATHWAYASSOC (ACCESSION, PATHWAY_UID) values (?, ?)";
+
+	private final Connection conn;
+	private final Map<String, Long> pathwayUids = new HashMap<String, Long>();
+	private final SequenceStore sequences = new SequenceStore();
+	private final Map<String, TableStats> stats = new LinkedHashMap<String, TableStats>();
+	private int nUnknownPathways = 0;
+
+	/**
+	 * Creates or opens the database at the path of the file, without extension
+	 * @throws SQLException
+	 */
+	public DbBuilder(File dbFile) throws SQLException {
+		this(DriverManager.getConnection(connectionString(dbFile), "SA", ""));
+	}
+
+	/**
+	 * @param conn - a writable connection to the database to fill
+	 */
+	public DbBuilder(Connection conn) {
+		this.conn = conn;
+	}
+
+	private static String connectionString(File dbFile) {
+		String path = dbFile.getAbsolutePath();
+		if (dbFile.getName().contains("."))
+			path = path.substring(0, path.length() - dbFile.getName().length() + dbFile.getName().indexOf('.'));
+		return "jdbc:hsqldb:file:" + path + ";hsqldb.script_format=3";
+	}
+
+	/**
+	 * Builds a complete database from the local files
+	 * @param organism - species of the pathways to load, all if {@code null}
+	 * @return statistics of the loaded tables
+	 * @throws IOException if a file cannot be read
+	 * @throws SQLException
+	 * @throws InterruptedException
+	 */
+	public static Map<String, TableStats> build(File dbFile, File sprot, File pathways, File relations,
+			String organism, int nThreads) throws IOException, SQLException, InterruptedException {
+		DbBuilder builder = new DbBuilder(dbFile);
+		boolean done = false;
+		try {
+			builder.createSchema();
+			builder.loadPathways(pathways, relations, organism);
+
+			SProtParser.EntryIterator entries = new SProtParser(sprot, nThreads).open();
+			try {
+				builder.loadProteins(entries);
+			} finally {
+				entries.close();
+			}
+
+			builder.loadPeptides(new Trypsinator(), nThreads);
+			builder.finish();
+			builder.shutdown();
+			done = true;
+			return builder.getStats();
+		} finally {
+			if (!done) {
+				logger.severe("Building " + dbFile + " failed, the database is incomplete" + System.lineSeparator());
+				try {
+					builder.conn.close();
+				} catch (SQLException e) {
+					// do not mask the failure of the build
+					logger.warning("Could not close " + dbFile + ": " + e.getMessage() + System.lineSeparator());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compacts the database files, shuts the database down and closes the connection
+	 * @throws SQLException
+	 */
+	private void shutdown() throws SQLException {
+		Statement s = conn.createStatement();
+		try {
+			s.execute("SHUTDOWN COMPACT");
+		} finally {
+			s.close();
+		}
+		conn.close();
+	}
+
+	/**
+	 * Creates the tables, without indexes, and disables the transaction log
+	 * until {@link #finish()}
+	 * @throws SQLException
+	 */
+	public void createSchema() throws SQLException {
+		Statement s = conn.createStatement();
+		try {
+			for (String sql : SCHEMA)
+				s.execute(sql);
+			setLog(s, false);
+		} finally {
+			s.close();
+		}
+	}
+
+	private void setLog(Statement s, boolean on) {
+		try {
+			s.execute("SET FILES LOG " + (on ? "TRUE" : "FALSE"));
+		} catch (SQLException e) {
+			// in-memory databases have no log
+			logger.fine("Could not switch the log: " + e.getMessage() + System.lineSeparator());
+		}
+	}
+
+	/**
+	 * Loads the Reactome pathways and their hierarchy; a pathway with several
+	 * parents is stored under the first one
+	 * @param pathways - rows of pathway ID, name and species
+	 * @param relations - rows of parent and child pathway ID, may be {@code null}
+	 * @param organism - species of the pathways to load, all if {@code null}
+	 * @return number of pathways
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	public int loadPathways(File pathways, File relations, String organism) throws IOException, SQLException {
+		Map<String, String> parents = new HashMap<String, String>();
+		if (relations != null)
+			for (String[] row : readRows(relations, 2)) {
+				if (!parents.containsKey(row[1]))
+					parents.put(row[1], row[0]);
+			}
+
+		Inserter ins = new Inserter("PATHWAYINFO", PATHWAY_INSERT_SQL);
+		try {
+			for (String[] row : readRows(pathways, 3)) {
+				if (organism != null && !organism.equals(row[2]))
+					continue;
+				long uid = pathwayUids.size() + 1;
+				pathwayUids.put(row[0], uid);
+				ins.ps.setLong(1, uid);
+				ins.ps.setString(2, row[1]);
+				ins.ps.setString(3, REACTOME);
+				ins.ps.setString(4, row[2]);
+				ins.ps.setString(5, row[0]);
+				ins.ps.setString(6, parents.get(row[0]));
+				ins.add();
+			}
+		} finally {
+			ins.close();
+		}
+		return ins.rows;
+	}
+
+	/**
+	 * Loads the proteins, and their associations with the loaded pathways.
+	 * The sequences are kept for {@link #loadPeptides(Trypsinator, int)}.
+	 * @return number of proteins
+	 * @throws SQLException
+	 */
+	public int loadProteins(Iterator<SProtEntry> entries) throws SQLException {
+		Inserter prots = new Inserter("PROTEININFO", PROTEIN_INSERT_SQL);
+		Inserter assocs = new Inserter("PATHWAYASSOC", ASSOC_INSERT_SQL);
+		try {
+			while (entries.hasNext()) {
+				SProtEntry e = entries.next();
+				if (e.getAcc().isEmpty() || sequences.indexOf(e.getAcc()) >= 0) {
+					logger.warning("Skipping entry without or with duplicate accession: " + e.getUid()
+							+ System.lineSeparator());
+					continue;
+				}
+
+				prots.ps.setString(1, e.getAcc());
+				prots.ps.setString(2, e.getUid());
+				prots.ps.setString(3, e.getName());
+				prots.ps.setString(4, e.getGeneSymbols());
+				prots.ps.setString(5, join(e.getSecondaryAccs()));
+				prots.add();
+				sequences.add(e);
+
+				if (e.getAnnotations() == null)
+					continue;
+				for (SProtEntry.FuncAnnotation a : e.getAnnotations()) {
+					if (!a.getSource().equals(SProtParser.REACTOME))
+						continue;
+					Long uid = pathwayUids.get(a.getId());
+					if (uid == null) {
+						nUnknownPathways++;
+						continue;
+					}
+					assocs.ps.setString(1, e.getAcc());
+					assocs.ps.setLong(2, uid);
+					assocs.add();
+				}
+			}
+		} finally {
+			prots.close();
+			assocs.close();
+		}
+		if (nUnknownPathways > 0)
+			logger.info(nUnknownPathways + " references to pathways that were not loaded skipped"
+					+ System.lineSeparator());
+		return prots.rows;
+	}
+
+	private static String join(Iterable<String> accs) {
+		if (accs == null)
+			return null;
+		StringBuilder sb = new StringBuilder();
+		for (String acc : accs) {
+			if (sb.length() > 0)
+				sb.append(AccessionIndex.SEC_ID_SEPARATOR);
+			sb.append(acc);
+		}
+		return sb.length() > 0 ? sb.toString() : null;
+	}
+
+	/**
+	 * Digests the loaded proteins and inserts their peptides
+	 * @return number of peptides
+	 * @throws IOException
+	 * @throws SQLException
+	 * @throws InterruptedException
+	 */
+	public int loadPeptides(Trypsinator t, int nThreads) throws IOException, SQLException, InterruptedException {
+		long t0 = System.currentTimeMillis();
+		DigestionPipeline pipeline = new DigestionPipeline(t, nThreads);
+		int n = pipeline.run(new StoredEntries(), new DigestionPipeline.TableSink(conn, COMMIT_INTERVAL));
+		addStats(new TableStats("PEPTIDEINFO", n, System.currentTimeMillis() - t0));
+		return n;
+	}
+
+	/**
+	 * Creates the primary keys and the indexes, enables the transaction log
+	 * again and writes a checkpoint
+	 * @return names of the created indexes
+	 * @throws SQLException
+	 */
+	public List<String> finish() throws SQLException {
+		long t0 = System.currentTimeMillis();
+		Statement s = conn.createStatement();
+		List<String> created;
+		try {
+			for (String sql : PRIMARY_KEYS)
+				s.execute(sql);
+			created = new DbOptimizer(conn).createMissingIndexes();
+			setLog(s, true);
+			s.execute("CHECKPOINT");
+		} finally {
+			s.close();
+		}
+		logger.info("Created primary keys and indexes " + created + " in "
+				+ (System.currentTimeMillis() - t0) + " ms" + System.lineSeparator());
+		return created;
+	}
+
+	/**
+	 * @return the load statistics, by table
+	 */
+	public Map<String, TableStats> getStats() {
+		return Collections.unmodifiableMap(stats);
+	}
+
+	public SequenceStore getSequences() {
+		return sequences;
+	}
+
+	/**
+	 * @return number of Reactome references of the proteins to pathways that
+	 * were not loaded
+	 */
+	public int getNbrOfUnknownPathways() {
+		return nUnknownPathways;
+	}
+
+	private void addStats(TableStats ts) {
+		TableStats old = stats.get(ts.table);
+		if (old != null)
+			ts = new TableStats(ts.table, old.rows + ts.rows, old.millis + ts.millis);
+		stats.put(ts.table, ts);
+		logger.info(ts.toString() + System.lineSeparator());
+	}
+
+	/**
+	 * @return the tab separated rows with at least {@code minFields} fields
+	 */
+	private static List<String[]> readRows(File f, int minFields) throws IOException {
+		List<String[]> rows = new ArrayList<String[]>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				Channels.newInputStream(CompressionUtils.openChannel(f)), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] row = line.split("\t");
+				if (row.length >= minFields)
+					rows.add(row);
+			}
+		} finally {
+			in.close();
+		}
+		return rows;
+	}
+
+	/**
+	 * Batched inserts into one table, committed every {@link #COMMIT_INTERVAL} rows
+	 */
+	private class Inserter {
+		final String table;
+		final PreparedStatement ps;
+		final long t0 = System.currentTimeMillis();
+		int rows = 0, pending = 0;
+
+		Inserter(String table, String sql) throws SQLException {
+			this.table = table;
+			conn.setAutoCommit(false);
+			ps = conn.prepareStatement(sql);
+		}
+
+		void add() throws SQLException {
+			ps.addBatch();
+			rows++;
+			if (++pending == INSERT_BATCH_SIZE) {
+				ps.executeBatch();
+				pending = 0;
+			}
+			if (rows % COMMIT_INTERVAL == 0)
+				conn.commit();
+		}
+
+		void close() throws SQLException {
+			try {
+				if (pending > 0)
+					ps.executeBatch();
+				conn.commit();
+			} finally {
+				ps.close();
+			}
+			addStats(new TableStats(table, rows, System.currentTimeMillis() - t0));
+		}
+	}
+
+	/**
+	 * The loaded proteins as entries holding only the accession and the
+	 * sequence, created while the digestion reads them
+	 */
+	private class StoredEntries implements Iterator<SProtEntry> {
+		private int next = 0;
+
+		@Override
+		public boolean hasNext() {
+			return next < sequences.size();
+		}
+
+		@Override
+		public SProtEntry next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			SProtEntry e = new SProtEntry();
+			e.setAcc(sequences.getAccession(next));
+			e.setSequence(sequences.getSequence(next).toString());
+			next++;
+			return e;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Number of rows loaded into a table and the time it took
+	 */
+	public static class TableStats {
+		private final String table;
+		private final int rows;
+		private final long millis;
+
+		public TableStats(String table, int rows, long millis) {
+			this.table = table;
+			this.rows = rows;
+			this.millis = millis;
+		}
+
+		public String getTable() {
+			return table;
+		}
+
+		public int getRows() {
+			return rows;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+
+		public double getRowsPerSecond() {
+			return rows * 1000D / Math.max(1, millis);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Loaded %d rows into %s in %d ms (%.0f rows/s)",
+					rows, table, millis, getRowsPerSecond());
+		}
+	}
+}
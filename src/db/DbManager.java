@@ -1,20 +1,28 @@
 package db;
 
 import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import main.Accession;
+import main.Pair;
 
 public class DbManager {
 
@@ -29,11 +37,40 @@ public class DbManager {
 	private PreparedStatement allProtsContainingPepSeqQuery;
 
 	private String dbName, connString;
+	private final boolean readOnly;
+	private AccessionIndex accIndex;
 	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
 
+	static final String PROTEIN_SQL = "select * from PROTEININFO where ACC=(?)";
+	static final String PATH_UID_SQL = "select * from PATHWAYINFO where UID=(?)";
+	static final String PATH_NAME_SQL = "select * from PATHWAYINFO where Name=(?) and DB=(?)";
+	static final String PATH_PARENT_SQL = "select * from PATHWAYINFO where Parent=(?)";
+	
+	static final String ALL_PROTS_IN_PATH_SQL = 
+			"select ACC, UNIPROT_ID, PROTEININFO.NAME, GENE_SYMBOL from " + 
+				"(select * from PATHWAYINFO where UID =(?)) " + 
+					"inner join PATHWAYASSOC on UID = PATHWAY_UID " +
+					"inner join PROTEININFO on ACCESSION = ACC";
+	
+	static final String ALL_PATHS_WITH_PROT_SQL = 
+			"select UID, PATHWAYINFO.NAME, DB, ORGANISM from " + 
+				"(select * from PROTEININFO where ACC = (?)) " + 
+					"inner join PATHWAYASSOC on ACCESSION = ACC " +
+					"inner join PATHWAYINFO on PATHWAY_UID = UID";
+	
+	static final String ALL_PEPS_IN_PROT_SQL = 
+			"select ACC, UNIPROT_ID, SEQUENCE, START, STOP, PTMS from " + 
+				"(select ACC, UNIPROT_ID from PROTEININFO where ACC = (?)) " + 
+					"inner join PEPTIDEINFO on ACC = PROTEIN ";
+	
+	static final String ALL_PROTS_WITH_PEP_SQL = 
+			"select ACC, UNIPROT_ID, SEQUENCE, START, STOP, PTMS from " + 
+				"(select * from PEPTIDEINFO where SEQUENCE = (?)) " + 
+					"inner join PROTEININFO on ACC = PROTEIN ";
 	
 	public DbManager(File parent, String dbname) throws SQLException{
 		String path = "";
+		readOnly = true;
 		if(parent != null)
 			path = path + parent.getAbsolutePath() + System.getProperty("file.separator");
 		
@@ -43,6 +80,11 @@ public class DbManager {
 	}
 	
 	public DbManager(File dbFile) throws SQLException{
+		this(dbFile, true);
+	}
+	
+	public DbManager(File dbFile, boolean readOnly) throws SQLException{
+		this.readOnly = readOnly;
 		dbName = dbFile.getName().substring(0, dbFile.getName().indexOf("."));
 		String dbpath = dbFile.getAbsolutePath();
 		if(dbpath.contains("."))
@@ -61,51 +103,116 @@ public class DbManager {
 		
 		logger.info("Attempting to connect to DB at " + connString + System.lineSeparator());
 		conn = DriverManager.getConnection(connString, "SA", "");
-		conn.setReadOnly(true);
-		
+		conn.setReadOnly(readOnly);
+		prepareStatements();
+		accIndex = AccessionIndex.load(conn);
+	}
+	
+	private void prepareStatements() throws SQLException{
 		// Prepared statements that will be used over and over
-		proteinQuery = conn.prepareStatement("select * from PROTEININFO where ACC=(?)");
-		pathUIDQuery = conn.prepareStatement("select * from PATHWAYINFO where UID=(?)");
-		pathNameQuery = conn.prepareStatement("select * from PATHWAYINFO where Name=(?) and DB=(?)");
-		pathParentQuery = conn.prepareStatement("select * from PATHWAYINFO where Parent=(?)");
+		proteinQuery = conn.prepareStatement(PROTEIN_SQL);
+		pathUIDQuery = conn.prepareStatement(PATH_UID_SQL);
+		pathNameQuery = conn.prepareStatement(PATH_NAME_SQL);
+		pathParentQuery = conn.prepareStatement(PATH_PARENT_SQL);
+		allProtsInPathQuery = conn.prepareStatement(ALL_PROTS_IN_PATH_SQL);
+		allPathsWithProtQuery = conn.prepareStatement(ALL_PATHS_WITH_PROT_SQL);
+		allPepsInProteinQuery = conn.prepareStatement(ALL_PEPS_IN_PROT_SQL);
+		allProtsContainingPepSeqQuery = conn.prepareStatement(ALL_PROTS_WITH_PEP_SQL);
+	}
+	
+	/**
+	 * Inspects the schema of the underlying database, creates any of the 
+	 * indexes listed in {@link DbOptimizer#REQUIRED_INDEXES} that are missing 
+	 * and persists them with a checkpoint. Query plans and timings of the 
+	 * prepared statements are recorded before and after the change.
+	 * <p> The database has to be opened as writable, see {@link #copyDatabase(File, File)}
+	 * for obtaining a writable copy of a downloaded database.
+	 * @return a report of the created indexes, plans and timings
+	 * @throws IllegalStateException if this manager was opened read-only
+	 * @throws SQLException
+	 */
+	public synchronized DbOptimizer.Report optimize() throws SQLException{
+		if(readOnly)
+			throw new IllegalStateException("Cannot optimize a read-only database, open a writable copy instead");
 		
-		allProtsInPathQuery = 
-			conn.prepareStatement(
-				"select ACC, UNIPROT_ID, PROTEININFO.NAME, GENE_SYMBOL from " + 
-					"(select * from PATHWAYINFO where UID =(?)) " + 
-						"inner join PATHWAYASSOC on UID = PATHWAY_UID " +
-						"inner join PROTEININFO on ACCESSION = ACC");
+		DbOptimizer.Report report = new DbOptimizer(conn).optimize();
+		Statement s = conn.createStatement();
+		try{
+			s.execute("CHECKPOINT");
+		}
+		finally{
+			s.close();
+		}
+		
+		// Recompile the statements so that they pick up the new indexes
+		closeStatements();
+		prepareStatements();
+		
+		logger.info(report.toString() + System.lineSeparator());
+		return report;
+	}
+	
+	/**
+	 * Copies all files belonging to the given HSQLDB database, i.e. all files 
+	 * sharing the same base name such as <code>.script</code> and 
+	 * <code>.properties</code>, into the given folder. 
+	 * @param dbFile any of the files of the database
+	 * @param targetDir the folder into which the files are copied
+	 * @return the copy of {@code dbFile} within {@code targetDir}
+	 * @throws IOException
+	 */
+	public static File copyDatabase(File dbFile, File targetDir) throws IOException{
+		String name = dbFile.getName();
+		final String base = name.contains(".") ? name.substring(0, name.indexOf('.')) : name;
+		File[] parts = dbFile.getAbsoluteFile().getParentFile().listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String filename) {
+				return filename.startsWith(base + ".");
+			}
+		});
 		
-		allPathsWithProtQuery = 
-			conn.prepareStatement(
-				"select UID, PATHWAYINFO.NAME, DB, ORGANISM from " + 
-					"(select * from PROTEININFO where ACC = (?)) " + 
-						"inner join PATHWAYASSOC on ACCESSION = ACC " +
-						"inner join PATHWAYINFO on PATHWAY_UID = UID");
+		if(!targetDir.exists() && !targetDir.mkdirs())
+			throw new IOException("Could not create folder: " + targetDir);
 		
-		allPepsInProteinQuery = 
-			conn.prepareStatement(
-					"select ACC, UNIPROT_ID, SEQUENCE, START, STOP, PTMS from " + 
-						"(select ACC, UNIPROT_ID from PROTEININFO where ACC = (?)) " + 
-							"inner join PEPTIDEINFO on ACC = PROTEIN ");
+		for(File part : parts){
+			if(part.getName().endsWith(".lck"))
+				continue;
+			Files.copy(part.toPath(), new File(targetDir, part.getName()).toPath(), 
+					StandardCopyOption.REPLACE_EXISTING);
+		}
 		
-		allProtsContainingPepSeqQuery =
-			conn.prepareStatement(
-					"select ACC, UNIPROT_ID, SEQUENCE, START, STOP, PTMS from " + 
-						"(select * from PEPTIDEINFO where SEQUENCE = (?)) " + 
-							"inner join PROTEININFO on ACC = PROTEIN ");
+		logger.info("Database " + base + " copied to " + targetDir.getAbsolutePath() 
+				+ System.lineSeparator());
+		return new File(targetDir, name);
 	}
 	
 	public String getDBName(){
 		return dbName;
 	}
 	
+	/**
+	 * @return the index used to resolve secondary and isoform accessions
+	 * to the primary accessions stored in this database
+	 */
+	public AccessionIndex getAccessionIndex(){
+		return accIndex;
+	}
+	
+	/**
+	 * Checks the accession index, no queries are run.
+	 * @param acc - UniProt accession, possibly a secondary accession or an isoform
+	 * @return {@code true} if the accession can have any pathway associations in this DB 
+	 */
+	public boolean mayHavePathways(String acc){
+		return accIndex.hasPathways(accIndex.normalize(acc));
+	}
+	
 	/**
 	 * Retrieves all pathways stored in the database
 	 * @return a set containing {@code PathwayImpl} instances if the DB contains any, {@code null} otherwise
 	 * @throws SQLException
 	 */
-	public Set<PathwayImpl> getAllPaths() throws SQLException{
+	public synchronized Set<PathwayImpl> getAllPaths() throws SQLException{
 		logger.finer("Attempting to query all pathways"  + System.lineSeparator());
 		Statement s = conn.createStatement();
 		ResultSet set = s.executeQuery("select * from PATHWAYINFO");
@@ -131,7 +238,7 @@ public class DbManager {
 	 * @return a ProteinImpl if the accession exists in the DB, null otherwise
 	 * @throws SQLException
 	 */
-	public ProteinImpl getProteinByAccession(String acc) throws SQLException{
+	public synchronized ProteinImpl getProteinByAccession(String acc) throws SQLException{
 		logger.finer("Attempting to query protein accession: " + acc  + System.lineSeparator());
 		if(!Accession.isValid(acc)){
 			logger.severe("given accession " 
@@ -142,6 +249,13 @@ public class DbManager {
 			//throw new IllegalArgumentException("'" + acc + "' is not a valid accession");			
 		}
 		
+		acc = accIndex.normalize(acc);
+		if(!accIndex.isPrimary(acc)){
+			logger.finer("Accession " + acc + " is not in the database, query skipped" 
+					+ System.lineSeparator());
+			return null;
+		}
+		
 		proteinQuery.setString(1, acc);
 		ResultSet set = proteinQuery.executeQuery();
 		ProteinImpl prot = null;
@@ -186,7 +300,7 @@ public class DbManager {
 	 * @return a {@code PathwayImpl} instance
 	 * @throws SQLException
 	 */
-	public PathwayImpl getPathwayByUID(long uid) throws SQLException {
+	public synchronized PathwayImpl getPathwayByUID(long uid) throws SQLException {
 		logger.finer("Attempting to query pathway by uid: " + uid  + System.lineSeparator());
 		pathUIDQuery.setLong(1, uid);
 		ResultSet set = pathUIDQuery.executeQuery();
@@ -215,7 +329,7 @@ public class DbManager {
 	 * @return a {@code PathwayImpl} instance
 	 * @throws SQLException
 	 */
-	public PathwayImpl getPathwayByName(String pathName, String db) throws SQLException {
+	public synchronized PathwayImpl getPathwayByName(String pathName, String db) throws SQLException {
 		logger.finer("Attempting to query pathway by name: " 
 						+ pathName  + " from db " + db + System.lineSeparator());
 		
@@ -241,7 +355,7 @@ public class DbManager {
 		
 	}
 	
-	public Set<PathwayImpl> getPathwaysByParent(String parentRDF) throws SQLException{
+	public synchronized Set<PathwayImpl> getPathwaysByParent(String parentRDF) throws SQLException{
 		Set<PathwayImpl> paths = new HashSet<PathwayImpl>();
 		ResultSet set;
 		if(parentRDF != null){
@@ -267,7 +381,44 @@ public class DbManager {
 		return paths;
 	}
 	
-	public String getPathwayRDFID(long uid) throws SQLException{
+	/**
+	 * Retrieves the complete pathway hierarchy with a single query.
+	 * @return pathways grouped by the RDF ID of their parent pathway, each paired 
+	 * with its own RDF ID. Top-level pathways are stored under the {@code null} key.
+	 * @throws SQLException
+	 */
+	public synchronized Map<String, List<Pair<PathwayImpl, String>>> getPathwayHierarchy() throws SQLException{
+		logger.finer("Attempting to query the pathway hierarchy" + System.lineSeparator());
+		Map<String, List<Pair<PathwayImpl, String>>> hierarchy = 
+				new HashMap<String, List<Pair<PathwayImpl, String>>>();
+		
+		Statement s = conn.createStatement();
+		try{
+			ResultSet set = s.executeQuery("select UID, NAME, DB, ORGANISM, RDFID, PARENT from PATHWAYINFO");
+			List<Pair<PathwayImpl, String>> siblings;
+			while(set.next()){
+				PathwayImpl path = new PathwayImpl(
+						set.getLong("uid"),
+						set.getString("name"),
+						set.getString("db"),
+						set.getString("organism"));
+				
+				String parent = set.getString("parent");
+				siblings = hierarchy.get(parent);
+				if(siblings == null){
+					siblings = new ArrayList<Pair<PathwayImpl, String>>();
+					hierarchy.put(parent, siblings);
+				}
+				siblings.add(Pair.of(path, set.getString("rdfid")));
+			}
+		}
+		finally{
+			s.close();
+		}
+		return hierarchy;
+	}
+	
+	public synchronized String getPathwayRDFID(long uid) throws SQLException{
 		logger.finer("Attempting to query pathway by uid: " + uid  + System.lineSeparator());
 		pathUIDQuery.setLong(1, uid);
 		ResultSet set = pathUIDQuery.executeQuery();
@@ -290,7 +441,7 @@ public class DbManager {
 	 * @return a set of {@code ProteinImpl} instances that are associated with the given pathway
 	 * @throws SQLException
 	 */
-	public Set<ProteinImpl> getAllProtsInPath(long uid) throws SQLException{
+	public synchronized Set<ProteinImpl> getAllProtsInPath(long uid) throws SQLException{
 		logger.finer("Attempting to query all proteins in pathway uid: " + uid + 
 				System.lineSeparator());
 
@@ -322,11 +473,15 @@ public class DbManager {
 	 * @return a set of {@code PathwayImpl} instances that represent the pathways
 	 * @throws SQLException
 	 */
-	public Set<PathwayImpl> getAllPathsWithProtein(String acc) throws SQLException{
+	public synchronized Set<PathwayImpl> getAllPathsWithProtein(String acc) throws SQLException{
 		logger.finer("Attempting to query all pathways containing: " + acc + 
 				System.lineSeparator());
 
 		Set<PathwayImpl> paths = new HashSet<PathwayImpl>();
+		acc = accIndex.normalize(acc);
+		if(!accIndex.hasPathways(acc))
+			return paths;
+		
 		allPathsWithProtQuery.setString(1, acc);
 		ResultSet set = allPathsWithProtQuery.executeQuery();
 		PathwayImpl path = null;
@@ -353,9 +508,9 @@ public class DbManager {
 	 * are associated with this particular protein.
 	 * @throws SQLException
 	 */
-	public Set<ProtSpecificPepSeqImpl> getAllPepsInProtein(String acc) throws SQLException{
+	public synchronized Set<ProtSpecificPepSeqImpl> getAllPepsInProtein(String acc) throws SQLException{
 		Set<ProtSpecificPepSeqImpl> peps = new HashSet<ProtSpecificPepSeqImpl>();
-		allPepsInProteinQuery.setString(1, acc);
+		allPepsInProteinQuery.setString(1, accIndex.normalize(acc));
 		ResultSet set = allPepsInProteinQuery.executeQuery();
 		ProtSpecificPepSeqImpl pep = null;
 		
@@ -382,7 +537,7 @@ public class DbManager {
 	 * of the proteins which contain the given peptide seqeunce. 
 	 * @throws SQLException
 	 */
-	public Set<String> getAllProtsContainingPepSeq(String seq) throws SQLException{
+	public synchronized Set<String> getAllProtsContainingPepSeq(String seq) throws SQLException{
 		Set<String> accs = new HashSet<String>();
 		allProtsContainingPepSeqQuery.setString(1, seq);
 		ResultSet set = allProtsContainingPepSeqQuery.executeQuery();
@@ -404,7 +559,7 @@ public class DbManager {
 	 * @return a set of {@code ProtSpecificPepSeq} instances that match the given sequence 
 	 * @throws SQLException
 	 */
-	public Set<ProtSpecificPepSeqImpl> getAllProtSpecificPepSeqs(String seq) throws SQLException{
+	public synchronized Set<ProtSpecificPepSeqImpl> getAllProtSpecificPepSeqs(String seq) throws SQLException{
 		Set<ProtSpecificPepSeqImpl> peps = new HashSet<ProtSpecificPepSeqImpl>();
 		allProtsContainingPepSeqQuery.setString(1, seq);
 		ResultSet set = allProtsContainingPepSeqQuery.executeQuery();
@@ -426,14 +581,20 @@ public class DbManager {
 	}
 
 	
-	public void closeResources() throws SQLException{
-		proteinQuery.closeOnCompletion();
-		pathUIDQuery.closeOnCompletion();
-		allPathsWithProtQuery.closeOnCompletion();
-		allProtsInPathQuery.closeOnCompletion();
-		allPepsInProteinQuery.closeOnCompletion();
-		allProtsContainingPepSeqQuery.closeOnCompletion();
+	public synchronized void closeResources() throws SQLException{
+		closeStatements();
 		conn.close();
 	}
+	
+	private void closeStatements() throws SQLException{
+		proteinQuery.close();
+		pathUIDQuery.close();
+		pathNameQuery.close();
+		pathParentQuery.close();
+		allPathsWithProtQuery.close();
+		allProtsInPathQuery.close();
+		allPepsInProteinQuery.close();
+		allProtsContainingPepSeqQuery.close();
+	}
 
 }
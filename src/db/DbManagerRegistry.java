@@ -0,0 +1,177 @@
+package db;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide registry of {@link DbManager} instances, one per database file.
+ * Analyses that use the same database share the manager together with its
+ * connection, accession index and caches. Managers are reference counted and
+ * closed once the last analysis releases them.
+ * <p> Databases are opened and closed outside of the lock of the registry, so
+ * that releasing a manager, e.g. from the event dispatch thread, never waits
+ * for another database to load. Analyses that acquire a database while it
+ * is being opened wait for the same manager.
+ */
+public class DbManagerRegistry {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	private static final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private static final Map<DbManager, Entry> opened = new HashMap<DbManager, Entry>();
+
+	private DbManagerRegistry(){}
+
+	/**
+	 * A database that is open or being opened, and the number of its users
+	 */
+	private static class Entry {
+		final String key;
+		final FutureTask<DbManager> manager;
+		int users = 0;
+
+		Entry(String key, final File dbFile){
+			this.key = key;
+			this.manager = new FutureTask<DbManager>(new Callable<DbManager>() {
+				@Override
+				public DbManager call() throws SQLException {
+					return new DbManager(dbFile);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Hands out the shared manager of the given database, opening it if needed.
+	 * Every call has to be matched by a call to {@link #release(DbManager)}.
+	 * @param dbFile any of the files of the database, e.g. the <code>.script</code> file
+	 * @return a read-only {@code DbManager}
+	 * @throws SQLException if the database cannot be opened
+	 */
+	public static DbManager acquire(File dbFile) throws SQLException{
+		String key = getKey(dbFile);
+		Entry e;
+		boolean opener = false;
+		synchronized(DbManagerRegistry.class){
+			e = entries.get(key);
+			if(e == null){
+				e = new Entry(key, dbFile);
+				entries.put(key, e);
+				opener = true;
+			}
+			e.users++;
+		}
+
+		// the first user opens the database, the others wait for it
+		if(opener)
+			e.manager.run();
+		DbManager dbm;
+		try {
+			dbm = await(e.manager);
+		} catch (SQLException ex) {
+			synchronized(DbManagerRegistry.class){
+				if(entries.get(key) == e)
+					entries.remove(key);
+			}
+			throw ex;
+		}
+
+		int n;
+		synchronized(DbManagerRegistry.class){
+			opened.put(dbm, e);
+			n = e.users;
+		}
+		logger.info("Database " + dbm.getDBName() + " acquired, " + n + " user(s)"
+				+ System.lineSeparator());
+		return dbm;
+	}
+
+	private static DbManager await(FutureTask<DbManager> f) throws SQLException{
+		boolean interrupted = false;
+		try {
+			while(true){
+				try {
+					return f.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					if(e.getCause() instanceof SQLException)
+						throw (SQLException) e.getCause();
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		} finally {
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Adds a user to a manager obtained from {@link #acquire(File)}, e.g. for
+	 * an analysis that keeps querying the database after the component that
+	 * acquired it has released it. Has to be matched by a call to
+	 * {@link #release(DbManager)}.
+	 */
+	public static synchronized void retain(DbManager dbm){
+		Entry e = opened.get(dbm);
+		if(e == null)
+			throw new IllegalArgumentException("DbManager was not acquired from the registry!");
+		e.users++;
+	}
+
+	/**
+	 * Releases a manager obtained from {@link #acquire(File)}, and closes
+	 * it if no other analysis uses it.
+	 * @throws SQLException
+	 */
+	public static void release(DbManager dbm) throws SQLException{
+		int n;
+		synchronized(DbManagerRegistry.class){
+			Entry e = opened.get(dbm);
+			if(e == null)
+				throw new IllegalArgumentException("DbManager was not acquired from the registry!");
+
+			n = --e.users;
+			if(n == 0){
+				opened.remove(dbm);
+				entries.remove(e.key);
+			}
+		}
+
+		if(n > 0){
+			logger.info("Database " + dbm.getDBName() + " released, " + n + " user(s) left"
+					+ System.lineSeparator());
+			return;
+		}
+		dbm.closeResources();
+		logger.info("Database " + dbm.getDBName() + " closed, no users left"
+				+ System.lineSeparator());
+	}
+
+	public static synchronized int getNbrOfUsers(DbManager dbm){
+		Entry e = opened.get(dbm);
+		return e == null ? 0 : e.users;
+	}
+	/**
+	 * Files of the same database share the path without extension
+	 */
+	private static String getKey(File dbFile){
+		String path;
+		try {
+			path = dbFile.getCanonicalPath();
+		} catch (IOException e) {
+			path = dbFile.getAbsolutePath();
+		}
+
+		int sep = path.lastIndexOf(File.separatorChar);
+		int dot = path.indexOf('.', sep + 1);
+		return dot < 0 ? path : path.substring(0, dot);
+	}
+}
@@ -0,0 +1,322 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Inspects the schema of a pathway database and creates the indexes that
+ * the queries in {@link DbManager} rely on. The plans and the timings of
+ * each prepared statement are recorded before and after the indexes are
+ * created, so that the effect of the optimization can be followed in the logs.
+ * <p> The given connection must not be read-only.
+ */
+public class DbOptimizer {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	/**
+	 * Table and column pairs that are expected to be indexed, the column
+	 * counts as indexed if it is the leading column of any index on the table.
+	 */
+	public static final String[][] REQUIRED_INDEXES = {
+		{"PATHWAYASSOC", "ACCESSION"},
+		{"PATHWAYASSOC", "PATHWAY_UID"},
+		{"PEPTIDEINFO", "SEQUENCE"},
+		{"PEPTIDEINFO", "PROTEIN"},
+		{"PATHWAYINFO", "PARENT"}
+	};
+
+	/**
+	 * Number of times each statement is executed when timing it
+	 */
+	public static final int N_TIMING_RUNS = 5;
+
+	private final Connection conn;
+
+	public DbOptimizer(Connection conn){
+		this.conn = conn;
+	}
+
+	/**
+	 * Runs the complete optimization step:
+	 * <ol>
+	 * <li> records the plans and timings of the prepared statements
+	 * <li> creates the missing indexes
+	 * <li> records the plans and timings once again
+	 * </ol>
+	 * @return a {@code Report} describing the outcome
+	 * @throws SQLException
+	 */
+	public Report optimize() throws SQLException{
+		if(conn.isReadOnly())
+			throw new IllegalStateException("Cannot create indexes over a read-only connection");
+
+		Report report = new Report();
+		Map<String, Object[]> probes = getProbeQueries();
+
+		for(Map.Entry<String, Object[]> e : probes.entrySet()){
+			report.plansBefore.put(e.getKey(), explain(e.getKey(), e.getValue()));
+			report.timesBefore.put(e.getKey(), time(e.getKey(), e.getValue()));
+		}
+
+		report.createdIndexes.addAll(createMissingIndexes());
+
+		for(Map.Entry<String, Object[]> e : probes.entrySet()){
+			report.plansAfter.put(e.getKey(), explain(e.getKey(), e.getValue()));
+			report.timesAfter.put(e.getKey(), time(e.getKey(), e.getValue()));
+		}
+
+		return report;
+	}
+
+	/**
+	 * Creates the indexes listed in {@link #REQUIRED_INDEXES} that are missing,
+	 * without recording plans or timings
+	 * @return names of the created indexes
+	 * @throws SQLException
+	 */
+	public List<String> createMissingIndexes() throws SQLException{
+		List<String> created = new ArrayList<String>();
+		for(String[] index : getMissingIndexes()){
+			String name = "IDX_" + index[0] + "_" + index[1];
+			logger.info("Creating index " + name + System.lineSeparator());
+			Statement s = conn.createStatement();
+			try{
+				s.execute("create index " + name + " on " + index[0] + "(" + index[1] + ")");
+			}
+			finally{
+				s.close();
+			}
+			created.add(name);
+		}
+		return created;
+	}
+
+	/**
+	 * Checks the schema for the indexes listed in {@link #REQUIRED_INDEXES}
+	 * @return table and column pairs that are not covered by an index,
+	 * tables that do not exist in the database are skipped.
+	 * @throws SQLException
+	 */
+	public List<String[]> getMissingIndexes() throws SQLException{
+		DatabaseMetaData meta = conn.getMetaData();
+		List<String[]> missing = new ArrayList<String[]>();
+
+		for(String[] index : REQUIRED_INDEXES){
+			if(!tableExists(meta, index[0])){
+				logger.warning("Table " + index[0] + " does not exist, skipping index on "
+						+ index[1] + System.lineSeparator());
+				continue;
+			}
+
+			if(!getLeadingIndexColumns(meta, index[0]).contains(index[1]))
+				missing.add(index);
+		}
+		return missing;
+	}
+
+	/*	PRIVATE METHODS	*/
+
+	private boolean tableExists(DatabaseMetaData meta, String table) throws SQLException{
+		ResultSet set = meta.getTables(null, null, table, null);
+		try{
+			return set.next();
+		}
+		finally{
+			set.close();
+		}
+	}
+
+	private Set<String> getLeadingIndexColumns(DatabaseMetaData meta, String table) throws SQLException{
+		Set<String> cols = new HashSet<String>();
+		ResultSet set = meta.getIndexInfo(null, null, table, false, false);
+		try{
+			while(set.next()){
+				if(set.getShort("ORDINAL_POSITION") == 1)
+					cols.add(set.getString("COLUMN_NAME").toUpperCase());
+			}
+		}
+		finally{
+			set.close();
+		}
+		return cols;
+	}
+
+	/**
+	 * Samples one set of parameters per prepared statement of {@code DbManager}
+	 * from the data itself, so that the timed queries actually return rows.
+	 */
+	private Map<String, Object[]> getProbeQueries() throws SQLException{
+		String acc = sampleValue("select ACC from PROTEININFO");
+		String parent = sampleValue("select PARENT from PATHWAYINFO where PARENT is not null");
+		String seq = sampleValue("select SEQUENCE from PEPTIDEINFO");
+		Object uid = null, name = null, db = null;
+
+		Statement s = conn.createStatement();
+		try{
+			s.setMaxRows(1);
+			ResultSet set = s.executeQuery("select UID, NAME, DB from PATHWAYINFO");
+			if(set.next()){
+				uid = set.getLong("uid");
+				name = set.getString("name");
+				db = set.getString("db");
+			}
+		}
+		finally{
+			s.close();
+		}
+
+		Map<String, Object[]> probes = new LinkedHashMap<String, Object[]>();
+		probes.put(DbManager.PROTEIN_SQL, new Object[]{acc});
+		probes.put(DbManager.PATH_UID_SQL, new Object[]{uid});
+		probes.put(DbManager.PATH_NAME_SQL, new Object[]{name, db});
+		probes.put(DbManager.PATH_PARENT_SQL, new Object[]{parent});
+		probes.put(DbManager.ALL_PROTS_IN_PATH_SQL, new Object[]{uid});
+		probes.put(DbManager.ALL_PATHS_WITH_PROT_SQL, new Object[]{acc});
+		probes.put(DbManager.ALL_PEPS_IN_PROT_SQL, new Object[]{acc});
+		probes.put(DbManager.ALL_PROTS_WITH_PEP_SQL, new Object[]{seq});
+		return probes;
+	}
+
+	private String sampleValue(String sql) throws SQLException{
+		Statement s = conn.createStatement();
+		try{
+			s.setMaxRows(1);
+			ResultSet set = s.executeQuery(sql);
+			return set.next() ? set.getString(1) : null;
+		}
+		finally{
+			s.close();
+		}
+	}
+
+	private String explain(String sql, Object[] params){
+		StringBuilder sb = new StringBuilder();
+		PreparedStatement ps = null;
+		ResultSet set = null;
+		try{
+			ps = conn.prepareStatement("explain plan for " + sql);
+			bind(ps, params);
+			set = ps.executeQuery();
+			while(set.next())
+				sb.append(set.getString(1)).append(System.lineSeparator());
+		} catch(SQLException e){
+			logger.warning("Could not explain query: " + sql + System.lineSeparator()
+					+ e.getMessage() + System.lineSeparator());
+			sb.setLength(0);
+			sb.append("N/A");
+		}
+		finally{
+			close(set, ps);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return mean execution time, including reading all rows, in microseconds
+	 */
+	private double time(String sql, Object[] params) throws SQLException{
+		PreparedStatement ps = conn.prepareStatement(sql);
+		ResultSet set = null;
+		try{
+			bind(ps, params);
+			long total = 0;
+			for(int i=0; i < N_TIMING_RUNS; i++){
+				long t0 = System.nanoTime();
+				set = ps.executeQuery();
+				while(set.next());
+				total += System.nanoTime() - t0;
+				set.close();
+				set = null;
+			}
+			return total / (1000D * N_TIMING_RUNS);
+		}
+		finally{
+			close(set, ps);
+		}
+	}
+
+	/**
+	 * Closes the result set and the statement, either may be {@code null};
+	 * failures are logged so that they do not mask the outcome of the query
+	 */
+	private static void close(ResultSet set, Statement s){
+		try{
+			if(set != null)
+				set.close();
+		} catch(SQLException e){
+			logger.warning("Could not close result set: " + e.getMessage() + System.lineSeparator());
+		}
+		try{
+			if(s != null)
+				s.close();
+		} catch(SQLException e){
+			logger.warning("Could not close statement: " + e.getMessage() + System.lineSeparator());
+		}
+	}
+
+	private void bind(PreparedStatement ps, Object[] params) throws SQLException{
+		int n = Math.min(params.length, ps.getParameterMetaData().getParameterCount());
+		for(int i=0; i < n; i++)
+			ps.setObject(i+1, params[i]);
+	}
+
+	/**
+	 * Outcome of an optimization step; statements are keyed by their SQL.
+	 */
+	public static class Report{
+
+		private final List<String> createdIndexes = new ArrayList<String>();
+		private final Map<String, String> plansBefore = new LinkedHashMap<String, String>(),
+										plansAfter = new LinkedHashMap<String, String>();
+		private final Map<String, Double> timesBefore = new LinkedHashMap<String, Double>(),
+										timesAfter = new LinkedHashMap<String, Double>();
+
+		public List<String> getCreatedIndexes(){
+			return Collections.unmodifiableList(createdIndexes);
+		}
+
+		public Map<String, String> getPlansBefore(){
+			return Collections.unmodifiableMap(plansBefore);
+		}
+
+		public Map<String, String> getPlansAfter(){
+			return Collections.unmodifiableMap(plansAfter);
+		}
+
+		public Map<String, Double> getTimesBefore(){
+			return Collections.unmodifiableMap(timesBefore);
+		}
+
+		public Map<String, Double> getTimesAfter(){
+			return Collections.unmodifiableMap(timesAfter);
+		}
+
+		@Override
+		public String toString() {
+			String nL = System.lineSeparator();
+			StringBuilder sb = new StringBuilder("DB optimization report:");
+			sb.append(nL).append("- created indexes: ").append(createdIndexes);
+			for(String sql : timesBefore.keySet()){
+				sb.append(nL).append("- ").append(sql);
+				sb.append(nL).append("\tmicros before/after: ")
+					.append(String.format("%.1f / %.1f", timesBefore.get(sql), timesAfter.get(sql)));
+				sb.append(nL).append("\tplan before: ").append(nL).append(plansBefore.get(sql));
+				sb.append("\tplan after: ").append(nL).append(plansAfter.get(sql));
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,410 @@
+package db;
+
+import io.CompressionUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import main.LongIntMap;
+
+/**
+ * Digests a stream of protein entries, e.g. a whole proteome, on several
+ * threads and streams the peptides into a {@link PeptideSink}. Entries are
+ * digested in batches, and only a bounded number of batches is in flight at
+ * any time, so the memory used does not depend on the size of the proteome.
+ * <p> Optionally each distinct peptide sequence is written only once, for
+ * whichever protein it is found in first. Sequences are deduplicated by a
+ * 64-bit fingerprint rather than kept as strings.
+ */
+public class DigestionPipeline {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	public static final int DEFAULT_BATCH_SIZE = 256;
+	private static final int STRIPES = 64;
+
+	/**
+	 * Receives the peptides, called by one thread at a time
+	 */
+	public interface PeptideSink {
+		/**
+		 * @param acc - accession of the protein
+		 * @param seq - sequence of the peptide
+		 * @param start - position of the first residue, counted from 1
+		 * @param stop - position after the last residue, counted from 1
+		 * @param mass - monoisotopic mass of the peptide
+		 * @throws IOException
+		 */
+		public void write(String acc, String seq, int start, int stop, double mass) throws IOException;
+
+		/**
+		 * Called once all peptides have been written
+		 * @throws IOException
+		 */
+		public void close() throws IOException;
+
+		/**
+		 * Called instead of {@link #close()} if the run fails, the peptides
+		 * written so far are discarded
+		 */
+		public void abort();
+	}
+
+	private final Trypsinator trypsinator;
+	private final int nThreads;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private boolean deduplicate = false;
+
+	private final LongIntMap[] seen = new LongIntMap[STRIPES];
+	private final AtomicInteger nProteins = new AtomicInteger(),
+								nPeptides = new AtomicInteger();
+
+	public DigestionPipeline(Trypsinator trypsinator, int nThreads) {
+		this.trypsinator = trypsinator;
+		this.nThreads = Math.max(1, nThreads);
+		for (int i = 0; i < STRIPES; i++)
+			seen[i] = new LongIntMap();
+	}
+
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Batch size must be positive");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param deduplicate - if {@code true} each peptide sequence is written
+	 * only once, for one of the proteins that it is found in
+	 */
+	public void setDeduplicate(boolean deduplicate) {
+		this.deduplicate = deduplicate;
+	}
+
+	/**
+	 * Digests all entries and writes their peptides to the sink, the sink is
+	 * closed afterwards, or aborted if the run fails. Peptides of an entry are
+	 * written together, but the entries are not necessarily written in the
+	 * order of the stream.
+	 * @return number of peptides written
+	 * @throws IOException if the sink fails
+	 * @throws InterruptedException
+	 */
+	public int run(Iterator<SProtEntry> entries, PeptideSink sink) throws IOException, InterruptedException {
+		long t0 = System.currentTimeMillis();
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		Semaphore inFlight = new Semaphore(2 * nThreads);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		boolean done = false;
+
+		try {
+			while (entries.hasNext()) {
+				List<SProtEntry> batch = new ArrayList<SProtEntry>(batchSize);
+				while (batch.size() < batchSize && entries.hasNext())
+					batch.add(entries.next());
+
+				inFlight.acquire();
+				futures.add(pool.submit(new BatchTask(batch, sink, inFlight)));
+				collectDone(futures);
+			}
+			for (Future<Void> f : futures)
+				get(f);
+			done = true;
+		} finally {
+			pool.shutdownNow();
+			try {
+				// no batch may still be writing when the sink is closed
+				while (!pool.awaitTermination(1, TimeUnit.SECONDS))
+					logger.fine("Waiting for the digestion threads" + System.lineSeparator());
+			} finally {
+				if (done)
+					sink.close();
+				else
+					abort(sink);
+			}
+		}
+
+		logger.info("Digested " + nProteins.get() + " proteins into " + nPeptides.get() + " peptides in "
+				+ (System.currentTimeMillis() - t0) + " ms using " + nThreads + " thread(s)"
+				+ System.lineSeparator());
+		return nPeptides.get();
+	}
+
+	public int getNbrOfProteins() {
+		return nProteins.get();
+	}
+
+	public int getNbrOfPeptides() {
+		return nPeptides.get();
+	}
+
+	private static void abort(PeptideSink sink) {
+		synchronized (sink) {
+			sink.abort();
+		}
+	}
+
+	/**
+	 * Removes the completed batches, so that failures surface early
+	 */
+	private void collectDone(List<Future<Void>> futures) throws IOException, InterruptedException {
+		Iterator<Future<Void>> it = futures.iterator();
+		while (it.hasNext()) {
+			Future<Void> f = it.next();
+			if (f.isDone()) {
+				get(f);
+				it.remove();
+			}
+		}
+	}
+
+	private static void get(Future<Void> f) throws IOException, InterruptedException {
+		try {
+			f.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return {@code true} if the sequence has not been seen before
+	 */
+	private boolean markSeen(CharSequence seq, int start, int end) {
+		long h = fingerprint(seq, start, end, false);
+		LongIntMap stripe = seen[(int) (h >>> 58)];
+		synchronized (stripe) {
+			if (stripe.containsKey(h))
+				return false;
+			stripe.put(h, 0);
+			return true;
+		}
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the residues, with a final avalanche step
+	 * @param ilEquivalent - if {@code true}, I is hashed as L
+	 */
+	static long fingerprint(CharSequence seq, int start, int end, boolean ilEquivalent) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = start; i < end; i++) {
+			char c = seq.charAt(i);
+			if (ilEquivalent && c == 'I')
+				c = 'L';
+			h = (h ^ c) * 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h == Long.MIN_VALUE ? Long.MAX_VALUE : h;
+	}
+
+	private class BatchTask implements Callable<Void> {
+		private final List<SProtEntry> batch;
+		private final PeptideSink sink;
+		private final Semaphore inFlight;
+
+		BatchTask(List<SProtEntry> batch, PeptideSink sink, Semaphore inFlight) {
+			this.batch = batch;
+			this.sink = sink;
+			this.inFlight = inFlight;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			try {
+				final MassSortedPeptides peps = new MassSortedPeptides();
+				for (int p = 0; p < batch.size(); p++) {
+					final String seq = batch.get(p).getSequence();
+					final int prot = p;
+					trypsinator.digest(seq, new Trypsinator.PeptideHandler() {
+						@Override
+						public void peptide(int start, int end, double mass) {
+							if (!deduplicate || markSeen(seq, start, end))
+								peps.add(prot, start, end, mass);
+						}
+					});
+				}
+
+				synchronized (sink) {
+					for (int i = 0; i < peps.size(); i++) {
+						SProtEntry entry = batch.get(peps.getProtein(i));
+						int start = peps.getStart(i), end = peps.getEnd(i);
+						sink.write(entry.getAcc(), entry.getSequence().substring(start, end),
+								start + 1, end + 1, peps.getMass(i));
+					}
+				}
+				nProteins.addAndGet(batch.size());
+				nPeptides.addAndGet(peps.size());
+				return null;
+			} finally {
+				inFlight.release();
+			}
+		}
+	}
+
+	/**
+	 * Writes the peptides as tab separated text, compressed if the file
+	 * name ends with {@value CompressionUtils#GZIP_SUFFIX}. The file is
+	 * deleted if the sink is aborted.
+	 */
+	public static class TextSink implements PeptideSink {
+		private final File file;
+		private final Writer out;
+
+		public TextSink(File f) throws IOException {
+			file = f;
+			out = CompressionUtils.newWriter(f, StandardCharsets.UTF_8);
+			out.write("#ACC\tSEQUENCE\tSTART\tSTOP\tMASS\n");
+		}
+
+		@Override
+		public void write(String acc, String seq, int start, int stop, double mass) throws IOException {
+			out.write(acc);
+			out.write('\t');
+			out.write(seq);
+			out.write('\t');
+			out.write(Integer.toString(start));
+			out.write('\t');
+			out.write(Integer.toString(stop));
+			out.write('\t');
+			out.write(Double.toString(mass));
+			out.write('\n');
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+
+		@Override
+		public void abort() {
+			try {
+				out.close();
+			} catch (IOException e) {
+				logger.warning("Could not close " + file + ": " + e.getMessage() + System.lineSeparator());
+			}
+			if (!file.delete())
+				logger.warning("Could not delete " + file + System.lineSeparator());
+		}
+	}
+
+	/**
+	 * Inserts the peptides into the {@code PEPTIDEINFO} table in JDBC batches,
+	 * the inserts are committed when the sink is closed and rolled back when
+	 * it is aborted. With a commit interval the inserts are also committed
+	 * every so many rows, and aborting rolls back only the rows since the
+	 * last commit.
+	 */
+	public static class TableSink implements PeptideSink {
+		public static final int INSERT_BATCH_SIZE = 10000;
+		static final String INSERT_SQL =
+				"insert into PEPTIDEINFO (SEQUENCE, PROTEIN, START, STOP, PTMS) values (?, ?, ?, ?, ?)";
+
+		private final Connection conn;
+		private final PreparedStatement insert;
+		private final boolean autoCommit;
+		private final int commitInterval;
+		private int pending = 0, uncommitted = 0;
+
+		public TableSink(Connection conn) throws SQLException {
+			this(conn, Integer.MAX_VALUE);
+		}
+
+		/**
+		 * @param commitInterval - number of rows inserted per transaction
+		 */
+		public TableSink(Connection conn, int commitInterval) throws SQLException {
+			if (commitInterval < 1)
+				throw new IllegalArgumentException("Commit interval must be positive");
+			this.conn = conn;
+			this.commitInterval = commitInterval;
+			this.autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			insert = conn.prepareStatement(INSERT_SQL);
+		}
+
+		@Override
+		public void write(String acc, String seq, int start, int stop, double mass) throws IOException {
+			try {
+				insert.setString(1, seq);
+				insert.setString(2, acc);
+				insert.setInt(3, start);
+				insert.setInt(4, stop);
+				insert.setString(5, "");
+				insert.addBatch();
+				if (++pending == INSERT_BATCH_SIZE) {
+					insert.executeBatch();
+					pending = 0;
+				}
+				if (++uncommitted == commitInterval) {
+					if (pending > 0)
+						insert.executeBatch();
+					conn.commit();
+					pending = uncommitted = 0;
+				}
+			} catch (SQLException e) {
+				throw new IOException("Could not insert peptide " + seq + " of " + acc, e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				if (pending > 0)
+					insert.executeBatch();
+				conn.commit();
+			} catch (SQLException e) {
+				// restoring auto-commit would commit the partial inserts
+				rollback();
+				throw new IOException("Could not insert peptides", e);
+			} finally {
+				release();
+			}
+		}
+
+		@Override
+		public void abort() {
+			try {
+				rollback();
+			} finally {
+				release();
+			}
+		}
+
+		private void rollback() {
+			try {
+				conn.rollback();
+			} catch (SQLException e) {
+				logger.severe("Could not roll back the peptides: " + e.getMessage() + System.lineSeparator());
+			}
+		}
+
+		private void release() {
+			try {
+				insert.close();
+				conn.setAutoCommit(autoCommit);
+			} catch (SQLException e) {
+				logger.warning("Could not restore the connection: " + e.getMessage()
+						+ System.lineSeparator());
+			}
+		}
+	}
+}
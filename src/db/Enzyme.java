@@ -0,0 +1,59 @@
+package db;
+
+import java.util.logging.Logger;
+
+/**
+ * Cleavage rule of a protease, the residues after which the enzyme cleaves 
+ * and whether a following proline blocks the cleavage. Rules that cannot be
+ * expressed this way can override {@link #cleavesAfter(CharSequence, int)}.
+ */
+public class Enzyme {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	public static final Enzyme 
+		TRYPSIN 		= new Enzyme("Trypsin", "KR", true),
+		TRYPSIN_P 		= new Enzyme("Trypsin/P", "KR", false),
+		LYS_C 			= new Enzyme("Lys-C", "K", true),
+		ARG_C 			= new Enzyme("Arg-C", "R", true),
+		GLU_C 			= new Enzyme("Glu-C", "E", true),
+		CHYMOTRYPSIN 	= new Enzyme("Chymotrypsin", "FWY", true);
+
+	private static final char PRO = 'P';
+
+	private final String name;
+	private final boolean[] sites = new boolean[128];
+	private final boolean prolineRule;
+
+	/**
+	 * @param name - name of the enzyme
+	 * @param residues - residues after which the enzyme cleaves
+	 * @param prolineRule - if {@code true}, there is no cleavage before a proline
+	 */
+	public Enzyme(String name, String residues, boolean prolineRule) {
+		this.name = name;
+		this.prolineRule = prolineRule;
+		for (int i = 0; i < residues.length(); i++)
+			sites[residues.charAt(i) & 0x7f] = true;
+	}
+
+	/**
+	 * @return {@code true} if the enzyme cleaves between the residue
+	 * at {@code i} and the one after it
+	 */
+	public boolean cleavesAfter(CharSequence seq, int i) {
+		char aa = seq.charAt(i);
+		if (aa >= 128 || !sites[aa])
+			return false;
+		return !prolineRule || i + 1 == seq.length() || seq.charAt(i + 1) != PRO;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,311 @@
+package db;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Computes the isotopic envelopes of peptides, i.e. the relative abundances
+ * of the monoisotopic peak and of the peaks one, two, ... neutrons heavier.
+ * The elemental composition of a peptide is built from the compositions of
+ * its residues, and the envelope is the product of the isotope polynomials of
+ * its atoms, truncated to the requested number of peaks.
+ * <p> The powers of the polynomial of each element, and of the envelope of
+ * each residue, are cached up to the counts found in peptides of the maximum
+ * length, so that an envelope takes one truncated convolution per distinct
+ * residue. The calculator is immutable and can be used from several threads.
+ */
+public class IsotopeCalculator {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	public static final int DEFAULT_NBR_OF_PEAKS = 5;
+	/**
+	 * Mass difference between 13C and 12C, the spacing of the peaks
+	 */
+	public static final double PEAK_SPACING = 1.0033548378;
+
+	public static final int C = 0, H = 1, N = 2, O = 3, S = 4;
+	public static final String ELEMENTS = "CHNOS";
+
+	/**
+	 * Natural abundances of the isotopes of each element, by the number of
+	 * neutrons above the lightest isotope
+	 */
+	private static final double[][] ISOTOPES = {
+		{0.9893, 0.0107},
+		{0.999885, 0.000115},
+		{0.99636, 0.00364},
+		{0.99757, 0.00038, 0.00205},
+		{0.9499, 0.0075, 0.0425, 0, 0.0001}
+	};
+
+	/**
+	 * Monoisotopic masses of the elements
+	 */
+	private static final double[] MASS = {12.0, 1.00782503207, 14.0030740048, 15.99491461956, 31.97207100};
+
+	private static final String RESIDUES = "GASPVTCLINDQKEMHFRYWO";
+	/**
+	 * Compositions of the residues, without the water of the peptide bond, in
+	 * the order of {@link #RESIDUES}
+	 */
+	private static final int[][] COMPOSITION = {
+		{2, 3, 1, 1, 0},	// G
+		{3, 5, 1, 1, 0},	// A
+		{3, 5, 1, 2, 0},	// S
+		{5, 7, 1, 1, 0},	// P
+		{5, 9, 1, 1, 0},	// V
+		{4, 7, 1, 2, 0},	// T
+		{3, 5, 1, 1, 1},	// C
+		{6, 11, 1, 1, 0},	// L
+		{6, 11, 1, 1, 0},	// I
+		{4, 6, 2, 2, 0},	// N
+		{4, 5, 1, 3, 0},	// D
+		{5, 8, 2, 2, 0},	// Q
+		{6, 12, 2, 1, 0},	// K
+		{5, 7, 1, 3, 0},	// E
+		{5, 9, 1, 1, 1},	// M
+		{6, 7, 3, 1, 0},	// H
+		{9, 9, 1, 1, 0},	// F
+		{6, 12, 4, 1, 0},	// R
+		{9, 9, 1, 2, 0},	// Y
+		{11, 10, 2, 1, 0},	// W
+		{12, 19, 3, 2, 0}	// O
+	};
+	private static final int[] WATER = {0, 2, 0, 1, 0};
+
+	private static final int[] RESIDUE_INDEX = new int[128];
+	static {
+		Arrays.fill(RESIDUE_INDEX, -1);
+		for (int r = 0; r < RESIDUES.length(); r++)
+			RESIDUE_INDEX[RESIDUES.charAt(r)] = r;
+	}
+
+	private final int nPeaks, maxLength;
+	// elementPowers[e][n] is the envelope of n atoms of element e
+	private final double[][][] elementPowers = new double[ELEMENTS.length()][][];
+	// residuePowers[r][n] is the envelope of n residues r
+	private final double[][][] residuePowers = new double[RESIDUES.length()][][];
+	private final double[] water;
+
+	public IsotopeCalculator() {
+		this(DEFAULT_NBR_OF_PEAKS, Trypsinator.MAX_PEP_LENGTH);
+	}
+
+	/**
+	 * @param nPeaks - number of peaks of the envelopes
+	 * @param maxLength - length of the longest peptides, up to which the
+	 * powers are cached; longer peptides are computed without the cache
+	 */
+	public IsotopeCalculator(int nPeaks, int maxLength) {
+		if (nPeaks < 1)
+			throw new IllegalArgumentException("Number of peaks must be positive");
+		this.nPeaks = nPeaks;
+		this.maxLength = Math.max(1, maxLength);
+
+		for (int e = 0; e < ELEMENTS.length(); e++) {
+			int max = WATER[e];
+			for (int[] comp : COMPOSITION)
+				max = Math.max(max, comp[e] * this.maxLength + WATER[e]);
+			elementPowers[e] = powers(polynomial(ISOTOPES[e]), max);
+		}
+
+		for (int r = 0; r < RESIDUES.length(); r++)
+			residuePowers[r] = powers(compose(COMPOSITION[r]), this.maxLength);
+		water = compose(WATER);
+	}
+
+	private double[] polynomial(double[] abundances) {
+		return Arrays.copyOf(abundances, nPeaks);
+	}
+
+	private double[] unit() {
+		double[] u = new double[nPeaks];
+		u[0] = 1;
+		return u;
+	}
+
+	/**
+	 * @return the powers 0 to {@code max} of the polynomial
+	 */
+	private double[][] powers(double[] p, int max) {
+		double[][] pow = new double[max + 1][];
+		pow[0] = unit();
+		for (int n = 1; n <= max; n++) {
+			pow[n] = new double[nPeaks];
+			convolve(pow[n - 1], p, pow[n]);
+		}
+		return pow;
+	}
+
+	/**
+	 * @return the {@code n}-th power of the polynomial, by repeated squaring
+	 */
+	private double[] power(double[] p, int n) {
+		double[] result = unit(), base = p.clone(), tmp = new double[nPeaks];
+		while (n > 0) {
+			if ((n & 1) != 0) {
+				convolve(result, base, tmp);
+				System.arraycopy(tmp, 0, result, 0, nPeaks);
+			}
+			n >>>= 1;
+			if (n > 0) {
+				convolve(base, base, tmp);
+				System.arraycopy(tmp, 0, base, 0, nPeaks);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Truncated product of the polynomials, {@code out} may not be one of them
+	 */
+	private void convolve(double[] a, double[] b, double[] out) {
+		for (int k = 0; k < nPeaks; k++) {
+			double sum = 0;
+			for (int i = 0; i <= k; i++)
+				sum += a[i] * b[k - i];
+			out[k] = sum;
+		}
+	}
+
+	/**
+	 * Multiplies {@code acc} by {@code p} in place
+	 */
+	private void multiply(double[] acc, double[] p) {
+		for (int k = nPeaks - 1; k >= 0; k--) {
+			double sum = 0;
+			for (int i = 0; i <= k; i++)
+				sum += acc[i] * p[k - i];
+			acc[k] = sum;
+		}
+	}
+
+	private double[] elementPower(int e, int n) {
+		return n < elementPowers[e].length ? elementPowers[e][n] : power(elementPowers[e][1], n);
+	}
+
+	/**
+	 * @return the envelope of the composition
+	 */
+	private double[] compose(int[] composition) {
+		double[] env = unit();
+		for (int e = 0; e < composition.length; e++)
+			if (composition[e] > 0)
+				multiply(env, elementPower(e, composition[e]));
+		return env;
+	}
+
+	/**
+	 * @return the counts of C, H, N, O and S atoms of the peptide
+	 * @throws IllegalArgumentException if the peptide has a residue of
+	 * unknown composition
+	 */
+	public static int[] getComposition(CharSequence pep) {
+		int[] comp = WATER.clone();
+		for (int i = 0; i < pep.length(); i++) {
+			int[] res = COMPOSITION[residueIndex(pep.charAt(i))];
+			for (int e = 0; e < comp.length; e++)
+				comp[e] += res[e];
+		}
+		return comp;
+	}
+
+	/**
+	 * @return the monoisotopic mass of the composition
+	 */
+	public static double getMass(int[] composition) {
+		double m = 0;
+		for (int e = 0; e < composition.length; e++)
+			m += composition[e] * MASS[e];
+		return m;
+	}
+
+	/**
+	 * @return the mass of the peak, {@code k} neutrons above the monoisotopic mass
+	 */
+	public static double getPeakMass(double monoisotopicMass, int k) {
+		return monoisotopicMass + k * PEAK_SPACING;
+	}
+
+	private static int residueIndex(char c) {
+		int r = c < 128 ? RESIDUE_INDEX[Character.toUpperCase(c)] : -1;
+		if (r < 0)
+			throw new IllegalArgumentException("No composition for residue " + c);
+		return r;
+	}
+
+	/**
+	 * @return the abundances of the peaks of the peptide
+	 */
+	public double[] getEnvelope(CharSequence pep) {
+		double[] env = new double[nPeaks];
+		getEnvelope(pep, 0, pep.length(), env);
+		return env;
+	}
+
+	/**
+	 * Computes the envelope of the peptide {@code [start, end)} of the sequence
+	 * into {@code out}
+	 * @throws IllegalArgumentException if the peptide has a residue of
+	 * unknown composition
+	 */
+	public void getEnvelope(CharSequence seq, int start, int end, double[] out) {
+		int[] counts = new int[RESIDUES.length()];
+		for (int i = start; i < end; i++)
+			counts[residueIndex(seq.charAt(i))]++;
+
+		System.arraycopy(water, 0, out, 0, nPeaks);
+		for (int r = 0; r < counts.length; r++) {
+			int n = counts[r];
+			if (n > 0)
+				multiply(out, n <= maxLength ? residuePowers[r][n] : power(residuePowers[r][1], n));
+		}
+	}
+
+	/**
+	 * @return the abundances of the peaks of the elemental composition
+	 */
+	public double[] getEnvelope(int[] composition) {
+		return compose(composition);
+	}
+
+	/**
+	 * Computes the envelopes of all peptides of a mass index built over the
+	 * store, the envelope of peptide {@code i} starts at {@code i * nPeaks}.
+	 * Peptides with residues of unknown composition, i.e. selenocysteine,
+	 * get an envelope of {@code NaN}.
+	 */
+	public double[] getEnvelopes(PeptideMassIndex index, SequenceStore store) {
+		long t0 = System.currentTimeMillis();
+		double[] all = new double[index.size() * nPeaks];
+		double[] env = new double[nPeaks];
+		for (int i = 0; i < index.size(); i++) {
+			try {
+				getEnvelope(store.getSequence(index.getProtein(i)), index.getStart(i), index.getEnd(i), env);
+			} catch (IllegalArgumentException e) {
+				Arrays.fill(env, Double.NaN);
+			}
+			System.arraycopy(env, 0, all, i * nPeaks, nPeaks);
+		}
+		logger.info("Computed " + index.size() + " isotopic envelopes in "
+				+ (System.currentTimeMillis() - t0) + " ms" + System.lineSeparator());
+		return all;
+	}
+
+	public int getNbrOfPeaks() {
+		return nPeaks;
+	}
+
+	/**
+	 * Scales the envelope so that its highest peak is 1
+	 */
+	public static void normalizeToMax(double[] env) {
+		double max = 0;
+		for (double a : env)
+			max = Math.max(max, a);
+		if (max > 0)
+			for (int i = 0; i < env.length; i++)
+				env[i] /= max;
+	}
+}
@@ -0,0 +1,186 @@
+package db;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Peptides of many proteins in parallel primitive arrays: the mass, the
+ * protein they belong to, and their start and end index in its sequence.
+ * Peptides are added in any order, {@link #sort()} orders them by mass, ties
+ * broken by protein, start and end, so that isobaric peptides are all kept
+ * and the order does not depend on the order of addition.
+ */
+public class MassSortedPeptides {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	private double[] mass;
+	private int[] protein, start, end;
+	private int size = 0;
+	private boolean sorted = true;
+
+	public MassSortedPeptides() {
+		this(1024);
+	}
+
+	public MassSortedPeptides(int expectedSize) {
+		int n = Math.max(expectedSize, 16);
+		mass = new double[n];
+		protein = new int[n];
+		start = new int[n];
+		end = new int[n];
+	}
+
+	/**
+	 * @param prot - index of the protein, as assigned by the caller
+	 * @param from - index of the first residue of the peptide
+	 * @param to - index after the last residue of the peptide
+	 * @param m - mass of the peptide
+	 */
+	public void add(int prot, int from, int to, double m) {
+		if (size == mass.length) {
+			int n = size * 2;
+			mass = Arrays.copyOf(mass, n);
+			protein = Arrays.copyOf(protein, n);
+			start = Arrays.copyOf(start, n);
+			end = Arrays.copyOf(end, n);
+		}
+		mass[size] = m;
+		protein[size] = prot;
+		start[size] = from;
+		end[size] = to;
+		size++;
+		sorted = false;
+	}
+
+	/**
+	 * Sorts the peptides by mass, and trims the arrays
+	 */
+	public void sort() {
+		if (sorted && size == mass.length)
+			return;
+
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+		mergeSort(order, new int[size], 0, size);
+
+		double[] m = new double[size];
+		int[] p = new int[size], s = new int[size], e = new int[size];
+		for (int i = 0; i < size; i++) {
+			int j = order[i];
+			m[i] = mass[j];
+			p[i] = protein[j];
+			s[i] = start[j];
+			e[i] = end[j];
+		}
+		mass = m;
+		protein = p;
+		start = s;
+		end = e;
+		sorted = true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isSorted() {
+		return sorted;
+	}
+
+	public double getMass(int i) {
+		checkIndex(i);
+		return mass[i];
+	}
+
+	public int getProtein(int i) {
+		checkIndex(i);
+		return protein[i];
+	}
+
+	public int getStart(int i) {
+		checkIndex(i);
+		return start[i];
+	}
+
+	public int getEnd(int i) {
+		checkIndex(i);
+		return end[i];
+	}
+
+	/**
+	 * @return the masses in ascending order
+	 * @throws IllegalStateException if the peptides are not sorted
+	 */
+	public double[] getMasses() {
+		checkSorted();
+		return Arrays.copyOf(mass, size);
+	}
+
+	public int[] getProteins() {
+		checkSorted();
+		return Arrays.copyOf(protein, size);
+	}
+
+	public int[] getStarts() {
+		checkSorted();
+		return Arrays.copyOf(start, size);
+	}
+
+	public int[] getEnds() {
+		checkSorted();
+		return Arrays.copyOf(end, size);
+	}
+
+	private int compare(int i, int j) {
+		int c = Double.compare(mass[i], mass[j]);
+		if (c == 0)
+			c = Integer.compare(protein[i], protein[j]);
+		if (c == 0)
+			c = Integer.compare(start[i], start[j]);
+		if (c == 0)
+			c = Integer.compare(end[i], end[j]);
+		return c;
+	}
+
+	/**
+	 * Sorts the indices in [from, to) by the peptides they point to
+	 */
+	private void mergeSort(int[] a, int[] tmp, int from, int to) {
+		if (to - from < 16) {
+			for (int i = from + 1; i < to; i++) {
+				int x = a[i], j = i;
+				for (; j > from && compare(a[j - 1], x) > 0; j--)
+					a[j] = a[j - 1];
+				a[j] = x;
+			}
+			return;
+		}
+
+		int mid = (from + to) >>> 1;
+		mergeSort(a, tmp, from, mid);
+		mergeSort(a, tmp, mid, to);
+		if (compare(a[mid - 1], a[mid]) <= 0)
+			return;
+
+		System.arraycopy(a, from, tmp, from, to - from);
+		int i = from, j = mid;
+		for (int k = from; k < to; k++) {
+			if (j >= to || (i < mid && compare(tmp[i], tmp[j]) <= 0))
+				a[k] = tmp[i++];
+			else
+				a[k] = tmp[j++];
+		}
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+	}
+
+	private void checkSorted() {
+		if (!sorted)
+			throw new IllegalStateException("Peptides are not sorted by mass");
+	}
+}
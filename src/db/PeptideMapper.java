@@ -0,0 +1,260 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Maps peptides to the proteins that contain them with an Aho-Corasick
+ * automaton built from all peptides, so that every occurrence of every peptide
+ * is found in a single scan of the protein sequences, independent of the
+ * number of peptides and of what is stored in the {@code PEPTIDEINFO} table.
+ * <p> Optionally isoleucine and leucine are treated as the same residue, as
+ * they cannot be told apart by mass. Only the residues A-Z are matched,
+ * peptides with other characters are not mapped.
+ */
+public class PeptideMapper {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	private static final int ALPHABET = 26;
+	private static final int ROOT = 0;
+
+	/**
+	 * Receives the occurrences of the peptides
+	 */
+	public interface HitHandler {
+		/**
+		 * @param peptide - index of the peptide in the collection the mapper was built from
+		 * @param protein - the index of the protein, as given to the scan
+		 * @param start - index of the first residue of the peptide in the protein
+		 */
+		public void hit(int peptide, int protein, int start);
+	}
+
+	private final String[] peptides;
+	private final boolean ilEquivalent;
+	private final int[] residueIndex = new int[128];
+
+	// the automaton; delta is the complete transition table of the states
+	private int[] delta;
+	private int[] slot, dictLink, depth;
+	private int nStates = 1;
+
+	// peptides ending in each terminal state, more than one for I/L variants
+	private final List<int[]> slotPeptides = new ArrayList<int[]>();
+	private int nSkipped = 0;
+
+	/**
+	 * @param peptides - the peptide sequences to map, duplicates are ignored
+	 * @param ilEquivalent - if {@code true}, I and L match each other
+	 */
+	public PeptideMapper(Collection<String> peptides, boolean ilEquivalent) {
+		this.peptides = toMap(peptides).keySet().toArray(new String[0]);
+		this.ilEquivalent = ilEquivalent;
+
+		Arrays.fill(residueIndex, -1);
+		for (char c = 'A'; c <= 'Z'; c++) {
+			residueIndex[c] = c - 'A';
+			residueIndex[Character.toLowerCase(c)] = c - 'A';
+		}
+		if (ilEquivalent) {
+			residueIndex['I'] = residueIndex['L'];
+			residueIndex['i'] = residueIndex['L'];
+		}
+
+		int capacity = 1024;
+		delta = new int[capacity * ALPHABET];
+		slot = new int[capacity];
+		Arrays.fill(delta, -1);
+		Arrays.fill(slot, -1);
+		depth = new int[capacity];
+
+		for (int p = 0; p < this.peptides.length; p++)
+			insert(p);
+		link();
+
+		logger.info("Peptide automaton built: " + this.peptides.length + " peptides, " + nStates
+				+ " states" + (nSkipped > 0 ? ", " + nSkipped + " peptides with unexpected residues skipped" : "")
+				+ System.lineSeparator());
+	}
+
+	private static Map<String, Boolean> toMap(Collection<String> peptides) {
+		Map<String, Boolean> map = new LinkedHashMap<String, Boolean>();
+		for (String pep : peptides)
+			map.put(pep, Boolean.TRUE);
+		return map;
+	}
+
+	private void insert(int p) {
+		String pep = peptides[p];
+		if (pep.isEmpty() || !isMappable(pep)) {
+			nSkipped++;
+			return;
+		}
+
+		int state = ROOT;
+		for (int i = 0; i < pep.length(); i++) {
+			int c = residueIndex[pep.charAt(i)];
+			int next = delta[state * ALPHABET + c];
+			if (next < 0) {
+				next = newState(depth[state] + 1);
+				delta[state * ALPHABET + c] = next;
+			}
+			state = next;
+		}
+
+		if (slot[state] < 0) {
+			slot[state] = slotPeptides.size();
+			slotPeptides.add(new int[]{p});
+		} else {
+			int[] ps = slotPeptides.get(slot[state]);
+			ps = Arrays.copyOf(ps, ps.length + 1);
+			ps[ps.length - 1] = p;
+			slotPeptides.set(slot[state], ps);
+		}
+	}
+
+	private boolean isMappable(String pep) {
+		for (int i = 0; i < pep.length(); i++) {
+			char c = pep.charAt(i);
+			if (c >= 128 || residueIndex[c] < 0)
+				return false;
+		}
+		return true;
+	}
+
+	private int newState(int d) {
+		if (nStates == slot.length) {
+			int capacity = nStates * 2;
+			int old = delta.length;
+			delta = Arrays.copyOf(delta, capacity * ALPHABET);
+			Arrays.fill(delta, old, delta.length, -1);
+			slot = Arrays.copyOf(slot, capacity);
+			Arrays.fill(slot, nStates, capacity, -1);
+			depth = Arrays.copyOf(depth, capacity);
+		}
+		depth[nStates] = d;
+		return nStates++;
+	}
+
+	/**
+	 * Computes the failure links breadth first, completing the transition
+	 * table with them, and links each state to the closest terminal state
+	 * among its proper suffixes
+	 */
+	private void link() {
+		int[] fail = new int[nStates];
+		dictLink = new int[nStates];
+		int[] queue = new int[nStates];
+		int head = 0, tail = 0;
+
+		for (int c = 0; c < ALPHABET; c++) {
+			int s = delta[ROOT * ALPHABET + c];
+			if (s < 0)
+				delta[ROOT * ALPHABET + c] = ROOT;
+			else {
+				fail[s] = ROOT;
+				queue[tail++] = s;
+			}
+		}
+
+		while (head < tail) {
+			int s = queue[head++];
+			int f = fail[s];
+			dictLink[s] = slot[f] >= 0 ? f : dictLink[f];
+			for (int c = 0; c < ALPHABET; c++) {
+				int t = delta[s * ALPHABET + c];
+				if (t < 0)
+					delta[s * ALPHABET + c] = delta[f * ALPHABET + c];
+				else {
+					fail[t] = delta[f * ALPHABET + c];
+					queue[tail++] = t;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reports every occurrence of the peptides in the sequence
+	 * @return number of occurrences
+	 */
+	public int scan(CharSequence seq, int protein, HitHandler handler) {
+		int hits = 0;
+		int state = ROOT;
+		for (int i = 0; i < seq.length(); i++) {
+			char ch = seq.charAt(i);
+			int c = ch < 128 ? residueIndex[ch] : -1;
+			if (c < 0) {
+				state = ROOT;
+				continue;
+			}
+			state = delta[state * ALPHABET + c];
+
+			for (int s = slot[state] >= 0 ? state : dictLink[state]; s != ROOT; s = dictLink[s]) {
+				int start = i - depth[s] + 1;
+				for (int p : slotPeptides.get(slot[s])) {
+					handler.hit(p, protein, start);
+					hits++;
+				}
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Maps the peptides to the accessions of the proteins containing them
+	 * @param proteins - sequences of the proteins, by accession
+	 * @return for each mapped peptide the accessions of the proteins, peptides
+	 * that are not found in any protein are left out
+	 */
+	public Map<String, Set<String>> map(Map<String, ? extends CharSequence> proteins) {
+		final List<String> accs = new ArrayList<String>(proteins.keySet());
+		final Map<String, Set<String>> hits = new HashMap<String, Set<String>>();
+		HitHandler handler = new HitHandler() {
+			@Override
+			public void hit(int peptide, int protein, int start) {
+				Set<String> set = hits.get(peptides[peptide]);
+				if (set == null) {
+					set = new HashSet<String>(4);
+					hits.put(peptides[peptide], set);
+				}
+				set.add(accs.get(protein));
+			}
+		};
+
+		long t0 = System.currentTimeMillis();
+		for (int i = 0; i < accs.size(); i++)
+			scan(proteins.get(accs.get(i)), i, handler);
+
+		logger.info(hits.size() + " of " + peptides.length + " peptides mapped to " + proteins.size()
+				+ " proteins in " + (System.currentTimeMillis() - t0) + " ms" + System.lineSeparator());
+		return hits;
+	}
+
+	/**
+	 * @return the peptides, in the order of their indices
+	 */
+	public List<String> getPeptides() {
+		return Arrays.asList(peptides);
+	}
+
+	public boolean isIlEquivalent() {
+		return ilEquivalent;
+	}
+
+	/**
+	 * @return number of peptides that could not be mapped
+	 * because of unexpected residues
+	 */
+	public int getNbrOfSkippedPeptides() {
+		return nSkipped;
+	}
+}
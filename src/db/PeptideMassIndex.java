@@ -0,0 +1,232 @@
+package db;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Index for matching observed masses and m/z values to peptides within a ppm
+ * tolerance. The peptides are kept in mass-sorted primitive arrays, see
+ * {@link MassSortedPeptides}; the matches of a query are the index range
+ * {@code [from, to)} of these arrays.
+ * <p> Optionally a lookup table over fixed-width mass buckets holds the first
+ * peptide of each bucket, so that the bound of a window is searched only
+ * among the peptides of its bucket rather than among all peptides. The index is immutable and can be queried from
+ * several threads.
+ */
+public class PeptideMassIndex {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	/**
+	 * Mass of a proton, added per charge to the neutral mass of a peptide
+	 */
+	public static final double PROTON = 1.00727646688;
+	public static final double DEFAULT_BUCKET_WIDTH = 0.01;
+
+	private final double[] mass;
+	private final int[] protein, start, end;
+	private final double minMass, bucketWidth;
+	private final int[] buckets;
+
+	/**
+	 * Index without a bucket table, windows are located by binary search
+	 */
+	public PeptideMassIndex(MassSortedPeptides peptides) {
+		this(peptides, 0);
+	}
+
+	/**
+	 * @param peptides - the peptides to index, sorted if they are not already
+	 * @param bucketWidth - width of the buckets of the lookup table in Da,
+	 * no table is built if it is not positive
+	 */
+	public PeptideMassIndex(MassSortedPeptides peptides, double bucketWidth) {
+		peptides.sort();
+		this.mass = peptides.getMasses();
+		this.protein = peptides.getProteins();
+		this.start = peptides.getStarts();
+		this.end = peptides.getEnds();
+		this.minMass = mass.length > 0 ? mass[0] : 0;
+		this.bucketWidth = bucketWidth;
+		this.buckets = (bucketWidth > 0 && mass.length > 0) ? buildBuckets() : null;
+	}
+
+	/**
+	 * Digests the sequences and indexes their peptides, the proteins are
+	 * identified by their index in the list
+	 */
+	public static PeptideMassIndex build(Trypsinator t, List<? extends CharSequence> sequences, double bucketWidth) {
+		MassSortedPeptides peps = new MassSortedPeptides(sequences.size() * 32);
+		for (int i = 0; i < sequences.size(); i++)
+			t.digest(sequences.get(i), Trypsinator.collector(peps, i));
+		return new PeptideMassIndex(peps, bucketWidth);
+	}
+
+	private int[] buildBuckets() {
+		long nb = (long) ((mass[mass.length - 1] - minMass) / bucketWidth) + 2;
+		if (nb > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Bucket width too small: " + bucketWidth);
+
+		int[] b = new int[(int) nb];
+		int i = 0;
+		for (int k = 0; k < b.length; k++) {
+			double lo = minMass + k * bucketWidth;
+			while (i < mass.length && mass[i] < lo)
+				i++;
+			b[k] = i;
+		}
+		return b;
+	}
+
+	/**
+	 * @return the neutral mass of an ion of the given m/z and charge
+	 */
+	public static double neutralMass(double mz, int charge) {
+		return (mz - PROTON) * charge;
+	}
+
+	/**
+	 * @return the half width of the tolerance window around the mass
+	 */
+	public static double tolerance(double mass, double ppm) {
+		return mass * ppm * 1e-6;
+	}
+
+	/**
+	 * @return index of the first peptide with a mass of at least {@code m}
+	 */
+	public int lowerBound(double m) {
+		return search(m, false);
+	}
+
+	/**
+	 * @return index of the first peptide heavier than {@code m}
+	 */
+	public int upperBound(double m) {
+		return search(m, true);
+	}
+
+	/**
+	 * @return first index of the peptides with a mass {@code >= m}, or
+	 * {@code > m} if {@code strict} is set
+	 */
+	private int search(double m, boolean strict) {
+		int n = mass.length;
+		if (buckets == null)
+			return binarySearch(m, strict, 0, n);
+
+		if (m < minMass)
+			return 0;
+		long k = (long) ((m - minMass) / bucketWidth);
+		if (k >= buckets.length)
+			return n;
+
+		// the bucket of m is exact up to rounding of the bucket bounds, so
+		// the neighbouring buckets are searched as well
+		int lo = buckets[(int) Math.max(0, k - 1)];
+		int hi = k + 2 < buckets.length ? buckets[(int) k + 2] : n;
+		return binarySearch(m, strict, lo, hi);
+	}
+
+	/**
+	 * @return first index in {@code [lo, hi)} of the peptides with a mass
+	 * {@code >= m}, or {@code > m} if {@code strict} is set, {@code hi} if
+	 * there is none
+	 */
+	private int binarySearch(double m, boolean strict, int lo, int hi) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (strict ? mass[mid] <= m : mass[mid] < m)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the range {@code [from, to)} of the peptides within the
+	 * tolerance of the mass, packed as {@code from << 32 | to}
+	 * @see #from(long)
+	 * @see #to(long)
+	 */
+	public long query(double m, double ppm) {
+		double tol = tolerance(m, ppm);
+		int from = lowerBound(m - tol);
+		int to = Math.max(from, upperBound(m + tol));
+		return ((long) from << 32) | to;
+	}
+
+	/**
+	 * Matches the m/z of an ion of the given charge
+	 * @see #query(double, double)
+	 */
+	public long queryMz(double mz, int charge, double ppm) {
+		return query(neutralMass(mz, charge), ppm);
+	}
+
+	public static int from(long range) {
+		return (int) (range >>> 32);
+	}
+
+	public static int to(long range) {
+		return (int) range;
+	}
+
+	/**
+	 * Queries many masses at once, the ranges are written to {@code from}
+	 * and {@code to} at the index of the query
+	 * @return total number of matches
+	 */
+	public long query(double[] masses, double ppm, int[] from, int[] to) {
+		long total = 0;
+		for (int q = 0; q < masses.length; q++) {
+			long r = query(masses[q], ppm);
+			from[q] = from(r);
+			to[q] = to(r);
+			total += to[q] - from[q];
+		}
+		return total;
+	}
+
+	/**
+	 * Queries the m/z values for every charge from {@code minCharge} to
+	 * {@code maxCharge}; the range of query {@code q} at charge {@code z}
+	 * is written at index {@code q * (maxCharge - minCharge + 1) + z - minCharge}
+	 * @return total number of matches
+	 */
+	public long queryMz(double[] mzs, int minCharge, int maxCharge, double ppm, int[] from, int[] to) {
+		int nz = maxCharge - minCharge + 1;
+		long total = 0;
+		for (int q = 0; q < mzs.length; q++) {
+			for (int z = minCharge; z <= maxCharge; z++) {
+				long r = queryMz(mzs[q], z, ppm);
+				int k = q * nz + z - minCharge;
+				from[k] = from(r);
+				to[k] = to(r);
+				total += to[k] - from[k];
+			}
+		}
+		return total;
+	}
+
+	public int size() {
+		return mass.length;
+	}
+
+	public double getMass(int i) {
+		return mass[i];
+	}
+
+	public int getProtein(int i) {
+		return protein[i];
+	}
+
+	public int getStart(int i) {
+		return start[i];
+	}
+
+	public int getEnd(int i) {
+		return end[i];
+	}
+}
@@ -0,0 +1,290 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import main.LongIntMap;
+import main.SymbolTable;
+
+/**
+ * Tells which peptides of a digested proteome are proteotypic, i.e. found in
+ * a single protein, and which are unique to the proteins of a single gene.
+ * The proteins of a {@link SequenceStore} are digested on several threads,
+ * and each peptide sequence is hashed, with isoleucine collapsed onto leucine,
+ * to the set of proteins containing it, and to the gene it occurs in or to
+ * {@link #SHARED} once it is found in a second gene. A peptide found in a
+ * single protein maps to that protein directly, only shared peptides get a
+ * protein set, see {@link #getProteins(CharSequence)}. The sequences are kept
+ * only as 64-bit fingerprints, in maps sharded by the leading bits of the
+ * fingerprint.
+ * <p> The index is a sidecar to the store: proteins are identified by their
+ * index in the store, and {@link #markUnique(PeptideMassIndex, boolean)}
+ * flags the peptides of a mass index built over the same store.
+ */
+public class ProteotypicIndex {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	/**
+	 * Protein or gene of a peptide found in more than one
+	 */
+	public static final int SHARED = -2;
+	/**
+	 * Protein or gene of a peptide not found in the proteome
+	 */
+	public static final int NOT_FOUND = LongIntMap.NO_VALUE;
+
+	// stored in place of SHARED in the gene maps, the maps only hold
+	// non-negative values
+	private static final int SHARED_VALUE = Integer.MAX_VALUE;
+	private static final int STRIPES = 64;
+	private static final int CHUNK_SIZE = 64;
+
+	private final SequenceStore store;
+	private final int[] geneIds;
+	private final LongIntMap[] proteins = new LongIntMap[STRIPES], genes = new LongIntMap[STRIPES];
+	// protein sets of the shared peptides of each stripe; a shared peptide
+	// maps to store.size() plus the index of its set, and a set holds its
+	// size followed by the proteins
+	private final List<List<int[]>> proteinSets = new ArrayList<List<int[]>>(STRIPES);
+	private final AtomicInteger nPeptides = new AtomicInteger();
+
+	/**
+	 * @param genes - gene symbol of each protein of the store, proteins without
+	 * a gene symbol count as a gene of their own
+	 */
+	private ProteotypicIndex(SequenceStore store, String[] genes) {
+		this.store = store;
+		this.geneIds = new int[store.size()];
+		SymbolTable symbols = new SymbolTable();
+		for (int p = 0; p < geneIds.length; p++) {
+			String g = genes == null || p >= genes.length ? null : genes[p];
+			geneIds[p] = g == null || g.isEmpty() ? -1 : symbols.intern(g);
+		}
+		for (int p = 0; p < geneIds.length; p++)
+			if (geneIds[p] < 0)
+				geneIds[p] = symbols.size() + p;
+
+		for (int i = 0; i < STRIPES; i++) {
+			this.proteins[i] = new LongIntMap();
+			this.genes[i] = new LongIntMap();
+			this.proteinSets.add(new ArrayList<int[]>());
+		}
+	}
+
+	/**
+	 * Digests all proteins of the store and records where each peptide occurs
+	 * @param genes - gene symbol of each protein of the store, may be {@code null}
+	 * @throws InterruptedException
+	 */
+	public static ProteotypicIndex build(final Trypsinator t, SequenceStore store, String[] genes, int nThreads)
+			throws InterruptedException {
+		long t0 = System.currentTimeMillis();
+		final ProteotypicIndex index = new ProteotypicIndex(store, genes);
+		final AtomicInteger next = new AtomicInteger();
+		nThreads = Math.max(1, nThreads);
+
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < nThreads; i++)
+				futures.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						int from;
+						while ((from = next.getAndAdd(CHUNK_SIZE)) < index.store.size()) {
+							int to = Math.min(from + CHUNK_SIZE, index.store.size());
+							for (int p = from; p < to; p++)
+								index.digest(t, p);
+						}
+						return null;
+					}
+				}));
+			for (Future<Void> f : futures)
+				f.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		logger.info("Indexed " + index.size() + " distinct peptides of " + store.size() + " proteins, "
+				+ index.getNbrOfProteotypic() + " proteotypic and " + index.getNbrOfGeneUnique()
+				+ " gene-unique, in " + (System.currentTimeMillis() - t0) + " ms" + System.lineSeparator());
+		return index;
+	}
+
+	private void digest(Trypsinator t, final int p) {
+		final CharSequence seq = store.getSequence(p);
+		t.digest(seq, new Trypsinator.PeptideHandler() {
+			@Override
+			public void peptide(int start, int end, double mass) {
+				long h = DigestionPipeline.fingerprint(seq, start, end, true);
+				int stripe = (int) (h >>> 58);
+				recordProtein(stripe, h, p);
+				recordGene(genes[stripe], h, geneIds[p]);
+				nPeptides.incrementAndGet();
+			}
+		});
+	}
+
+	private void recordProtein(int stripe, long h, int p) {
+		LongIntMap map = proteins[stripe];
+		List<int[]> sets = proteinSets.get(stripe);
+		synchronized (map) {
+			int old = map.get(h);
+			if (old == LongIntMap.NO_VALUE) {
+				map.put(h, p);
+			} else if (old < store.size()) {
+				if (old != p) {
+					sets.add(new int[]{2, old, p, 0});
+					map.put(h, store.size() + sets.size() - 1);
+				}
+			} else {
+				int k = old - store.size();
+				int[] set = sets.get(k);
+				for (int i = 1; i <= set[0]; i++)
+					if (set[i] == p)
+						return;
+				if (set[0] + 1 == set.length) {
+					set = Arrays.copyOf(set, set.length * 2);
+					sets.set(k, set);
+				}
+				set[++set[0]] = p;
+			}
+		}
+	}
+
+	private static void recordGene(LongIntMap map, long h, int owner) {
+		synchronized (map) {
+			int old = map.get(h);
+			if (old == LongIntMap.NO_VALUE)
+				map.put(h, owner);
+			else if (old != owner && old != SHARED_VALUE)
+				map.put(h, SHARED_VALUE);
+		}
+	}
+
+	private static int lookup(LongIntMap[] maps, long h) {
+		LongIntMap map = maps[(int) (h >>> 58)];
+		synchronized (map) {
+			return map.get(h);
+		}
+	}
+
+	private static long fingerprint(CharSequence pep) {
+		return DigestionPipeline.fingerprint(pep, 0, pep.length(), true);
+	}
+
+	/**
+	 * @param pep - peptide sequence, in upper case
+	 * @return index of the only protein containing the peptide, {@link #SHARED}
+	 * or {@link #NOT_FOUND}
+	 */
+	public int getProtein(CharSequence pep) {
+		int v = lookup(proteins, fingerprint(pep));
+		return v >= store.size() ? SHARED : v;
+	}
+
+	/**
+	 * @param pep - peptide sequence, in upper case
+	 * @return indices of all proteins containing the peptide, in ascending
+	 * order, empty if the peptide is not found
+	 */
+	public int[] getProteins(CharSequence pep) {
+		long h = fingerprint(pep);
+		int stripe = (int) (h >>> 58);
+		LongIntMap map = proteins[stripe];
+		int[] prots;
+		synchronized (map) {
+			int v = map.get(h);
+			if (v == LongIntMap.NO_VALUE)
+				return new int[0];
+			if (v < store.size())
+				return new int[]{v};
+			int[] set = proteinSets.get(stripe).get(v - store.size());
+			prots = Arrays.copyOfRange(set, 1, set[0] + 1);
+		}
+		Arrays.sort(prots);
+		return prots;
+	}
+
+	/**
+	 * @return {@code true} if the peptide is found in exactly one protein
+	 */
+	public boolean isProteotypic(CharSequence pep) {
+		return getProtein(pep) >= 0;
+	}
+
+	/**
+	 * @return {@code true} if the peptide is found only in proteins of one gene
+	 */
+	public boolean isGeneUnique(CharSequence pep) {
+		int v = lookup(genes, fingerprint(pep));
+		return v >= 0 && v != SHARED_VALUE;
+	}
+
+	/**
+	 * Flags the peptides of a mass index built over the same store
+	 * @param byGene - flag the peptides unique to a gene rather than to a protein
+	 * @return the indices in the mass index of the unique peptides
+	 */
+	public BitSet markUnique(PeptideMassIndex index, boolean byGene) {
+		BitSet unique = new BitSet(index.size());
+		for (int i = 0; i < index.size(); i++) {
+			CharSequence pep = store.getSequence(index.getProtein(i)).subSequence(index.getStart(i), index.getEnd(i));
+			if (byGene ? isGeneUnique(pep) : isProteotypic(pep))
+				unique.set(i);
+		}
+		return unique;
+	}
+
+	/**
+	 * @return number of distinct peptide sequences
+	 */
+	public int size() {
+		int n = 0;
+		for (LongIntMap m : proteins)
+			n += m.size();
+		return n;
+	}
+
+	/**
+	 * @return number of peptides digested, counting each occurrence
+	 */
+	public int getNbrOfOccurrences() {
+		return nPeptides.get();
+	}
+
+	public int getNbrOfProteotypic() {
+		return countBelow(proteins, store.size());
+	}
+
+	public int getNbrOfGeneUnique() {
+		return countBelow(genes, SHARED_VALUE);
+	}
+
+	/**
+	 * @return number of peptides mapped to a value below {@code limit}, i.e.
+	 * to a single protein or gene
+	 */
+	private static int countBelow(LongIntMap[] maps, int limit) {
+		int n = 0;
+		for (LongIntMap m : maps)
+			synchronized (m) {
+				for (long k : m.keys())
+					if (m.get(k) < limit)
+						n++;
+			}
+		return n;
+	}
+}
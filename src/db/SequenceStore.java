@@ -0,0 +1,189 @@
+package db;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import main.SymbolTable;
+
+/**
+ * Compact store of protein sequences. The residues of all proteins are packed
+ * in 5 bits each, twelve to a {@code long}, in one growing array, and each
+ * protein is the range between two offsets. The sequences are read through
+ * {@link CharSequence} views that decode the residues in place, so a whole
+ * proteome can be digested, mapped or weighed without a {@code String} or
+ * entry object per protein.
+ * <p> The letters A-Z and the stop symbol '*' are stored as such, any other
+ * character is stored as 'X'. Adding is not thread-safe, reading is once all
+ * sequences have been added.
+ */
+public class SequenceStore {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	private static final int BITS = 5;
+	private static final int PER_WORD = 64 / BITS;
+	private static final long MASK = (1L << BITS) - 1;
+
+	private static final char[] DECODE = new char[1 << BITS];
+	private static final byte[] ENCODE = new byte[128];
+	private static final byte UNKNOWN, STOP = 27;
+	static {
+		for (char c = 'A'; c <= 'Z'; c++) {
+			DECODE[c - 'A' + 1] = c;
+			ENCODE[c] = (byte) (c - 'A' + 1);
+			ENCODE[Character.toLowerCase(c)] = (byte) (c - 'A' + 1);
+		}
+		DECODE[STOP] = '*';
+		ENCODE['*'] = STOP;
+		UNKNOWN = ENCODE['X'];
+	}
+
+	private long[] words = new long[1024];
+	private long[] offsets = new long[257];
+	private final SymbolTable accessions = new SymbolTable();
+	private int size = 0;
+
+	/**
+	 * Adds a protein
+	 * @return index of the protein in the store
+	 * @throws IllegalArgumentException if the accession has already been added
+	 */
+	public int add(String acc, CharSequence seq) {
+		if (accessions.find(acc) >= 0)
+			throw new IllegalArgumentException("Duplicate accession: " + acc);
+
+		long pos = offsets[size];
+		long end = pos + seq.length();
+		ensureCapacity(end);
+		for (int i = 0; i < seq.length(); i++, pos++) {
+			char c = seq.charAt(i);
+			long code = c < 128 && ENCODE[c] != 0 ? ENCODE[c] : UNKNOWN;
+			words[(int) (pos / PER_WORD)] |= code << (BITS * (int) (pos % PER_WORD));
+		}
+
+		if (size + 1 == offsets.length)
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		offsets[size + 1] = end;
+		accessions.intern(acc);
+		return size++;
+	}
+
+	public int add(SProtEntry entry) {
+		return add(entry.getAcc(), entry.getSequence());
+	}
+
+	private void ensureCapacity(long residues) {
+		long needed = residues / PER_WORD + 1;
+		if (needed > Integer.MAX_VALUE - 8)
+			throw new IllegalStateException("Sequence store is full");
+		if (needed > words.length)
+			words = Arrays.copyOf(words, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, 2L * words.length)));
+	}
+
+	/**
+	 * @return number of proteins
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return total number of residues of all proteins
+	 */
+	public long getNbrOfResidues() {
+		return offsets[size];
+	}
+
+	/**
+	 * @return index of the protein with the accession, -1 if there is none
+	 */
+	public int indexOf(String acc) {
+		return accessions.find(acc);
+	}
+
+	public String getAccession(int protein) {
+		checkIndex(protein);
+		return accessions.get(protein);
+	}
+
+	public int length(int protein) {
+		checkIndex(protein);
+		return (int) (offsets[protein + 1] - offsets[protein]);
+	}
+
+	/**
+	 * @return a view of the sequence of the protein, decoded on access
+	 */
+	public CharSequence getSequence(int protein) {
+		checkIndex(protein);
+		return new ResidueView(offsets[protein], offsets[protein + 1]);
+	}
+
+	/**
+	 * @return the sequences of all proteins as views, in the order of their indices
+	 */
+	public List<CharSequence> getSequences() {
+		return new AbstractList<CharSequence>() {
+			@Override
+			public CharSequence get(int index) {
+				return getSequence(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	private char residueAt(long pos) {
+		long word = words[(int) (pos / PER_WORD)];
+		return DECODE[(int) ((word >>> (BITS * (int) (pos % PER_WORD))) & MASK)];
+	}
+
+	private void checkIndex(int protein) {
+		if (protein < 0 || protein >= size)
+			throw new IndexOutOfBoundsException("Protein: " + protein + ", size: " + size);
+	}
+
+	/**
+	 * Residues {@code [start, end)} of the store
+	 */
+	private class ResidueView implements CharSequence {
+		private final long start, end;
+
+		ResidueView(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public int length() {
+			return (int) (end - start);
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= end - start)
+				throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length());
+			return residueAt(start + index);
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			if (from < 0 || to > end - start || from > to)
+				throw new IndexOutOfBoundsException("Range: " + from + "-" + to + ", length: " + length());
+			return new ResidueView(start + from, start + to);
+		}
+
+		@Override
+		public String toString() {
+			char[] chars = new char[length()];
+			for (int i = 0; i < chars.length; i++)
+				chars[i] = residueAt(start + i);
+			return new String(chars);
+		}
+	}
+}
@@ -1,147 +1,192 @@
 package db;
 
 import java.util.Comparator;
-import java.util.Set;
 import java.util.HashSet;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.logging.Logger;
 
+/**
+ * Digests protein sequences in silico. The cleavage sites of the enzyme are
+ * found in a single scan of the sequence, and the peptides with up to the
+ * allowed number of missed cleavages are enumerated as pairs of sites; the
+ * length, mass and residue filters use prefix sums over the sequence, so no
+ * substrings are created for rejected peptides.
+ * <p> A {@code Trypsinator} holds no state between sequences and can be 
+ * shared between threads.
+ */
 public class Trypsinator {
 
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
 	/**
-	 * Sequences already processed is stored in this set to speed up the
-	 * searches.
+	 * Receives the peptides of a sequence
 	 */
-	private final HashSet<String> processed_seqs;
+	public interface PeptideHandler {
+		/**
+		 * @param start - index of the first residue of the peptide
+		 * @param end - index after the last residue of the peptide
+		 * @param mass - monoisotopic mass of the peptide
+		 */
+		public void peptide(int start, int end, double mass);
+	}
 
-	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+	private final Enzyme enzyme;
+	private final int maxMissedCleavages, minLength, maxLength;
+	private final double maxMass;
 
 	/**
-	 * whether or not KP/RP count as missed cleavage
+	 * Digests with trypsin, allowing 1 missed cleavage, into peptides of 
+	 * {@value #MIN_PEP_LENGTH} to {@value #MAX_PEP_LENGTH} residues
+	 * and at most {@value #MAX_PEP_MASS} Da
 	 */
-	private final boolean IGNORE_PRO_MISSCLEAVAGE = true;
-
 	public Trypsinator() {
-		this.processed_seqs = new HashSet<String>(65536);
+		this(Enzyme.TRYPSIN);
 	}
 
-	public Set<TrypticPeptide> digestSequence(String seq) {
-		return getMassSortedView(digestSequence(seq, 0,
-				new HashSet<TrypticPeptide>()));
+	public Trypsinator(Enzyme enzyme) {
+		this(enzyme, MAX_MISCLEAVAGES, MIN_PEP_LENGTH, MAX_PEP_LENGTH, MAX_PEP_MASS);
 	}
 
-	private Set<TrypticPeptide> digestSequence(String seq, int relPosition,
-			Set<TrypticPeptide> accumulator) {
+	public Trypsinator(Enzyme enzyme, int maxMissedCleavages, int minLength,
+			int maxLength, double maxMass) {
+		if (maxMissedCleavages < 0)
+			throw new IllegalArgumentException("Number of missed cleavages cannot be negative");
+		this.enzyme = enzyme;
+		this.maxMissedCleavages = maxMissedCleavages;
+		this.minLength = minLength;
+		this.maxLength = maxLength;
+		this.maxMass = maxMass;
+	}
 
-		if (!this.processed_seqs.add(seq))
-			return new HashSet<TrypticPeptide>();
+	public Set<TrypticPeptide> digestSequence(final String seq) {
+		final Set<TrypticPeptide> peptides = new HashSet<TrypticPeptide>();
+		digest(seq, new PeptideHandler() {
+			@Override
+			public void peptide(int start, int end, double mass) {
+				// positions are reported from 1
+				peptides.add(new TrypticPeptide(seq.substring(start, end), start + 1, mass));
+			}
+		});
+		return getMassSortedView(peptides);
+	}
 
-		StringBuilder pep = new StringBuilder();
-//		TODO: does the following actually do any good?
-//		if (calcPepMass(pep.toString()) > MAX_PEP_MASS)
-//			return new HashSet<TrypticPeptide>();
+	/**
+	 * Enumerates the peptides of the sequence that pass the filters:
+	 * <ol>
+	 * <li> the peptide has at most the allowed number of missed cleavages
+	 * <li> its length and mass are within the limits
+	 * <li> it consists of the standard amino acids and U, O only, i.e. 
+	 * no digits or non-descriptive AA chars such as 'X'
+	 * </ol>
+	 * @return number of peptides passed on to the handler
+	 */
+	public int digest(CharSequence seq, PeptideHandler handler) {
+		int n = seq.length();
 
-		for (int i = 0; i < seq.length(); i++) {
-			char aa = seq.charAt(i);
-			pep.append(aa);
-			if (aa == LYS || aa == ARG) {
-				/*
-				 * If cut occurs: 1) add left hand side peptide, note that
-				 * relPosition starts from 0 (thus +1) 2) digest right hand side
-				 * recursively
-				 */
-				addItem(accumulator, new TrypticPeptide(pep.toString(),
-						relPosition + 1));
-				addItem(accumulator,
-						digestSequence(seq.substring(i + 1, seq.length()),
-								relPosition + (i + 1), accumulator));
-
-				/*
-				 * If cut does not occur (ie miscleavage): just keep iterating
-				 * down the peptide sequence
-				 */
+		// Prefix sums of the residue masses and of the invalid residues
+		double[] mass = new double[n + 1];
+		int[] invalid = new int[n + 1];
+		// Cleavage sites, as the index after the cleaved residue
+		int[] sites = new int[n + 1];
+		int nsites = 0;
 
+		for (int i = 0; i < n; i++) {
+			char aa = seq.charAt(i);
+			boolean valid = aa < 128 && VALID[aa];
+			mass[i + 1] = mass[i] + (valid ? AA_MASS[aa] : 0);
+			invalid[i + 1] = invalid[i] + (valid ? 0 : 1);
+			if (i + 1 < n && enzyme.cleavesAfter(seq, i))
+				sites[nsites++] = i + 1;
+		}
+		sites[nsites++] = n;
+
+		int count = 0;
+		int start = 0;
+		for (int i = 0; i < nsites; i++) {
+			for (int j = i; j < nsites && j <= i + maxMissedCleavages; j++) {
+				int end = sites[j];
+				int len = end - start;
+				if (len > maxLength)
+					break;
+
+				double m = mass[end] - mass[start] + H2O;
+				if (m > maxMass)
+					break;
+				if (len >= minLength && invalid[end] == invalid[start]) {
+					handler.peptide(start, end, m);
+					count++;
+				}
 			}
+			start = sites[i];
 		}
-
-		// Try to add C-term peptide at the end of the sequence
-		addItem(accumulator, new TrypticPeptide(pep.toString(), relPosition + 1));
-		return accumulator;
+		return count;
 	}
 
-	private void addItem(Set<TrypticPeptide> set, TrypticPeptide pep) {
-		/*
-		 * 1) Peptides need to be at least 6 AA long 
-		 * 2) Peptides need to be shorter than 75 AAs or lighter than 4000 Da  
-		 * 3) Peptides can have at most 1 miscleavage(s) i.e. at most 2 [KR] 
-		 * 4) Peptides cannot have unexpected characters such as 
-		 * digits or non-descriptive AA chars such as 'X'
-		 */
-
-		// if(set.contains(pep))
-		// System.err.println("[" + pep + "]: exists already!");
-
-		// boolean crit1 = pep.getLength() >= MIN_PEP_LENGTH;
-		// boolean crit2 = calcPepMass(pep.getSeq()) <= MAX_PEP_MASS;
-		// boolean crit3 = countKR(pep.getSeq().toCharArray()) <= MAX_MISCLEAVAGES +1;
-		// boolean crit4 = pep.getSeq().matches(VALID);
-		//
-		if (pep.getLength() >= MIN_PEP_LENGTH
-				&& pep.getLength() <= MAX_PEP_LENGTH
-				&& calcPepMass(pep.getSeq()) <= MAX_PEP_MASS
-				&& countKR(pep.getSeq().toCharArray()) <= MAX_MISCLEAVAGES + 1
-				&& pep.getSeq().matches(VALID))
-			set.add(pep);
+	public Enzyme getEnzyme() {
+		return enzyme;
 	}
 
-	private void addItem(Set<TrypticPeptide> set, Set<TrypticPeptide> peptides) {
-		for (TrypticPeptide pep : peptides)
-			addItem(set, pep);
+	public int getMaxMissedCleavages() {
+		return maxMissedCleavages;
 	}
 
-	private int countKR(char[] pep) {
-		int n = 0;
-		for (int i = 0; i < pep.length; i++) {
-			char c = pep[i];
-			if (c == ARG || c == LYS) {
-				n++;
-				if (IGNORE_PRO_MISSCLEAVAGE && i + 1 < pep.length
-						&& pep[i + 1] == PRO)
-					n--;
+	/**
+	 * @return a handler that collects the peptides of the given 
+	 * protein into the array, see {@link #digest(CharSequence, PeptideHandler)}
+	 */
+	public static PeptideHandler collector(final MassSortedPeptides peptides, final int protein) {
+		return new PeptideHandler() {
+			@Override
+			public void peptide(int start, int end, double mass) {
+				peptides.add(protein, start, end, mass);
 			}
-
-		}
-		return n;
+		};
 	}
 
+	/**
+	 * Peptides of equal mass, e.g. those differing by an I/L swap, are
+	 * ordered by sequence and position so that none of them is dropped
+	 */
 	private TreeSet<TrypticPeptide> getMassSortedView(Set<TrypticPeptide> set) {
 		TreeSet<TrypticPeptide> view = new TreeSet<TrypticPeptide>(
 				new Comparator<TrypticPeptide>() {
 					@Override
 					public int compare(TrypticPeptide arg0, TrypticPeptide arg1) {
-						return Double.compare(calcPepMass(arg0.getSeq()),
-								calcPepMass(arg1.getSeq()));
+						int c = Double.compare(arg0.getMass(), arg1.getMass());
+						if (c == 0)
+							c = arg0.getSeq().compareTo(arg1.getSeq());
+						if (c == 0)
+							c = Integer.compare(arg0.getStart(), arg1.getStart());
+						return c;
 					}
 				});
 		view.addAll(set);
 		return view;
 	}
 
-	static private final char LYS = 'K', ARG = 'R', PRO = 'P';
-	static private final String VALID = "[ARNDCEQGHILKMFPSTWYVOU]+";
-	static private final int MAX_MISCLEAVAGES = 1;
-	static private final int MIN_PEP_LENGTH = 6;
-	static private final int MAX_PEP_LENGTH = 75;
-	static private final double MAX_PEP_MASS = 4000D;
+	static public final int MAX_MISCLEAVAGES = 1;
+	static public final int MIN_PEP_LENGTH = 6;
+	static public final int MAX_PEP_LENGTH = 75;
+	static public final double MAX_PEP_MASS = 4000D;
+	static private final double H2O = 18.0105646;
 	static private final double[] AA_MASS = getAAMass();
+	static private final boolean[] VALID = getValidResidues("ARNDCEQGHILKMFPSTWYVOU");
 
 	public static double calcPepMass(String pep) {
-		double total_mass = 18.0105646; // H20
+		double total_mass = H2O;
 		for (char aa : pep.toCharArray()) {
 			total_mass += AA_MASS[aa];
 		}
 		return total_mass;
 	}
+
+	private static boolean[] getValidResidues(String residues) {
+		boolean[] valid = new boolean[128];
+		for (char aa : residues.toCharArray())
+			valid[aa] = true;
+		return valid;
+	}
 	
 	private static double[] getAAMass() {
 		double[] aaMasses = new double[128];
@@ -6,14 +6,23 @@ public class TrypticPeptide { // implements Comparable<TrypticPeptide>{
 
 	private String seq;
 	private int start, stop;
+	private double mass;
 	private String modifications;
 	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
 
 	public TrypticPeptide(String seq, int start) {
+		this(seq, start, Trypsinator.calcPepMass(seq));
+	}
+
+	/**
+	 * @param mass - the monoisotopic mass of the peptide, if already known
+	 */
+	public TrypticPeptide(String seq, int start, double mass) {
 		super();
 		this.seq = seq;
 		this.start = start;
 		this.stop = start + seq.length();
+		this.mass = mass;
 	}
 
 	public String getSeq() {
@@ -32,6 +41,10 @@ public class TrypticPeptide { // implements Comparable<TrypticPeptide>{
 		return seq.length();
 	}
 
+	public double getMass() {
+		return mass;
+	}
+
 	public String getModifications() {
 		return modifications;
 	}
@@ -69,7 +82,7 @@ public class TrypticPeptide { // implements Comparable<TrypticPeptide>{
 
 	@Override
 	public String toString() {
-		return "TryPep [seq=" + seq + ", mass= " + Trypsinator.calcPepMass(seq)
+		return "TryPep [seq=" + seq + ", mass= " + mass
 				+ ", start=" + start + ", stop=" + stop + "]";
 	}
 }
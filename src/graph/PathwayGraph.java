@@ -1,13 +1,17 @@
 package graph;
 
 import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Logger;
 
 import db.DbManager;
 import db.PathwayImpl;
 import main.AnalysisResult;
+import main.Pair;
 
 public class PathwayGraph {
 	
@@ -32,38 +36,63 @@ public class PathwayGraph {
 		return this.root.size();
 	}
 	
+	/**
+	 * Loads the whole parent/child relation in one query and builds the tree 
+	 * in memory, top-down, using an explicit stack instead of recursion. 
+	 * RDF IDs are not unique across databases, so a pathway that has the 
+	 * RDF ID of one of its ancestors is added but not expanded, which would 
+	 * otherwise repeat the subtree of the ancestor forever.
+	 */
 	private void init(){
+		Map<String, List<Pair<PathwayImpl, String>>> hierarchy;
 		try {
-			Set<PathwayImpl> superpaths = dbman.getPathwaysByParent(null);
-			for(PathwayImpl p : superpaths){
-				root.addChild(traverseParent(p));
-			}
+			hierarchy = dbman.getPathwayHierarchy();
 		} catch (SQLException e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
-			throw new RuntimeException("PathwayGraph initialization failed; cannot get superpaths!");
+			throw new RuntimeException("PathwayGraph initialization failed; cannot get pathway hierarchy!");
+		}
+		
+		// Pending nodes, paired with the RDF ID their children refer to
+		Deque<Pair<PathwayGraphNode, String>> pending = new ArrayDeque<Pair<PathwayGraphNode, String>>();
+		pending.push(Pair.of(root, (String) null));
+		Map<PathwayGraphNode, String> rdfIds = new IdentityHashMap<PathwayGraphNode, String>();
+		
+		while(!pending.isEmpty()){
+			Pair<PathwayGraphNode, String> parent = pending.pop();
+			
+			// only the root may refer to the top-level pathways
+			if(parent.second == null && parent.first != root)
+				continue;
+			
+			List<Pair<PathwayImpl, String>> children = hierarchy.get(parent.second);
+			if(children == null)
+				continue;
+			
+			for(Pair<PathwayImpl, String> child : children){
+				PathwayGraphNode node = new PathwayGraphNode(results.get(child.first));
+				parent.first.addChild(node);
+				if(isAncestor(parent.first, child.second, rdfIds)){
+					logger.warning("Pathway " + child.first.getName() + " (" + child.second 
+							+ ") is its own ancestor, its subpathways are skipped" + System.lineSeparator());
+					continue;
+				}
+				rdfIds.put(node, child.second);
+				pending.push(Pair.of(node, child.second));
+			}
 		}
 	}
 	
-	private PathwayGraphNode traverseParent(PathwayImpl path){
-		String rdfid;
-		PathwayGraphNode node = new PathwayGraphNode(results.get(path));
-
-		try {
-			rdfid = dbman.getPathwayRDFID(path.getId());
-			Set<PathwayImpl> children = dbman.getPathwaysByParent(rdfid);
-			if(!children.isEmpty()){
-				for(PathwayImpl child : children)
-					node.addChild(traverseParent(child)); 
-			}
-			
-		} catch (SQLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			throw new RuntimeException("Cannot traverse children of pathway: " + path);
+	/**
+	 * @return {@code true} if the node or one of its ancestors has the RDF ID
+	 */
+	private static boolean isAncestor(PathwayGraphNode node, String rdfId, Map<PathwayGraphNode, String> rdfIds){
+		if(rdfId == null)
+			return false;
+		for(PathwayGraphNode n = node; n != null; n = n.getParent()){
+			if(rdfId.equals(rdfIds.get(n)))
+				return true;
 		}
-		
-		return node;
+		return false;
 	}
 
 }
@@ -1,8 +1,10 @@
 package graph;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Deque;
+import java.util.List;
 import java.util.logging.Logger;
 
 import db.PathwayImpl;
@@ -19,13 +21,23 @@ public class PathwayGraphNode {
 	// Contained pathway
 	private AnalysisResult path; 
 	
+	// Superpathway, null for the root
+	private PathwayGraphNode parent;
+	
 	// Subpathways
-	private Set<PathwayGraphNode> children;
+	private List<PathwayGraphNode> children;
 	
 	public PathwayGraphNode(AnalysisResult res){
 		this.node_id = nodeCounter++;
 		this.path = res;
-		this.children = new HashSet<PathwayGraphNode>();
+		this.children = new ArrayList<PathwayGraphNode>();
+	}
+	
+	/**
+	 * @return the result of the contained pathway, {@code null} for the root
+	 */
+	public AnalysisResult getResult(){
+		return this.path;
 	}
 	
 	public boolean isRoot(){
@@ -36,7 +48,12 @@ public class PathwayGraphNode {
 		return this.node_id;
 	}
 	
+	public PathwayGraphNode getParent(){
+		return this.parent;
+	}
+	
 	public boolean addChild(PathwayGraphNode n){
+		n.parent = this;
 		return this.children.add(n);
 	}
 	
@@ -44,14 +61,20 @@ public class PathwayGraphNode {
 		return this.children.size();
 	}
 	
-	public Set<PathwayGraphNode> getChildren(){
-		return Collections.unmodifiableSet(this.children);
+	public List<PathwayGraphNode> getChildren(){
+		return Collections.unmodifiableList(this.children);
 	}
 	
 	public int size(){
-		int size = 1;
-		for (PathwayGraphNode child : this.children)
-			size += child.size();
+		int size = 0;
+		Deque<PathwayGraphNode> pending = new ArrayDeque<PathwayGraphNode>();
+		pending.push(this);
+		while(!pending.isEmpty()){
+			PathwayGraphNode n = pending.pop();
+			size++;
+			for (PathwayGraphNode child : n.children)
+				pending.push(child);
+		}
 		return size;
 	}
 
@@ -1,57 +1,210 @@
 package gui;
 
+import io.LineOffsetIndex;
+import io.TextFileParser;
+
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
+import javax.swing.SwingWorker;
+import javax.swing.table.AbstractTableModel;
+
+import main.DebugToolbox;
 import db.PathwayImpl;
 
-public class DataPreviewTableModel extends UneditableTableModel {
+/**
+ * Table model of the data preview. The rows are parsed page by page as the table
+ * is scrolled, using a line offset index of the file that is built in the
+ * background; only the first page is available before indexing has progressed.
+ * The first column holds the ignore flag of each row.
+ */
+public class DataPreviewTableModel extends AbstractTableModel {
 
 
 	private static final long serialVersionUID = -4167265406524086603L;
 	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
-	
-	public DataPreviewTableModel(String[][] data, String[] headers) {
-//		super(data,headers);
+
+	public static final int PAGE_SIZE = 500;
+	private static final int MAX_CACHED_PAGES = 32;
+
+	private final TextFileParser parser;
+	private final LineOffsetIndex index;
+	private final String[] headers;
+	private final BitSet ignored = new BitSet();
+	private final Map<Integer, List<String[]>> pages;
+	private final int firstPageSize;
+	private int nrows;
+
+	/**
+	 * @param parser - parser of the previewed file
+	 * @param firstPage - the first rows of the file, see {@link TextFileParser#parseSample(int)}
+	 * @param headers - the column headers
+	 */
+	public DataPreviewTableModel(TextFileParser parser, List<String[]> firstPage, String[] headers) {
 		super();
-		
-		Boolean[] bools = new Boolean[data.length];
-		Arrays.fill(bools, false);
-		addColumn("Ignore row?", bools);
-
-		for (int cind = 0; cind < headers.length; cind++){
-			String[] coldata = new String[data.length];
-
-			for(int rind=0; rind < data.length ; rind++){
-				if(data[rind].length != headers.length){
-					throw new RuntimeException(
-						"Assertion fails; row: " + rind 
-						+ " does not have the same length as headers! "
-						+ "Likely reason is that one of the columns include a "
-						+ "delimeter e.g. a comma..."
-						+ System.lineSeparator()
-						+ "Row: " + Arrays.toString(data[rind]) 
-						+ System.lineSeparator()
-						+ "Headers: " + Arrays.toString(headers));
+		this.parser = parser;
+		this.index = parser.createLineIndex();
+		this.headers = headers;
+		this.firstPageSize = Math.min(firstPage.size(), PAGE_SIZE);
+		this.nrows = firstPageSize;
+		this.pages = new LinkedHashMap<Integer, List<String[]>>(MAX_CACHED_PAGES, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, List<String[]>> eldest) {
+				return size() > MAX_CACHED_PAGES;
+			}
+		};
+
+		for(int rind=0; rind < firstPageSize; rind++){
+			String[] row = firstPage.get(rind);
+			if(row.length != headers.length){
+				throw new RuntimeException(
+					"Assertion fails; row: " + rind
+					+ " does not have the same length as headers! "
+					+ "Likely reason is that one of the columns include a "
+					+ "delimeter e.g. a comma..."
+					+ System.lineSeparator()
+					+ "Row: " + Arrays.toString(row)
+					+ System.lineSeparator()
+					+ "Headers: " + Arrays.toString(headers));
+			}
+		}
+		pages.put(0, firstPage.subList(0, firstPageSize));
+	}
+
+	/**
+	 * Starts building the line offset index in the background,
+	 * rows are added to the table as they are indexed
+	 */
+	public void startIndexing(){
+		new SwingWorker<Void, Integer>() {
+			@Override
+			protected Void doInBackground() throws IOException {
+				index.build(new LineOffsetIndex.Listener() {
+					@Override
+					public void rowsIndexed(int n) {
+						publish(n);
+					}
+				});
+				return null;
+			}
+
+			@Override
+			protected void process(List<Integer> chunks) {
+				int n = chunks.get(chunks.size() - 1);
+				if(n > nrows){
+					int old = nrows;
+					nrows = n;
+					fireTableRowsInserted(old, n - 1);
 				}
-			
-				coldata[rind] = data[rind][cind];
 			}
-			addColumn(headers[cind], coldata);
+
+			@Override
+			protected void done() {
+				try {
+					get();
+				} catch (Exception e) {
+					logger.severe("Could not index the datafile: "
+							+ System.lineSeparator()
+							+ DebugToolbox.getStackTraceAsString(e)
+							+ System.lineSeparator());
+				}
+			}
+		}.execute();
+	}
+
+	/**
+	 * @return indices of the rows that the user chose to ignore
+	 */
+	public BitSet getIgnoredRows(){
+		return (BitSet) ignored.clone();
+	}
+
+	public boolean isFullyIndexed(){
+		return index.isComplete();
+	}
+
+	/**
+	 * Stops the indexing and frees the files of the index, pages that are not
+	 * cached are read from the start of the file afterwards
+	 */
+	public void dispose(){
+		index.close();
+	}
+
+	@Override
+	public int getRowCount() {
+		return nrows;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return headers.length + 1;
+	}
+
+	@Override
+	public String getColumnName(int column) {
+		return column == 0 ? "Ignore row?" : headers[column - 1];
+	}
+
+	@Override
+	public Object getValueAt(int row, int column) {
+		if(column == 0)
+			return ignored.get(row);
+
+		String[] values = getRow(row);
+		return (values != null && column - 1 < values.length) ? values[column - 1] : null;
+	}
+
+	@Override
+	public void setValueAt(Object aValue, int row, int column) {
+		if(column != 0)
+			return;
+		ignored.set(row, (Boolean) aValue);
+		fireTableCellUpdated(row, column);
+	}
+
+	private String[] getRow(int row){
+		int page = row / PAGE_SIZE;
+		List<String[]> rows = pages.get(page);
+		if(rows == null){
+			int from = page * PAGE_SIZE;
+			int to = Math.min(from + PAGE_SIZE, index.size());
+			try {
+				rows = parser.parseRows(index, from, to);
+			} catch (IOException e) {
+				logger.severe("Could not read rows " + from + "-" + to + " of the datafile: "
+						+ System.lineSeparator()
+						+ DebugToolbox.getStackTraceAsString(e)
+						+ System.lineSeparator());
+				return null;
+			}
+
+			// a partially indexed page is read again once it is complete
+			if(to - from == PAGE_SIZE || index.isComplete())
+				pages.put(page, rows);
 		}
-	
+
+		int i = row % PAGE_SIZE;
+		return i < rows.size() ? rows.get(i) : null;
 	}
-	
+
 	@Override
 	public Class<?> getColumnClass(int columnIndex){
 		if (columnIndex < 0)
 			throw new IllegalArgumentException("Column index cannot be less than zero");
 		else if(columnIndex == 0)
 			return Boolean.class;
-		else 
+		else
 			return String.class;
 	}
-	
+
 	@Override
 	public boolean isCellEditable(int row, int column) {
 		if(column == 0)
@@ -25,6 +25,7 @@ import javax.swing.SwingWorker;
 import main.AnalysisParams;
 import main.DebugToolbox;
 import db.DbManager;
+import db.DbManagerRegistry;
 import db.PathwayImpl;
 
 /**
@@ -69,6 +70,24 @@ public class PreviewPanel extends javax.swing.JPanel {
 	public DbManager getDBManager() {
 		return dbman;
 	}
+	
+	/**
+	 * Hands the database manager of this panel back to the registry, 
+	 * which closes it if no other analysis is using the same database.
+	 */
+	public void releaseDBManager() {
+		if (dbman == null)
+			return;
+		
+		try {
+			DbManagerRegistry.release(dbman);
+		} catch (SQLException e) {
+			logger.warning("Unable to close the database, see details below:" 
+					+ System.lineSeparator() 
+					+ DebugToolbox.getStackTraceAsString(e));
+		}
+		dbman = null;
+	}
 
 	/**
 	 * This method is called from within the constructor to initialize the form.
@@ -180,7 +199,7 @@ public class PreviewPanel extends javax.swing.JPanel {
 			if (n == JOptionPane.NO_OPTION)
 				return;
 			else 
-				dbman = null;
+				releaseDBManager();
 			
 		}
 		
@@ -200,7 +219,7 @@ public class PreviewPanel extends javax.swing.JPanel {
 					@Override
 					protected Void doInBackground() throws Exception {
 						try {
-							dbman = new DbManager(dbFile);
+							dbman = DbManagerRegistry.acquire(dbFile);
 						} catch (SQLException e1) {
 							logger.severe("Unable to load the chosen database, see details below:" 
 									+ System.lineSeparator() 
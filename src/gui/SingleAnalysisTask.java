@@ -1,7 +1,9 @@
 package gui;
 
+import io.CompressionUtils;
 import io.ExportUtils;
-import io.TextFileParser;
+import io.MaxQuantImporter;
+import io.ParallelTextFileParser;
 
 import java.awt.BorderLayout;
 import java.awt.Component;
@@ -22,6 +24,7 @@ import java.sql.SQLException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -44,6 +47,8 @@ import javax.swing.JTable;
 import javax.swing.RowSorter;
 import javax.swing.SwingWorker;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.InternalFrameAdapter;
+import javax.swing.event.InternalFrameEvent;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.JTableHeader;
@@ -52,6 +57,7 @@ import javax.swing.table.TableModel;
 import com.google.common.base.Joiner;
 
 import db.DbManager;
+import db.DbManagerRegistry;
 import db.PathwayImpl;
 import db.ProteinImpl;
 import main.Accession;
@@ -59,6 +65,7 @@ import main.AnalysisParams;
 import main.AnalysisResult;
 import main.ConcurrencyService;
 import main.Dataset;
+import main.DatasetBuilder;
 import main.DebugToolbox;
 import main.Dataset.ANNOT_TYPE;
 import main.Dataset.Data;
@@ -70,8 +77,11 @@ public class SingleAnalysisTask implements Runnable {
 	boolean isExported = false;
 	Dataset ds;
 	DbManager dbMan;
+	// the analysis holds its own reference to dbMan, released once the
+	// frame is closed and the analysis is not running
+	boolean analysisRunning = false, isClosed = false;
 	ConcurrencyService conserv;
-	TextFileParser tfp;
+	ParallelTextFileParser tfp;
 	Map<PathwayImpl, AnalysisResult> results;
 	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
 
@@ -98,7 +108,8 @@ public class SingleAnalysisTask implements Runnable {
 					
 					param.addParam(AnalysisParams.infile_key,datafile.getCanonicalPath());
 					param.addParam(AnalysisParams.filetype_key, filetype);
-					tfp = new TextFileParser(datafile, filetype);
+					tfp = new ParallelTextFileParser(datafile, filetype, 
+							Runtime.getRuntime().availableProcessors());
 					tfp.setHeaderFlag(headerFlag);
 					tfp.setIgnoreFlag(ignoreFlag);
 					tfp.setZeroFlag(parseZeroFlag);
@@ -111,14 +122,16 @@ public class SingleAnalysisTask implements Runnable {
 		dialog.setLocationRelativeTo(null);
 		dialog.setVisible(true);
 
-		List<String[]> data = tfp.parse();
+		// Only the first page is parsed here, the rest of the file
+		// is indexed in the background and read as the preview is scrolled
+		List<String[]> data = tfp.parseSample(DataPreviewTableModel.PAGE_SIZE);
 		String[] headers = tfp.getColumnHeaders();
-		logger.info("File read successfully, dataset size: " + data.size()
+		logger.info("File opened successfully, previewing the first " + data.size() + " rows"
 				+ System.lineSeparator());
 
 		// Create data preview, analysis continues from SwingWorker created in
 		// the action listener
-		dataPreview(data.toArray(new String[0][0]), headers, frame.getTabbedPane());
+		dataPreview(data, headers, frame.getTabbedPane());
 	}
 	
 	public void exportAction(){
@@ -154,10 +167,27 @@ public class SingleAnalysisTask implements Runnable {
 
 	}
 
-	private void dataPreview(final String[][] data, String[] headers, final JTabbedPane comp) {
+	/**
+	 * Hands the database reference of the analysis back to the registry
+	 */
+	private void releaseAnalysisDB() {
+		if (dbMan == null)
+			return;
+		
+		try {
+			DbManagerRegistry.release(dbMan);
+		} catch (SQLException e) {
+			logger.warning("Unable to close the database, see details below:" 
+					+ System.lineSeparator() 
+					+ DebugToolbox.getStackTraceAsString(e));
+		}
+		dbMan = null;
+	}
+
+	private void dataPreview(List<String[]> data, String[] headers, final JTabbedPane comp) {
 		// Take care of column headers
 		if (headers.length == 0) {
-			headers = new String[data[1].length];
+			headers = new String[data.get(0).length];
 			for (int i = 0; i < headers.length; i++)
 				headers[i] = "C" + i;
 		}
@@ -168,6 +198,16 @@ public class SingleAnalysisTask implements Runnable {
 
 		// the upper part of the panel
 		final PreviewPanel descPanel = new PreviewPanel(frame);
+		frame.addInternalFrameListener(new InternalFrameAdapter() {
+			@Override
+			public void internalFrameClosed(InternalFrameEvent e) {
+				// the database may be shared with other open analyses
+				descPanel.releaseDBManager();
+				isClosed = true;
+				if (!analysisRunning)
+					releaseAnalysisDB();
+			}
+		});
 		final ParamPanel paramPanel = new ParamPanel();
 		final JPanel upperContainer = new JPanel(new BorderLayout());
 		paramPanel.setVisible(false);
@@ -184,7 +224,14 @@ public class SingleAnalysisTask implements Runnable {
 		upperContainer.add(paramPanel, BorderLayout.SOUTH);
 
 		// Define table model
-		DataPreviewTableModel model = new DataPreviewTableModel(data, headers);
+		final DataPreviewTableModel model = new DataPreviewTableModel(tfp, data, headers);
+		model.startIndexing();
+		frame.addInternalFrameListener(new InternalFrameAdapter() {
+			@Override
+			public void internalFrameClosed(InternalFrameEvent e) {
+				model.dispose();
+			}
+		});
 		final JTable table = new JTable(model);
 		table.getColumnModel().getColumn(0).setPreferredWidth(25);
 		table.setTableHeader(new JTableHeader(table.getColumnModel()){
@@ -223,6 +270,15 @@ public class SingleAnalysisTask implements Runnable {
 			combos[i] = box;
 		}
 		
+		// MaxQuant tables are annotated automatically
+		final MaxQuantImporter mqImporter = MaxQuantImporter.isMaxQuantTable(headers) ? 
+				new MaxQuantImporter(headers) : null;
+		if (mqImporter != null) {
+			ANNOT_TYPE[] auto = mqImporter.getAnnotations();
+			for (int i = 0; i < combos.length; i++)
+				combos[i].setSelectedItem(auto[i]);
+		}
+		
 		final JPanel middlePanel = new JPanel(new BorderLayout());
 		middlePanel.add(comboPanel, BorderLayout.NORTH);
 		middlePanel.add(new JScrollPane(table), BorderLayout.CENTER);
@@ -274,7 +330,11 @@ public class SingleAnalysisTask implements Runnable {
 					return;
 				}
 
+				// the panel may release its manager, e.g. when another
+				// database is chosen, while the analysis still queries it
 				dbMan = descPanel.getDBManager();
+				DbManagerRegistry.retain(dbMan);
+				analysisRunning = true;
 				analyzeButton.setEnabled(false);
 				DebugToolbox.startExecTimer();
 				
@@ -298,15 +358,27 @@ public class SingleAnalysisTask implements Runnable {
 
 							// Create dataset; to be passed on to SwingWorker which will
 							// execute the analysis
-							ds = new Dataset();
+							ds = new Dataset(dbMan.getAccessionIndex());
+							
+							// If ignore button is clicked, skip row..
+							BitSet ignored = model.getIgnoredRows();
 							
-							String[] line;
-							for (int i=0; i < data.length; i++){
-								line = data[i];
-								// If ignore button is clicked, skip row..
-								if(!(Boolean) table.getValueAt(i, 0))
-									ds.addRow(line, annots);
+							// Read the file into the dataset rather than 
+							// converting the preview strings, only the 
+							// annotated columns are decoded; chunks of the
+							// file are converted on all cores
+							DatasetBuilder builder = new DatasetBuilder(ds, annots, ignored);
+							if (mqImporter != null) {
+								// reverse hits and contaminants are dropped on the fly
+								tfp.setColumnProjection(mqImporter.getColumnProjection(builder.getColumnProjection()));
+								builder.parse(tfp, mqImporter);
+								logger.info(builder.getNbrOfRowsDiscarded() + " reverse or contaminant rows rejected"
+										+ System.lineSeparator());
+							} else {
+								tfp.setColumnProjection(builder.getColumnProjection());
+								builder.parse(tfp, null);
 							}
+							builder.finish();
 							
 							System.out.println("Dataset parsed...");
 							logger.info("Dataset parsing complete "
@@ -320,6 +392,12 @@ public class SingleAnalysisTask implements Runnable {
 							conserv.serve();
 							//DebugToolbox.dumpScores();		
 
+						} catch (IOException e) {
+							logger.severe("Could not read the datafile"
+									+ System.lineSeparator()
+									+ DebugToolbox.getStackTraceAsString(e)
+									+ System.lineSeparator());
+							throw new RuntimeException(e);
 						} catch (InterruptedException e) {
 							logger.severe("Concurrency service interrupted"
 									+ System.lineSeparator()
@@ -356,6 +434,10 @@ public class SingleAnalysisTask implements Runnable {
 						frame.getMainFrame().deactivateInfiGlass();
 						DebugToolbox.stopExecTimer();
 						
+						analysisRunning = false;
+						if (isClosed)
+							releaseAnalysisDB();
+
 					}
 				};
 
@@ -736,14 +818,15 @@ public class SingleAnalysisTask implements Runnable {
 			for(ProteinImpl prot : allProts){
 				acc = prot.getAcc();
 				gene = prot.getGene_symbol();
-				if (!ds.getProteinsIds().contains(acc)){
+				int symbol = ds.getProteinSymbol(acc);
+				if (symbol < 0){
 					table_data.add(new Object[]{acc, gene, null, null, ""});
 					missedProts.add(acc);
 				}
 				else{
 					boolean hit = false;
 					for(Data d : ds.getDataRows()){
-						if(d.getProteins().contains(acc)){
+						if(d.containsProtein(symbol)){
 							if(hit)
 								logger.warning("Multiple rows containing accession: " + acc);
 							
@@ -905,12 +988,13 @@ public class SingleAnalysisTask implements Runnable {
 			public void actionPerformed(ActionEvent e) {
 				File file;
 				JFileChooser jfc = new JFileChooser();
-				jfc.setFileFilter(new FileNameExtensionFilter("TEXT FILES", "txt", "tsv", "csv"));
+				jfc.setFileFilter(new FileNameExtensionFilter("TEXT FILES", "txt", "tsv", "csv", "gz"));
 				jfc.setSelectedFile(new File(exportName + ".txt"));
 				int returnVal = jfc.showSaveDialog(null);
 				if (returnVal == JFileChooser.APPROVE_OPTION) {
 		            file = jfc.getSelectedFile();
-		            if(file.getName().endsWith("csv"))
+		            // files ending with .gz are compressed while written
+		            if(CompressionUtils.stripGzipSuffix(file.getName()).endsWith("csv"))
 		            	ExportUtils.exportTableCSV(file, model);
 		            else
 		            	ExportUtils.exportTableTSV(file, model);
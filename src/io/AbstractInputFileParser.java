@@ -47,6 +47,10 @@ public abstract class AbstractInputFileParser {
 	
 	public abstract List<String[]> parse();
 	
+	public File getFile(){
+		return datafile;
+	}
+
 	public int getNbrOfRows(){
 		return nrows;
 	}
@@ -0,0 +1,180 @@
+package io;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import db.PathwayImpl;
+
+/**
+ * Opens files for reading and writing with transparent gzip support. Input
+ * files are recognized as gzip compressed by their magic number, output files
+ * are compressed if their name ends with {@value #GZIP_SUFFIX}.
+ */
+public class CompressionUtils {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	public static final String GZIP_SUFFIX = ".gz";
+
+	/**
+	 * Size of the buffers of the (de)compressing streams; inflating and deflating
+	 * in larger blocks than the 512 byte default saves many native calls.
+	 */
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	private static final int GZIP_MAGIC_1 = 0x1f, GZIP_MAGIC_2 = 0x8b;
+
+	private CompressionUtils(){}
+
+	/**
+	 * @return {@code true} if the file starts with the gzip magic number
+	 * @throws IOException
+	 */
+	public static boolean isGzipped(File f) throws IOException{
+		InputStream in = new FileInputStream(f);
+		try{
+			return in.read() == GZIP_MAGIC_1 && in.read() == GZIP_MAGIC_2;
+		}
+		finally{
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the file name without a trailing {@value #GZIP_SUFFIX}
+	 */
+	public static String stripGzipSuffix(String name){
+		return name.toLowerCase().endsWith(GZIP_SUFFIX) ?
+				name.substring(0, name.length() - GZIP_SUFFIX.length()) : name;
+	}
+
+	/**
+	 * Opens the file for reading, decompressing it on the fly if necessary.
+	 * Closing the channel closes the file.
+	 * @throws IOException
+	 */
+	public static ReadableByteChannel openChannel(File f) throws IOException{
+		if(isGzipped(f))
+			return Channels.newChannel(new GZIPInputStream(new FileInputStream(f), BUFFER_SIZE));
+		return new FileInputStream(f).getChannel();
+	}
+
+	/**
+	 * Opens a range of the (decompressed) contents of the file. Plain files are
+	 * read from the start of the range directly, compressed files have to be
+	 * decompressed from the beginning.
+	 * @param start - offset of the first byte, inclusive
+	 * @param end - offset of the last byte, exclusive
+	 * @throws IOException
+	 */
+	public static ReadableByteChannel openRange(File f, long start, long end) throws IOException{
+		if(!isGzipped(f)){
+			final FileInputStream fis = new FileInputStream(f);
+			return new RangeChannel(fis.getChannel(), start, end){
+				@Override
+				public void close() throws IOException {
+					fis.close();
+				}
+			};
+		}
+
+		return openRange(new GZIPInputStream(new FileInputStream(f), BUFFER_SIZE), start, end - start, f.getName());
+	}
+
+	/**
+	 * Skips {@code skip} bytes of the stream and limits the channel to the
+	 * following {@code length} bytes, the stream is closed on failure
+	 * @throws IOException
+	 */
+	static ReadableByteChannel openRange(InputStream in, long skip, long length, String name) throws IOException{
+		try{
+			long toSkip = skip;
+			while(toSkip > 0){
+				long n = in.skip(toSkip);
+				if(n <= 0 && in.read() < 0)
+					throw new EOFException("Range starts beyond the end of " + name);
+				toSkip -= Math.max(n, 1);
+			}
+		}
+		catch(IOException e){
+			in.close();
+			throw e;
+		}
+		return new BoundedChannel(Channels.newChannel(in), length);
+	}
+
+	/**
+	 * @return a buffered stream to the file, compressing if the
+	 * file name ends with {@value #GZIP_SUFFIX}
+	 * @throws IOException
+	 */
+	public static OutputStream newOutputStream(File f) throws IOException{
+		OutputStream out = new FileOutputStream(f);
+		if(f.getName().toLowerCase().endsWith(GZIP_SUFFIX))
+			out = new GZIPOutputStream(out, BUFFER_SIZE);
+		return new BufferedOutputStream(out, BUFFER_SIZE);
+	}
+
+	/**
+	 * @return a buffered writer to the file, compressing if the
+	 * file name ends with {@value #GZIP_SUFFIX}
+	 * @throws IOException
+	 */
+	public static Writer newWriter(File f, Charset cs) throws IOException{
+		return new BufferedWriter(new OutputStreamWriter(newOutputStream(f), cs), BUFFER_SIZE);
+	}
+
+	/**
+	 * Limits the number of bytes read from a channel
+	 */
+	static class BoundedChannel implements ReadableByteChannel {
+		private final ReadableByteChannel ch;
+		private long remaining;
+
+		BoundedChannel(ReadableByteChannel ch, long limit){
+			this.ch = ch;
+			this.remaining = limit;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			if(remaining <= 0)
+				return -1;
+
+			int limit = dst.limit();
+			if(dst.remaining() > remaining)
+				dst.limit(dst.position() + (int) remaining);
+			int n = ch.read(dst);
+			dst.limit(limit);
+			if(n > 0)
+				remaining -= n;
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return ch.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			ch.close();
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.logging.Logger;
+
+import db.PathwayImpl;
+
+/**
+ * Single pass tokenizer for delimited text files. Bytes are read from a channel
+ * into a reusable buffer and the fields are passed to a {@link TokenHandler} as
+ * slices of that buffer, so that no strings are created while tokenizing.
+ * <p> The rules are the ones of {@link TextFileParser}:
+ * <ul>
+ * <li> lines end with <code>\n</code>, <code>\r\n</code> or <code>\r</code>
+ * <li> the first empty line ends the input
+ * <li> lines starting with <code>#</code>, <code>%</code> or <code>/</code> are comments
+ * <li> if quotes are ignored, quotation marks are removed from the fields, and
+ * delimiters within a field that starts with a quotation mark are not separators
+ * <li> fields consisting of a single <code>0</code> are emptied if zeros are missing values
+ * </ul>
+ * Fields outside of an optional column projection are skipped without being
+ * copied or passed to the handler, see {@link #setProjection(boolean[])}.
+ * <p> Quoted fields cannot span several lines. The delimiter and the quotation marks
+ * are single byte characters, so any ASCII compatible encoding can be tokenized.
+ */
+public class DelimitedTokenizer {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	private final byte delimiter;
+	private final boolean stripQuotes, zerosAsMissingVals;
+	private byte[] buf;
+	private boolean[] projection;
+	private long nlines;
+	private boolean emptyLineSeen;
+
+	public DelimitedTokenizer(byte delimiter, boolean stripQuotes, boolean zerosAsMissingVals){
+		this.delimiter = delimiter;
+		this.stripQuotes = stripQuotes;
+		this.zerosAsMissingVals = zerosAsMissingVals;
+		this.buf = new byte[DEFAULT_BUFFER_SIZE];
+	}
+
+	/**
+	 * Restricts the fields passed to the handler to the given columns; the
+	 * number of fields given to {@link TokenHandler#endRow(int)} still counts
+	 * all columns. The projection may be changed between rows, e.g. after
+	 * the header row has been read.
+	 * @param columns - flags of the columns to pass on, columns beyond the 
+	 * length of the array are skipped; {@code null} to pass on all columns
+	 */
+	public void setProjection(boolean[] columns){
+		this.projection = columns;
+	}
+
+	/**
+	 * @param separator - a single ASCII character such as {@link AbstractInputFileParser#TAB}
+	 * @return the separator as a byte
+	 */
+	public static byte toDelimiter(String separator){
+		if(separator.length() != 1 || separator.charAt(0) > 0x7F)
+			throw new IllegalArgumentException("Unsupported column separator: " + separator);
+		return (byte) separator.charAt(0);
+	}
+
+	/**
+	 * Reads the channel up to its end or the first empty line, whichever comes first.
+	 * The channel is not closed.
+	 * @return number of lines read, including comment lines
+	 * @throws IOException
+	 */
+	public long tokenize(ReadableByteChannel ch, TokenHandler handler) throws IOException{
+		int pos = 0, scan = 0, len = 0;
+		boolean eof = false, skipLF = false;
+		nlines = 0;
+		emptyLineSeen = false;
+
+		while(true){
+			// the \n of a \r\n pair may be the first byte of a new read
+			if(skipLF && pos < len){
+				if(buf[pos] == '\n')
+					pos++;
+				skipLF = false;
+				scan = Math.max(scan, pos);
+			}
+
+			int i = scan;
+			while(i < len && buf[i] != '\n' && buf[i] != '\r')
+				i++;
+
+			if(i < len){
+				if(!tokenizeLine(buf, pos, i, handler))
+					return nlines;
+				skipLF = buf[i] == '\r';
+				pos = scan = i + 1;
+				continue;
+			}
+
+			if(eof){
+				if(pos < len)
+					tokenizeLine(buf, pos, len, handler);
+				return nlines;
+			}
+
+			// keep the partial line and make room for more
+			if(pos > 0){
+				System.arraycopy(buf, pos, buf, 0, len - pos);
+				len -= pos;
+				scan = i - pos;
+				pos = 0;
+			} else
+				scan = i;
+
+			if(len == buf.length){
+				byte[] grown = new byte[buf.length * 2];
+				System.arraycopy(buf, 0, grown, 0, len);
+				buf = grown;
+			}
+
+			ByteBuffer bb = ByteBuffer.wrap(buf, len, buf.length - len);
+			int n = ch.read(bb);
+			if(n < 0)
+				eof = true;
+			else
+				len += n;
+		}
+	}
+
+	/**
+	 * @return {@code true} if the last call to {@link #tokenize(ReadableByteChannel, TokenHandler)}
+	 * stopped at an empty line rather than at the end of the input or on request of the handler
+	 */
+	public boolean stoppedAtEmptyLine(){
+		return emptyLineSeen;
+	}
+
+	/**
+	 * Tokenizes a single line without its line terminator.
+	 * Quotation marks are removed by shifting the field's bytes in place.
+	 * @return {@code false} if tokenizing should stop
+	 */
+	boolean tokenizeLine(byte[] b, int start, int end, TokenHandler handler){
+		if(start == end){
+			emptyLineSeen = true;
+			return false;
+		}
+
+		nlines++;
+		byte first = b[start];
+		if(first == '#' || first == '%' || first == '/')
+			return true;
+
+		int col = 0, r = start;
+		while(true){
+			if(projection != null && (col >= projection.length || !projection[col])){
+				r = skipField(b, r, end);
+				col++;
+				if(r == end)
+					break;
+				r++;
+				continue;
+			}
+
+			int fs = r, w = r;
+			if(stripQuotes){
+				byte quote = 0;
+				while(r < end){
+					byte c = b[r];
+					if(quote != 0){
+						if(c == quote)
+							quote = 0;
+						else
+							b[w++] = c;
+					}
+					else if(c == delimiter)
+						break;
+					else if(c == '"' || c == '\''){
+						if(r == fs)
+							quote = c;
+					}
+					else
+						b[w++] = c;
+					r++;
+				}
+			}
+			else{
+				while(r < end && b[r] != delimiter)
+					r++;
+				w = r;
+			}
+
+			if(zerosAsMissingVals && w - fs == 1 && b[fs] == '0')
+				w = fs;
+
+			handler.field(col++, b, fs, w);
+			if(r == end)
+				break;
+			r++;
+		}
+		return handler.endRow(col);
+	}
+
+	/**
+	 * @return index of the delimiter ending the field starting at {@code r},
+	 * or {@code end}
+	 */
+	private int skipField(byte[] b, int r, int end){
+		if(stripQuotes && r < end && (b[r] == '"' || b[r] == '\'')){
+			byte quote = b[r++];
+			while(r < end && b[r] != quote)
+				r++;
+		}
+		while(r < end && b[r] != delimiter)
+			r++;
+		return r;
+	}
+}
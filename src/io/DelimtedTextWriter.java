@@ -1,10 +1,9 @@
 package io;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
 import java.util.logging.Logger;
 
 import db.PathwayImpl;
@@ -22,7 +21,7 @@ public class DelimtedTextWriter extends PrintWriter {
 	}
 	
 	public DelimtedTextWriter(File f, int delim) throws IOException{
-		super(new BufferedWriter(new FileWriter(f)));
+		super(CompressionUtils.newWriter(f, Charset.defaultCharset()));
 		switch(delim){
 		case COMMA: sep = ","; break;
 		case TAB: sep = "\t"; break;
@@ -1,14 +1,11 @@
 package io;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.sql.SQLException;
 import java.text.DecimalFormat;
 import java.util.Collection;
@@ -422,7 +419,7 @@ public class ExportUtils {
 			createDataVisPages();
 		}
 		
-		public void createIndexPage() throws UnsupportedEncodingException, FileNotFoundException{
+		public void createIndexPage() throws IOException{
 			AnalysisParams param = AnalysisParams.getInstance();
 			File indexPage = new File(topfolder, "index.html");
 			
@@ -726,7 +723,7 @@ public class ExportUtils {
 			
 		}
 		
-		private void createDataVisPages() throws UnsupportedEncodingException, FileNotFoundException, SQLException{
+		private void createDataVisPages() throws IOException, SQLException{
 			File resFolder = new File(topfolder, "res");
 			File jsonFile = new File(resFolder, "datagraph.json");
 			JSONExporter json = new JSONExporter(dbMan);
@@ -885,15 +882,11 @@ public class ExportUtils {
 			footer.appendElement("p").text("Copyright Ufuk Kirik, " + COPYRIGHT + " 2010-2014.");
 		}
 		
-		private void writeOutToFile(Object doc, File f) throws UnsupportedEncodingException, FileNotFoundException{
+		private void writeOutToFile(Object doc, File f) throws IOException{
 			// TODO: warn if file exists
 			// TODO: make sure file is rewritten if exists
 			
-			PrintWriter out = 
-					new PrintWriter(
-						new BufferedWriter(
-							new OutputStreamWriter(
-								new FileOutputStream(f), "UTF-8")));
+			PrintWriter out = new PrintWriter(CompressionUtils.newWriter(f, Charset.forName("UTF-8")));
 
 			out.println(doc);
 			out.flush();	
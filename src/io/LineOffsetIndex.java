@@ -0,0 +1,346 @@
+package io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import db.PathwayImpl;
+
+/**
+ * Byte offsets of the data rows of a delimited text file, so that any range of
+ * rows can be parsed without reading the file from the start. Rows are counted
+ * as by {@link TextFileParser}: comment lines and the header row are skipped,
+ * and the first empty line ends the data.
+ * <p> The index can be read while it is being built, rows become available
+ * as soon as their line terminator has been scanned. The offsets of gzip 
+ * compressed files refer to the decompressed contents.
+ * <p> A gzip stream can only be inflated from its start, so while a compressed
+ * file is indexed its contents are deflated again in independent segments of
+ * {@value #SEGMENT_SIZE} bytes, written to a temporary file. Only the offsets
+ * of the segments are kept in memory. {@link #openRange(long, long)} then
+ * inflates from the segment of the range rather than from the start of the
+ * file, which keeps paging through a large file linear. {@link #close()}
+ * deletes the temporary file.
+ */
+public class LineOffsetIndex {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	/**
+	 * Number of rows between two calls to {@link Listener#rowsIndexed(int)}
+	 */
+	public static final int NOTIFY_INTERVAL = 1 << 14;
+
+	/**
+	 * Number of decompressed bytes per restart segment of a gzip compressed file
+	 */
+	public static final int SEGMENT_SIZE = 1 << 22;
+
+	private final File datafile;
+	private final boolean hasHeaders;
+	private long[] offsets = new long[1024];
+	private int size = 0;
+	private long lastEnd = 0;
+	private volatile boolean complete = false;
+	private volatile boolean closed = false;
+	// deflated segments of a gzip compressed file, segment k is stored at
+	// [segmentOffsets[k], segmentOffsets[k+1]) of the segment file
+	private File segmentFile;
+	private long[] segmentOffsets = new long[64];
+	private int nsegments = 0;
+	private long segmented = 0;
+
+	public interface Listener {
+		public void rowsIndexed(int nrows);
+	}
+
+	public LineOffsetIndex(File datafile, boolean hasHeaders){
+		this.datafile = datafile;
+		this.hasHeaders = hasHeaders;
+	}
+
+	/**
+	 * Scans the file and records the offset of every data row
+	 * @param listener - notified as rows are indexed, may be {@code null}
+	 * @throws IOException
+	 */
+	public void build(Listener listener) throws IOException{
+		SegmentWriter segmenter = null;
+		boolean scanned = false;
+		if(CompressionUtils.isGzipped(datafile))
+			segmenter = new SegmentWriter(createSegmentFile());
+		try{
+			ReadableByteChannel ch = CompressionUtils.openChannel(datafile);
+			try{
+				scan(ch, listener, segmenter);
+			}
+			finally{
+				ch.close();
+			}
+			if(segmenter != null)
+				segmenter.seal();
+			scanned = true;
+		}
+		finally{
+			if(segmenter != null)
+				segmenter.close();
+			if(!scanned)
+				deleteSegments();
+		}
+		if(closed){
+			deleteSegments();
+			return;
+		}
+		complete = true;
+		if(listener != null)
+			listener.rowsIndexed(size());
+		logger.info("Indexed " + size() + " rows of " + datafile.getName()
+				+ System.lineSeparator());
+	}
+
+	private void scan(ReadableByteChannel ch, Listener listener, SegmentWriter segmenter) throws IOException{
+		ByteBuffer bb = ByteBuffer.allocate(DelimitedTokenizer.DEFAULT_BUFFER_SIZE);
+		byte[] buf = bb.array();
+		boolean headerPending = hasHeaders, pendingCR = false;
+		long base = 0, lineStart = 0;
+		int lineLen = 0;
+		byte first = 0;
+
+		int n;
+		while(!closed && (n = ch.read(bb)) >= 0){
+			if(segmenter != null)
+				segmenter.write(buf, n);
+			for(int i=0; i < n; i++){
+				byte c = buf[i];
+				long p = base + i;
+				if(pendingCR){
+					pendingCR = false;
+					if(c == '\n'){
+						lineStart = p + 1;
+						continue;
+					}
+				}
+
+				if(c != '\n' && c != '\r'){
+					if(lineLen++ == 0)
+						first = c;
+					continue;
+				}
+
+				// the line [lineStart, p) is complete
+				if(lineLen == 0)
+					return;
+				if(!isComment(first)){
+					if(headerPending)
+						headerPending = false;
+					else if(add(lineStart, p + 1) % NOTIFY_INTERVAL == 0 && listener != null)
+						listener.rowsIndexed(size());
+				}
+				pendingCR = c == '\r';
+				lineStart = p + 1;
+				lineLen = 0;
+			}
+			base += n;
+			bb.clear();
+		}
+
+		// last line without a terminator
+		if(lineLen > 0 && !isComment(first) && !headerPending)
+			add(lineStart, base);
+	}
+
+	private static boolean isComment(byte first){
+		return first == '#' || first == '%' || first == '/';
+	}
+
+	private synchronized int add(long offset, long end){
+		if(size == offsets.length)
+			offsets = Arrays.copyOf(offsets, size * 2);
+		offsets[size++] = offset;
+		lastEnd = end;
+		return size;
+	}
+
+	/**
+	 * @return number of rows indexed so far
+	 */
+	public synchronized int size(){
+		return size;
+	}
+
+	public boolean isComplete(){
+		return complete;
+	}
+
+	/**
+	 * @return offset of the first byte of the given row
+	 */
+	public synchronized long getOffset(int row){
+		if(row >= size)
+			throw new IndexOutOfBoundsException("Row " + row + " is not indexed, size: " + size);
+		return offsets[row];
+	}
+
+	/**
+	 * @return offset right after the line terminator of the given row,
+	 * comment lines that follow the row may be included
+	 */
+	public synchronized long getEndOffset(int row){
+		if(row >= size)
+			throw new IndexOutOfBoundsException("Row " + row + " is not indexed, size: " + size);
+		return row + 1 < size ? offsets[row + 1] : lastEnd;
+	}
+
+	public File getFile(){
+		return datafile;
+	}
+
+	/**
+	 * Opens a range of the (decompressed) contents of the file. Ranges of a
+	 * compressed file that are not covered by the restart segments yet are
+	 * decompressed from the start of the file.
+	 * @param start - offset of the first byte, inclusive
+	 * @param end - offset of the last byte, exclusive
+	 * @throws IOException
+	 */
+	public ReadableByteChannel openRange(long start, long end) throws IOException{
+		File f;
+		long[] bounds;
+		synchronized(this){
+			if(end > segmented)
+				return CompressionUtils.openRange(datafile, start, end);
+			int first = (int) (start / SEGMENT_SIZE);
+			int last = Math.max(first, (int) ((end - 1) / SEGMENT_SIZE));
+			f = segmentFile;
+			bounds = Arrays.copyOfRange(segmentOffsets, first, last + 2);
+		}
+
+		List<InputStream> streams = new ArrayList<InputStream>(bounds.length - 1);
+		try{
+			for(int k=0; k + 1 < bounds.length; k++)
+				streams.add(openSegment(f, bounds[k], bounds[k + 1]));
+		}
+		catch(IOException e){
+			for(InputStream in : streams)
+				in.close();
+			throw e;
+		}
+		return CompressionUtils.openRange(new SequenceInputStream(Collections.enumeration(streams)),
+				start % SEGMENT_SIZE, end - start, datafile.getName());
+	}
+
+	private static InputStream openSegment(File f, long from, long to) throws IOException{
+		FileInputStream fis = new FileInputStream(f);
+		try{
+			fis.getChannel().position(from);
+		}
+		catch(IOException e){
+			fis.close();
+			throw e;
+		}
+		return new InflaterInputStream(Channels.newInputStream(
+				new CompressionUtils.BoundedChannel(fis.getChannel(), to - from)),
+				new Inflater(), CompressionUtils.BUFFER_SIZE){
+			@Override
+			public void close() throws IOException {
+				inf.end();
+				super.close();
+			}
+		};
+	}
+
+	/**
+	 * Stops the indexing, if it is still running, and deletes the restart
+	 * segments of a compressed file; the index cannot be read afterwards
+	 */
+	public void close(){
+		closed = true;
+		deleteSegments();
+	}
+
+	private synchronized void deleteSegments(){
+		if(segmentFile != null && !segmentFile.delete() && segmentFile.exists())
+			logger.warning("Could not delete " + segmentFile + System.lineSeparator());
+		segmented = 0;
+	}
+
+	private synchronized File createSegmentFile() throws IOException{
+		segmentFile = File.createTempFile("fever_index", ".segments");
+		segmentFile.deleteOnExit();
+		return segmentFile;
+	}
+
+	private synchronized void addSegment(long end, int length){
+		if(closed)
+			return;
+		if(nsegments + 2 > segmentOffsets.length)
+			segmentOffsets = Arrays.copyOf(segmentOffsets, segmentOffsets.length * 2);
+		segmentOffsets[++nsegments] = end;
+		segmented += length;
+	}
+
+	/**
+	 * Deflates the decompressed contents of the file in independent segments,
+	 * one after the other in a temporary file
+	 */
+	private class SegmentWriter {
+		private final FileOutputStream fos;
+		private Deflater deflater;
+		private DeflaterOutputStream out;
+		private int length = 0;
+
+		SegmentWriter(File file) throws IOException{
+			fos = new FileOutputStream(file);
+		}
+
+		void write(byte[] buf, int n) throws IOException{
+			int off = 0;
+			while(off < n){
+				if(out == null){
+					deflater = new Deflater(Deflater.BEST_SPEED);
+					out = new DeflaterOutputStream(fos, deflater, CompressionUtils.BUFFER_SIZE);
+				}
+				int k = Math.min(n - off, SEGMENT_SIZE - length);
+				out.write(buf, off, k);
+				off += k;
+				length += k;
+				if(length == SEGMENT_SIZE)
+					seal();
+			}
+		}
+
+		void seal() throws IOException{
+			if(out == null)
+				return;
+			// the segment is readable once it is on disk
+			out.finish();
+			fos.flush();
+			deflater.end();
+			deflater = null;
+			out = null;
+			addSegment(fos.getChannel().position(), length);
+			length = 0;
+		}
+
+		void close() throws IOException{
+			if(deflater != null)
+				deflater.end();
+			fos.close();
+		}
+	}
+}
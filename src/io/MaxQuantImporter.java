@@ -0,0 +1,218 @@
+package io;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import main.Dataset;
+import main.Dataset.ANNOT_TYPE;
+import main.DatasetBuilder;
+import db.PathwayImpl;
+
+/**
+ * Importer of the <code>proteinGroups.txt</code> and <code>peptides.txt</code>
+ * tables written by MaxQuant. The format is recognized from the column headers,
+ * the protein, peptide and quantification columns are annotated automatically,
+ * and reverse hits and contaminants are filtered out while the file is streamed.
+ */
+public class MaxQuantImporter implements DatasetBuilder.RowFilterFactory {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	public static enum TABLE_TYPE {PROTEIN_GROUPS, PEPTIDES};
+
+	public static final String REVERSE_PREFIX = "REV_", CONTAMINANT_PREFIX = "CON_";
+	private static final String FLAG = "+";
+
+	// Quantification columns in the order of preference
+	private static final String[] RATIO_COLS = {
+		"Ratio H/L normalized", "Ratio H/L", "Ratio M/L normalized", "Ratio M/L"};
+	private static final String[] PVAL_COLS = {"Significance B", "Significance A"};
+	// the ratio of the intensities is S1/S2, oriented as the H/L ratios above
+	private static final String S1_COL = "Intensity H", S2_COL = "Intensity L";
+	private static final String[] FLAG_COLS = {"Reverse", "Potential contaminant", "Contaminant"};
+
+	private final TABLE_TYPE type;
+	private final ANNOT_TYPE[] annots;
+	private final boolean[] flagCols;
+	private final int idCol;
+
+	/**
+	 * @param headers - column headers of a MaxQuant table
+	 * @throws IllegalArgumentException if the headers are not those of a MaxQuant table
+	 */
+	public MaxQuantImporter(String[] headers){
+		List<String> cols = Arrays.asList(headers);
+		this.type = getTableType(headers);
+		if(type == null)
+			throw new IllegalArgumentException("Not a MaxQuant proteinGroups or peptides table");
+
+		annots = new ANNOT_TYPE[headers.length];
+		Arrays.fill(annots, ANNOT_TYPE.Ignore);
+		if(type == TABLE_TYPE.PROTEIN_GROUPS){
+			idCol = cols.indexOf("Majority protein IDs");
+		}else{
+			idCol = cols.indexOf("Proteins");
+			annots[cols.indexOf("Sequence")] = ANNOT_TYPE.PeptideSeq;
+		}
+		annots[idCol] = ANNOT_TYPE.ProteinID;
+
+		int ratio = firstOf(cols, RATIO_COLS);
+		if(ratio >= 0)
+			annots[ratio] = ANNOT_TYPE.Ratio;
+		else if(cols.contains(S1_COL) && cols.contains(S2_COL)){
+			annots[cols.indexOf(S1_COL)] = ANNOT_TYPE.Intensity_S1;
+			annots[cols.indexOf(S2_COL)] = ANNOT_TYPE.Intensity_S2;
+		}
+
+		int pval = firstOf(cols, PVAL_COLS);
+		if(pval >= 0)
+			annots[pval] = ANNOT_TYPE.Pval;
+
+		flagCols = new boolean[headers.length];
+		for(String flag : FLAG_COLS){
+			if(cols.contains(flag))
+				flagCols[cols.indexOf(flag)] = true;
+		}
+
+		logger.info("MaxQuant " + type + " table recognized, column annotations: "
+				+ Arrays.toString(annots) + System.lineSeparator());
+	}
+
+	/**
+	 * @return the type of MaxQuant table that the headers belong to,
+	 * {@code null} if they do not belong to a MaxQuant table
+	 */
+	public static TABLE_TYPE getTableType(String[] headers){
+		List<String> cols = Arrays.asList(headers);
+		if(cols.contains("Majority protein IDs") && cols.contains("Protein IDs"))
+			return TABLE_TYPE.PROTEIN_GROUPS;
+		if(cols.contains("Sequence") && cols.contains("Proteins") && cols.contains("Leading razor protein"))
+			return TABLE_TYPE.PEPTIDES;
+		return null;
+	}
+
+	public static boolean isMaxQuantTable(String[] headers){
+		return getTableType(headers) != null;
+	}
+
+	public TABLE_TYPE getTableType(){
+		return type;
+	}
+
+	/**
+	 * @return the automatic annotation of the columns
+	 */
+	public ANNOT_TYPE[] getAnnotations(){
+		return annots.clone();
+	}
+
+	/**
+	 * @return {@code true} if a quantification column could be annotated
+	 */
+	public boolean isComplete(){
+		List<ANNOT_TYPE> list = Arrays.asList(annots);
+		return list.contains(ANNOT_TYPE.Ratio) ||
+				(list.contains(ANNOT_TYPE.Intensity_S1) && list.contains(ANNOT_TYPE.Intensity_S2));
+	}
+
+	/**
+	 * @param columns - the columns read by the builder
+	 * @return the given columns, together with the columns needed for filtering
+	 */
+	public boolean[] getColumnProjection(boolean[] columns){
+		boolean[] cols = Arrays.copyOf(columns, Math.max(columns.length, flagCols.length));
+		for(int i=0; i < flagCols.length; i++)
+			cols[i] |= flagCols[i] || i == idCol;
+		return cols;
+	}
+
+	/**
+	 * Wraps the builder in a handler that discards reverse hits and contaminants
+	 */
+	@Override
+	public RowFilter newRowFilter(DatasetBuilder builder){
+		return new RowFilter(builder);
+	}
+
+	/**
+	 * Reads the whole table into the given dataset in a single pass,
+	 * using the automatic column annotations; a {@link ParallelTextFileParser}
+	 * reads the chunks of the table on its threads
+	 * @return number of rows that were filtered out
+	 * @throws IOException
+	 */
+	public int importInto(TextFileParser parser, Dataset ds) throws IOException{
+		DatasetBuilder builder = new DatasetBuilder(ds, annots, null);
+		parser.setColumnProjection(getColumnProjection(builder.getColumnProjection()));
+		if(parser instanceof ParallelTextFileParser)
+			builder.parse((ParallelTextFileParser) parser, this);
+		else
+			parser.stream(newRowFilter(builder));
+		builder.finish();
+
+		logger.info(builder.getNbrOfRowsAdded() + " rows imported, " + builder.getNbrOfRowsDiscarded()
+				+ " reverse or contaminant rows rejected" + System.lineSeparator());
+		return builder.getNbrOfRowsDiscarded();
+	}
+
+	private static int firstOf(List<String> cols, String[] names){
+		for(String name : names){
+			int i = cols.indexOf(name);
+			if(i >= 0)
+				return i;
+		}
+		return -1;
+	}
+
+	private static boolean startsWith(byte[] buf, int start, int end, String prefix){
+		if(end - start < prefix.length())
+			return false;
+		for(int i=0; i < prefix.length(); i++){
+			if(buf[start + i] != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Passes the rows on to a {@link DatasetBuilder}, rows flagged as reverse hit
+	 * or contaminant, or whose leading protein has the corresponding prefix, are
+	 * discarded when the row ends.
+	 */
+	public class RowFilter implements TokenHandler {
+		private final DatasetBuilder builder;
+		private boolean rejected = false;
+		private int nRejected = 0;
+
+		private RowFilter(DatasetBuilder builder){
+			this.builder = builder;
+		}
+
+		@Override
+		public void field(int col, byte[] buf, int start, int end) {
+			if(col < flagCols.length && flagCols[col])
+				rejected |= end - start == 1 && buf[start] == FLAG.charAt(0);
+			else if(col == idCol)
+				rejected |= startsWith(buf, start, end, REVERSE_PREFIX)
+						|| startsWith(buf, start, end, CONTAMINANT_PREFIX);
+			builder.field(col, buf, start, end);
+		}
+
+		@Override
+		public boolean endRow(int nfields) {
+			if(rejected){
+				nRejected++;
+				rejected = false;
+				builder.discardRow();
+				return true;
+			}
+			return builder.endRow(nfields);
+		}
+
+		public int getNbrOfRejectedRows(){
+			return nRejected;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package io;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses decimal numbers directly from byte slices, such as the fields handed
+ * out by {@link DelimitedTokenizer}, without creating strings.
+ * <p> Numbers with up to 15 significant digits and a decimal exponent within
+ * &plusmn;22 are converted exactly with a single multiplication or division,
+ * which covers the values written by spreadsheets and quantification software.
+ * Other numbers fall back on {@link Double#parseDouble(String)}, so the result
+ * is always the correctly rounded value.
+ */
+public class NumberParser {
+
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for(int i=1; i < POW10.length; i++)
+			POW10[i] = POW10[i-1] * 10;
+	}
+
+	private static final int MAX_EXACT_DIGITS = 15;
+
+	private NumberParser(){}
+
+	/**
+	 * @return {@code true} if the slice is blank or <code>NA</code>, the
+	 * notations of a missing value
+	 */
+	public static boolean isMissing(byte[] buf, int start, int end){
+		while(start < end && buf[start] == ' ')
+			start++;
+		while(end > start && buf[end-1] == ' ')
+			end--;
+		return start == end || (end - start == 2
+				&& (buf[start] | 0x20) == 'n' && (buf[start+1] | 0x20) == 'a');
+	}
+
+	/**
+	 * Parses a decimal number, surrounding spaces are ignored
+	 * @throws NumberFormatException if the slice is not a number
+	 */
+	public static double parseDouble(byte[] buf, int start, int end){
+		while(start < end && buf[start] == ' ')
+			start++;
+		while(end > start && buf[end-1] == ' ')
+			end--;
+
+		int i = start;
+		boolean negative = false;
+		if(i < end && (buf[i] == '-' || buf[i] == '+'))
+			negative = buf[i++] == '-';
+
+		long mantissa = 0;
+		int digits = 0, exp10 = 0;
+		boolean anyDigit = false, fast = true;
+
+		// integer part
+		for(; i < end && buf[i] >= '0' && buf[i] <= '9'; i++){
+			anyDigit = true;
+			if(mantissa == 0 && buf[i] == '0')
+				continue;
+			if(digits < MAX_EXACT_DIGITS){
+				mantissa = mantissa * 10 + (buf[i] - '0');
+				digits++;
+			}
+			else{
+				fast = false;
+				exp10++;
+			}
+		}
+
+		// fraction
+		if(i < end && buf[i] == '.'){
+			for(i++; i < end && buf[i] >= '0' && buf[i] <= '9'; i++){
+				anyDigit = true;
+				if(mantissa == 0 && buf[i] == '0'){
+					exp10--;
+					continue;
+				}
+				if(digits < MAX_EXACT_DIGITS){
+					mantissa = mantissa * 10 + (buf[i] - '0');
+					digits++;
+					exp10--;
+				}
+				else
+					fast = false;
+			}
+		}
+
+		if(!anyDigit)
+			return parseSlow(buf, start, end);
+
+		// exponent
+		if(i < end && (buf[i] == 'e' || buf[i] == 'E')){
+			i++;
+			boolean negExp = false;
+			if(i < end && (buf[i] == '-' || buf[i] == '+'))
+				negExp = buf[i++] == '-';
+			if(i == end)
+				throw new NumberFormatException("Malformed exponent: " + decode(buf, start, end));
+
+			int e = 0;
+			for(; i < end && buf[i] >= '0' && buf[i] <= '9'; i++){
+				if(e < 100000)
+					e = e * 10 + (buf[i] - '0');
+			}
+			exp10 += negExp ? -e : e;
+		}
+
+		if(i != end)
+			return parseSlow(buf, start, end);
+
+		double d;
+		if(mantissa == 0)
+			d = 0;
+		else if(fast && exp10 >= 0 && exp10 < POW10.length)
+			d = mantissa * POW10[exp10];
+		else if(fast && exp10 < 0 && -exp10 < POW10.length)
+			d = mantissa / POW10[-exp10];
+		else
+			return parseSlow(buf, start, end);
+
+		return negative ? -d : d;
+	}
+
+	/**
+	 * Handles the rare notations that the fast path does not cover, e.g.
+	 * <code>NaN</code>, <code>Infinity</code> and very long mantissas
+	 */
+	private static double parseSlow(byte[] buf, int start, int end){
+		return Double.parseDouble(decode(buf, start, end));
+	}
+
+	private static String decode(byte[] buf, int start, int end){
+		return new String(buf, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+}
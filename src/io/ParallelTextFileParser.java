@@ -0,0 +1,244 @@
+package io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import db.PathwayImpl;
+
+/**
+ * A {@link TextFileParser} that splits large files into byte ranges aligned
+ * on line boundaries and tokenizes the ranges on separate threads. The results
+ * of the ranges are returned in file order, and the same delimiter, quote,
+ * comment and zero rules apply as for sequential parsing.
+ * <p> Files smaller than two chunks, as well as gzip compressed files,
+ * are parsed on the calling thread.
+ */
+public class ParallelTextFileParser extends TextFileParser {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	public static final long DEFAULT_CHUNK_SIZE = 8 << 20;
+	private static final int ALIGN_WINDOW = 1 << 16;
+
+	private final int nThreads;
+	private long chunkSize = DEFAULT_CHUNK_SIZE;
+
+	public ParallelTextFileParser(File datafile, int fileType, int nThreads) {
+		super(datafile, fileType);
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	public ParallelTextFileParser(File datafile, String colSeparator, int nThreads) {
+		super(datafile, colSeparator);
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	/**
+	 * Sets the minimum size of a chunk in bytes
+	 */
+	public void setChunkSize(long chunkSize){
+		if(chunkSize < 1)
+			throw new IllegalArgumentException("Chunk size must be positive");
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Handler of the rows of a single chunk, a new one is created for each chunk
+	 */
+	public interface ChunkHandler<T> extends TokenHandler {
+		public T getResult();
+	}
+
+	public interface ChunkHandlerFactory<T> {
+		public ChunkHandler<T> newHandler(int chunk);
+	}
+
+	@Override
+	public ArrayList<String[]> parse() {
+		ArrayList<String[]> rows = new ArrayList<String[]>();
+		try{
+			List<List<String[]>> chunks = parseChunks(new ChunkHandlerFactory<List<String[]>>() {
+				@Override
+				public ChunkHandler<List<String[]>> newHandler(int chunk) {
+					return new ChunkRowCollector();
+				}
+			});
+
+			for(List<String[]> chunk : chunks)
+				rows.addAll(chunk);
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+		return rows;
+	}
+
+	/**
+	 * Tokenizes the chunks of the file concurrently
+	 * @return the result of the handler of each chunk, in file order. Chunks
+	 * following the first empty line of the file are left out.
+	 * @throws IOException
+	 */
+	public <T> List<T> parseChunks(final ChunkHandlerFactory<T> factory) throws IOException{
+		// compressed streams cannot be split, they are read in one piece
+		if(CompressionUtils.isGzipped(datafile)){
+			ChunkHandler<T> handler = factory.newHandler(0);
+			stream(handler);
+			List<T> merged = new ArrayList<T>(1);
+			merged.add(handler.getResult());
+			return merged;
+		}
+		
+		FileInputStream in = new FileInputStream(datafile);
+		ExecutorService pool = null;
+		columnHeaders = new String[0];
+		nrows = ncols = 0;
+
+		try{
+			final FileChannel fc = in.getChannel();
+			List<Long> bounds = getChunkBounds(fc);
+			int nChunks = bounds.size() - 1;
+			logger.info("Parsing " + datafile.getName() + " in " + nChunks + " chunk(s)"
+					+ System.lineSeparator());
+
+			List<Callable<ChunkResult<T>>> tasks = new ArrayList<Callable<ChunkResult<T>>>();
+			for(int i=0; i < nChunks; i++){
+				final int chunk = i;
+				final long start = bounds.get(i), end = bounds.get(i+1);
+				tasks.add(new Callable<ChunkResult<T>>() {
+					@Override
+					public ChunkResult<T> call() throws IOException {
+						ChunkHandler<T> handler = factory.newHandler(chunk);
+						DelimitedTokenizer tokenizer = newTokenizer();
+						HeaderFilter filter = new HeaderFilter(handler, chunk == 0 && hasHeaders, tokenizer);
+						long lines = tokenizer.tokenize(new RangeChannel(fc, start, end), filter);
+						return new ChunkResult<T>(handler.getResult(), lines,
+								filter.getMaxFields(), tokenizer.stoppedAtEmptyLine());
+					}
+				});
+			}
+
+			List<ChunkResult<T>> results = new ArrayList<ChunkResult<T>>();
+			if(nChunks == 1)
+				results.add(tasks.get(0).call());
+			else{
+				pool = Executors.newFixedThreadPool(Math.min(nThreads, nChunks));
+				List<Future<ChunkResult<T>>> futures = new ArrayList<Future<ChunkResult<T>>>();
+				for(Callable<ChunkResult<T>> task : tasks)
+					futures.add(pool.submit(task));
+				for(Future<ChunkResult<T>> f : futures)
+					results.add(f.get());
+			}
+
+			List<T> merged = new ArrayList<T>(nChunks);
+			for(ChunkResult<T> r : results){
+				merged.add(r.result);
+				nrows += r.lines;
+				ncols = Math.max(ncols, r.maxFields);
+				// the first empty line ends the input, as in sequential parsing
+				if(r.stoppedAtEmptyLine)
+					break;
+			}
+			ncols = Math.max(ncols, columnHeaders.length);
+			return merged;
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Parsing interrupted", e);
+		}
+		catch(ExecutionException e){
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+		catch(IOException | RuntimeException e){
+			throw e;
+		}
+		catch(Exception e){
+			throw new RuntimeException(e);
+		}
+		finally{
+			if(pool != null)
+				pool.shutdownNow();
+			in.close();
+		}
+	}
+
+	/**
+	 * Splits the file into at most {@code nThreads} ranges of at least
+	 * {@code chunkSize} bytes, each range ends right after a line terminator.
+	 */
+	List<Long> getChunkBounds(FileChannel fc) throws IOException{
+		long size = fc.size();
+		int n = (int) Math.max(1, Math.min(nThreads, size / chunkSize));
+
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		for(int i=1; i < n; i++){
+			long b = nextLineStart(fc, Math.max(size / n * i, bounds.get(bounds.size()-1)));
+			if(b >= size)
+				break;
+			if(b > bounds.get(bounds.size()-1))
+				bounds.add(b);
+		}
+		bounds.add(size);
+		return bounds;
+	}
+
+	/**
+	 * @return position of the first line starting after {@code pos},
+	 * or the size of the file
+	 */
+	private long nextLineStart(FileChannel fc, long pos) throws IOException{
+		ByteBuffer bb = ByteBuffer.allocate(ALIGN_WINDOW);
+		boolean afterCR = false;
+		while(true){
+			bb.clear();
+			int n = fc.read(bb, pos);
+			if(n < 0)
+				return pos;
+
+			for(int i=0; i < n; i++){
+				byte c = bb.get(i);
+				if(afterCR)
+					return c == '\n' ? pos + i + 1 : pos + i;
+				if(c == '\n')
+					return pos + i + 1;
+				afterCR = c == '\r';
+			}
+			pos += n;
+		}
+	}
+
+	private static class ChunkResult<T> {
+		final T result;
+		final long lines;
+		final int maxFields;
+		final boolean stoppedAtEmptyLine;
+
+		ChunkResult(T result, long lines, int maxFields, boolean stoppedAtEmptyLine){
+			this.result = result;
+			this.lines = lines;
+			this.maxFields = maxFields;
+			this.stoppedAtEmptyLine = stoppedAtEmptyLine;
+		}
+	}
+
+	private static class ChunkRowCollector extends RowCollector implements ChunkHandler<List<String[]>> {
+		@Override
+		public List<String[]> getResult() {
+			return getRows();
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads a byte range of a file channel using positional reads,
+ * so that several ranges of the same channel can be read concurrently.
+ * Closing the range does not close the underlying channel.
+ */
+class RangeChannel implements ReadableByteChannel {
+	private final FileChannel fc;
+	private final long end;
+	private long pos;
+
+	RangeChannel(FileChannel fc, long start, long end){
+		this.fc = fc;
+		this.pos = start;
+		this.end = end;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if(pos >= end)
+			return -1;
+
+		int limit = dst.limit();
+		if(dst.remaining() > end - pos)
+			dst.limit(dst.position() + (int)(end - pos));
+		int n = fc.read(dst, pos);
+		dst.limit(limit);
+		if(n > 0)
+			pos += n;
+		return n;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return fc.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {}
+}
@@ -0,0 +1,406 @@
+package io;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import db.PathwayImpl;
+import db.SProtEntry;
+import db.SProtEntry.PTMType;
+
+/**
+ * Streaming parser of the UniProt flat file format ({@code uniprot_sprot.dat}),
+ * plain or gzip compressed. The file is split into records on the {@code //}
+ * terminator by the reading thread, and batches of records are parsed into
+ * {@link SProtEntry} objects on a thread pool. Only a bounded number of batches
+ * is read ahead, so the memory used does not depend on the size of the file,
+ * and the entries are returned in file order.
+ * <p> Of the features only the phosphorylation sites ({@code MOD_RES}) are
+ * kept, and of the cross-references those to GO and Reactome.
+ */
+public class SProtParser {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	public static final int DEFAULT_BATCH_SIZE = 512;
+	public static final String GO = "GO", REACTOME = "Reactome";
+
+	private static final String TERMINATOR = "//";
+	private static final String EVIDENCE = " {";
+
+	private final File file;
+	private final int nThreads;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	public SProtParser(File file, int nThreads) {
+		this.file = file;
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Batch size must be positive");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Opens the file; the iterator has to be closed if it is not read to
+	 * the end. Failures to read the file are thrown from {@code hasNext()}
+	 * as a {@link RuntimeException} with the {@link IOException} as cause.
+	 * @throws IOException
+	 */
+	public EntryIterator open() throws IOException {
+		return new EntryIterator();
+	}
+
+	/**
+	 * Reads all entries of the file into a list
+	 * @throws IOException
+	 */
+	public List<SProtEntry> parse() throws IOException {
+		List<SProtEntry> entries = new ArrayList<SProtEntry>();
+		EntryIterator it = open();
+		try {
+			while (it.hasNext())
+				entries.add(it.next());
+		} catch (RuntimeException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw e;
+		} finally {
+			it.close();
+		}
+		return entries;
+	}
+
+	/**
+	 * Entries of the file in file order
+	 */
+	public class EntryIterator implements Iterator<SProtEntry>, Closeable {
+		private final BufferedReader in;
+		private final ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		private final ArrayDeque<Future<List<SProtEntry>>> pending = new ArrayDeque<Future<List<SProtEntry>>>();
+		private final int maxInFlight = 2 * nThreads;
+		private Iterator<SProtEntry> current = Collections.<SProtEntry>emptyList().iterator();
+		private boolean eof = false, closed = false;
+		private int nEntries = 0;
+		private final long t0 = System.currentTimeMillis();
+
+		EntryIterator() throws IOException {
+			in = new BufferedReader(new InputStreamReader(
+					Channels.newInputStream(CompressionUtils.openChannel(file)), StandardCharsets.UTF_8),
+					CompressionUtils.BUFFER_SIZE);
+		}
+
+		@Override
+		public boolean hasNext() {
+			try {
+				while (!current.hasNext()) {
+					if (closed)
+						return false;
+					fill();
+					if (pending.isEmpty()) {
+						logger.info("Parsed " + nEntries + " entries of " + file.getName() + " in "
+								+ (System.currentTimeMillis() - t0) + " ms" + System.lineSeparator());
+						close();
+						return false;
+					}
+					List<SProtEntry> batch = pending.poll().get();
+					nEntries += batch.size();
+					current = batch.iterator();
+				}
+				return true;
+			} catch (IOException e) {
+				closeQuietly();
+				throw new RuntimeException("Could not read " + file.getName(), e);
+			} catch (InterruptedException e) {
+				closeQuietly();
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Parsing interrupted", e);
+			} catch (ExecutionException e) {
+				closeQuietly();
+				throw new RuntimeException(e.getCause());
+			}
+		}
+
+		@Override
+		public SProtEntry next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return current.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Reads batches of records until enough of them are parsed ahead
+		 */
+		private void fill() throws IOException {
+			while (!eof && pending.size() < maxInFlight) {
+				final List<String> records = readBatch();
+				if (!records.isEmpty())
+					pending.add(pool.submit(new Callable<List<SProtEntry>>() {
+						@Override
+						public List<SProtEntry> call() {
+							DateFormat df = newDateFormat();
+							List<SProtEntry> entries = new ArrayList<SProtEntry>(records.size());
+							for (String r : records)
+								entries.add(parseEntry(r, df));
+							return entries;
+						}
+					}));
+			}
+		}
+
+		private List<String> readBatch() throws IOException {
+			List<String> records = new ArrayList<String>(batchSize);
+			StringBuilder sb = new StringBuilder();
+			String line;
+			while (records.size() < batchSize) {
+				line = in.readLine();
+				if (line == null) {
+					eof = true;
+					// a last record without terminator
+					if (sb.toString().trim().length() > 0)
+						records.add(sb.toString());
+					break;
+				}
+				if (line.startsWith(TERMINATOR)) {
+					records.add(sb.toString());
+					sb.setLength(0);
+				} else
+					sb.append(line).append('\n');
+			}
+			return records;
+		}
+
+		/**
+		 * @return number of entries returned so far
+		 */
+		public int getNbrOfEntries() {
+			return nEntries;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			current = Collections.<SProtEntry>emptyList().iterator();
+			pending.clear();
+			pool.shutdownNow();
+			in.close();
+		}
+
+		private void closeQuietly() {
+			try {
+				close();
+			} catch (IOException e) {
+				logger.warning("Could not close " + file.getName() + ": " + e.getMessage()
+						+ System.lineSeparator());
+			}
+		}
+	}
+
+	private static DateFormat newDateFormat() {
+		return new SimpleDateFormat("dd-MMM-yyyy", Locale.ENGLISH);
+	}
+
+	/**
+	 * Parses a single record, without the terminator
+	 */
+	public static SProtEntry parseEntry(String record) {
+		return parseEntry(record, newDateFormat());
+	}
+
+	private static SProtEntry parseEntry(String record, DateFormat df) {
+		SProtEntry entry = new SProtEntry();
+		Set<String> secondary = new HashSet<String>();
+		Set<SProtEntry.FuncAnnotation> annotations = new HashSet<SProtEntry.FuncAnnotation>();
+		entry.setSecondaryAccs(secondary);
+		entry.setPTMs(new HashSet<SProtEntry.PTMAnnotation>());
+		entry.setAnnotations(annotations);
+
+		StringBuilder organism = new StringBuilder(), seq = new StringBuilder();
+		boolean inSequence = false;
+		int modPos = -1;
+
+		int from = 0;
+		while (from < record.length()) {
+			int to = record.indexOf('\n', from);
+			if (to < 0)
+				to = record.length();
+			String line = record.substring(from, to);
+			from = to + 1;
+			if (line.length() < 2)
+				continue;
+
+			String code = line.substring(0, 2);
+			String data = line.length() > 5 ? line.substring(5) : "";
+
+			if (inSequence) {
+				if (code.equals("  ")) {
+					for (int i = 0; i < data.length(); i++) {
+						char c = data.charAt(i);
+						if (c != ' ')
+							seq.append(c);
+					}
+					continue;
+				}
+				inSequence = false;
+			}
+
+			if (code.equals("ID")) {
+				int sp = data.indexOf(' ');
+				entry.setUid(sp < 0 ? data : data.substring(0, sp));
+			} else if (code.equals("AC")) {
+				for (String acc : data.split(";")) {
+					acc = acc.trim();
+					if (acc.isEmpty())
+						continue;
+					if (entry.getAcc().isEmpty())
+						entry.setAcc(acc);
+					else
+						secondary.add(acc);
+				}
+			} else if (code.equals("DT")) {
+				// the last date is that of the last entry update
+				int comma = data.indexOf(',');
+				try {
+					entry.setLast_update(df.parse(comma < 0 ? data : data.substring(0, comma)));
+				} catch (ParseException e) {
+					logger.fine("Unexpected date in " + entry.getAcc() + ": " + data + System.lineSeparator());
+				}
+			} else if (code.equals("DE")) {
+				if (entry.getName().isEmpty()) {
+					String d = data.trim();
+					if (d.startsWith("RecName: Full=") || d.startsWith("SubName: Full="))
+						entry.setName(value(d.substring(d.indexOf('=') + 1)));
+				}
+			} else if (code.equals("GN")) {
+				if (entry.getGeneSymbols().isEmpty())
+					for (String token : data.split(";")) {
+						token = token.trim();
+						if (token.startsWith("Name=")) {
+							entry.setGeneSymbols(value(token.substring(5)));
+							break;
+						}
+					}
+			} else if (code.equals("OS")) {
+				if (organism.length() > 0)
+					organism.append(' ');
+				organism.append(data.trim());
+			} else if (code.equals("DR")) {
+				String[] f = data.split(";");
+				if (f.length >= 3) {
+					String db = f[0].trim();
+					if (db.equals(GO) || db.equals(REACTOME))
+						annotations.add(entry.new FuncAnnotation(value(f[2]), f[1].trim(), db));
+				}
+			} else if (code.equals("FT")) {
+				modPos = parseFeature(entry, data, modPos);
+			} else if (code.equals("SQ")) {
+				inSequence = true;
+			}
+		}
+
+		String os = organism.toString();
+		entry.setOrganism(os.endsWith(".") ? os.substring(0, os.length() - 1) : os);
+		entry.setSequence(seq.toString());
+		return entry;
+	}
+
+	/**
+	 * Reads the phosphorylation sites of both the current feature table
+	 * format, where the description is a {@code /note} qualifier on a
+	 * following line, and the older one with the description on the same line
+	 * @param modPos - position of a modified residue waiting for its note, or -1
+	 * @return the position of a modified residue waiting for its note, or -1
+	 */
+	private static int parseFeature(SProtEntry entry, String data, int modPos) {
+		if (!data.startsWith(" ")) {
+			String[] tokens = data.trim().split("\\s+");
+			if (!tokens[0].equals("MOD_RES") || tokens.length < 2)
+				return -1;
+			int pos = parsePosition(tokens[1]);
+			if (pos < 0)
+				return -1;
+			if (tokens.length < 4)
+				return pos;
+
+			StringBuilder desc = new StringBuilder();
+			for (int i = 3; i < tokens.length; i++)
+				desc.append(tokens[i]).append(' ');
+			addPTM(entry, desc.toString(), pos);
+			return -1;
+		}
+
+		String q = data.trim();
+		if (modPos >= 0 && q.startsWith("/note=\"")) {
+			addPTM(entry, q.substring(7), modPos);
+			return -1;
+		}
+		return modPos;
+	}
+
+	private static void addPTM(SProtEntry entry, String desc, int pos) {
+		int end = 0;
+		while (end < desc.length() && desc.charAt(end) != ';' && desc.charAt(end) != '.' && desc.charAt(end) != '"')
+			end++;
+		PTMType type = SProtEntry.getType(desc.substring(0, end).trim());
+		if (type != null)
+			entry.addPTMAnnotation(type, pos);
+	}
+
+	/**
+	 * @return the position of a single residue, or -1 if it is uncertain
+	 */
+	private static int parsePosition(String s) {
+		int dots = s.indexOf("..");
+		if (dots >= 0)
+			s = s.substring(0, dots);
+		try {
+			return Integer.parseInt(s);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the value without evidence tags and trailing punctuation
+	 */
+	private static String value(String s) {
+		int ev = s.indexOf(EVIDENCE);
+		if (ev >= 0)
+			s = s.substring(0, ev);
+		s = s.trim();
+		while (s.endsWith(";") || s.endsWith("."))
+			s = s.substring(0, s.length() - 1);
+		return s;
+	}
+}
@@ -1,9 +1,9 @@
 package io;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.logging.Logger;
 
@@ -12,8 +12,8 @@ import db.PathwayImpl;
 public class TextFileParser extends AbstractInputFileParser {
 	
 	private String columnSeparator;
-	private String[] columnHeaders;
-	private BufferedReader reader;
+	protected String[] columnHeaders;
+	private boolean[] projection;
 	
 	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
 
@@ -38,42 +38,184 @@ public class TextFileParser extends AbstractInputFileParser {
 	
 	@Override
 	public ArrayList<String[]> parse() {
-		ArrayList<String[]> lines = new ArrayList<String[]>();
+		RowCollector rows = new RowCollector();
 		try{
-			reader = new BufferedReader(new FileReader(datafile));
-			String line;
-			String[] tokens;
-			if(hasHeaders){
-				columnHeaders = reader.readLine().split(columnSeparator);
-				nrows++;
-			}else
-				columnHeaders = new String[0];
-			
-			while((line=reader.readLine()) != null && !line.equals("")){
-				nrows++;
-				if(ignoreQuotes)
-					line = line.replaceAll(quotationMarksPattern, "");
-				
-				if(!line.matches(commentedRowPattern)){
-					tokens = line.split(columnSeparator,-1);
-				
-					if(zerosAsMissingVals){
-						for(int i=0; i < tokens.length; i++)
-							tokens[i] = (tokens[i].equals("0")) ? "" : tokens[i];
-					}
-					
-					lines.add(tokens);
-				}
+			stream(rows);
+		}
+		catch(IOException e){
+			e.printStackTrace();
+		}
+		return rows.getRows();
+	}
+	
+	/**
+	 * Parses the header and the first rows of the file only, e.g. for previews
+	 * @param maxRows - maximum number of data rows to parse
+	 */
+	public ArrayList<String[]> parseSample(final int maxRows) {
+		RowCollector rows = new RowCollector(){
+			@Override
+			public boolean endRow(int nfields) {
+				super.endRow(nfields);
+				return getRows().size() < maxRows;
 			}
+		};
+		try{
+			stream(rows);
 		}
 		catch(IOException e){
 			e.printStackTrace();
 		}
-		return lines;
+		return rows.getRows();
+	}
+	
+	/**
+	 * @return an index of the data rows of this file, to be built by the caller
+	 */
+	public LineOffsetIndex createLineIndex(){
+		return new LineOffsetIndex(datafile, hasHeaders);
+	}
+	
+	/**
+	 * Parses a range of data rows, all columns are read regardless of the projection
+	 * @param index - index of the file, must cover row {@code to-1}
+	 * @param from - first row, inclusive
+	 * @param to - last row, exclusive
+	 * @throws IOException
+	 */
+	public ArrayList<String[]> parseRows(LineOffsetIndex index, int from, int to) throws IOException{
+		RowCollector rows = new RowCollector();
+		if(from >= to)
+			return rows.getRows();
+		
+		DelimitedTokenizer tokenizer = newTokenizer();
+		ReadableByteChannel ch = index.openRange(index.getOffset(from), index.getEndOffset(to - 1));
+		try{
+			tokenizer.tokenize(ch, rows);
+		}
+		finally{
+			ch.close();
+		}
+		return rows.getRows();
+	}
+	
+	/**
+	 * Tokenizes the file in a single pass, passing the fields of each data row
+	 * to the given handler as they are read. Gzip compressed files are 
+	 * decompressed on the fly. The header row, if any, is consumed
+	 * here and made available through {@link #getColumnHeaders()}.
+	 * @throws IOException
+	 */
+	public void stream(TokenHandler handler) throws IOException{
+		DelimitedTokenizer tokenizer = newTokenizer();
+		HeaderFilter filter = new HeaderFilter(handler, hasHeaders, tokenizer);
+		columnHeaders = new String[0];
+
+		ReadableByteChannel ch = CompressionUtils.openChannel(datafile);
+		try{
+			nrows = (int) tokenizer.tokenize(ch, filter);
+		}
+		finally{
+			ch.close();
+		}
+		ncols = Math.max(columnHeaders.length, filter.getMaxFields());
+	}
+	
+	/**
+	 * Restricts the fields passed on by {@link #stream(TokenHandler)} to the 
+	 * given columns; the header row is always read in full. Skipped fields 
+	 * are not decoded at all, which makes reading a few annotated columns 
+	 * of a wide file considerably cheaper.
+	 * @param columns - flags of the columns to read, {@code null} to read all
+	 */
+	public void setColumnProjection(boolean[] columns){
+		this.projection = columns;
+	}
+	
+	protected DelimitedTokenizer newTokenizer(){
+		return new DelimitedTokenizer(
+				DelimitedTokenizer.toDelimiter(columnSeparator), ignoreQuotes, zerosAsMissingVals);
 	}
 	
 	public String[] getColumnHeaders(){
 		return columnHeaders;
 	}
+	
+	/**
+	 * Consumes the header row, if expected, and passes all other rows on.
+	 * The column projection is set on the tokenizer once the header is read.
+	 */
+	protected class HeaderFilter implements TokenHandler {
+		private final TokenHandler handler;
+		private final DelimitedTokenizer tokenizer;
+		private final ArrayList<String> headers = new ArrayList<String>();
+		private boolean inHeader;
+		private int maxFields = 0;
+		
+		protected HeaderFilter(TokenHandler handler, boolean expectHeader, DelimitedTokenizer tokenizer){
+			this.handler = handler;
+			this.tokenizer = tokenizer;
+			this.inHeader = expectHeader;
+			if(!expectHeader)
+				tokenizer.setProjection(projection);
+		}
+
+		@Override
+		public void field(int col, byte[] buf, int start, int end) {
+			if(inHeader)
+				headers.add(new String(buf, start, end - start, Charset.defaultCharset()));
+			else
+				handler.field(col, buf, start, end);
+		}
 
+		@Override
+		public boolean endRow(int nfields) {
+			if(inHeader){
+				// trailing empty headers are dropped, as String.split does
+				int n = headers.size();
+				while(n > 0 && headers.get(n-1).isEmpty())
+					n--;
+				columnHeaders = headers.subList(0, n).toArray(new String[n]);
+				inHeader = false;
+				tokenizer.setProjection(projection);
+				return true;
+			}
+			maxFields = Math.max(maxFields, nfields);
+			return handler.endRow(nfields);
+		}
+		
+		public int getMaxFields(){
+			return maxFields;
+		}
+	}
+	
+	/**
+	 * Decodes every row into a {@code String[]}, columns that are 
+	 * not part of the projection are left {@code null}
+	 */
+	protected static class RowCollector implements TokenHandler {
+		private final ArrayList<String[]> rows = new ArrayList<String[]>();
+		private final ArrayList<String> tokens = new ArrayList<String>();
+		private final Charset cs = Charset.defaultCharset();
+
+		@Override
+		public void field(int col, byte[] buf, int start, int end) {
+			while(tokens.size() < col)
+				tokens.add(null);
+			tokens.add(new String(buf, start, end - start, cs));
+		}
+
+		@Override
+		public boolean endRow(int nfields) {
+			while(tokens.size() < nfields)
+				tokens.add(null);
+			rows.add(tokens.toArray(new String[nfields]));
+			tokens.clear();
+			return true;
+		}
+		
+		public ArrayList<String[]> getRows(){
+			return rows;
+		}
+	}
 }
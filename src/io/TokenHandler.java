@@ -0,0 +1,27 @@
+package io;
+
+/**
+ * Receives the fields of a delimited text file from a {@link DelimitedTokenizer}.
+ * Fields are handed over as slices of the tokenizer's internal buffer, which
+ * are only valid for the duration of the call; implementations that need to
+ * keep a field have to copy or decode it.
+ */
+public interface TokenHandler {
+
+	/**
+	 * Called once for every field of a row, in column order
+	 * @param col - zero based column index
+	 * @param buf - buffer holding the field
+	 * @param start - index of the first byte of the field
+	 * @param end - index after the last byte of the field, equal to
+	 * {@code start} for empty fields
+	 */
+	public void field(int col, byte[] buf, int start, int end);
+
+	/**
+	 * Called after the last field of a row
+	 * @param nfields - number of fields in the row
+	 * @return {@code false} to stop tokenizing
+	 */
+	public boolean endRow(int nfields);
+}
@@ -4,29 +4,180 @@ import java.util.logging.Logger;
 
 import db.PathwayImpl;
 
+/**
+ * Validation and compact encoding of UniProt accessions.
+ * <p> An accession matches
+ * <code>[OPQ][0-9][A-Z0-9]{3}[0-9]|[A-NR-Z][0-9]([A-Z][A-Z0-9]{2}[0-9]){1,2}</code>,
+ * optionally followed by an isoform number, e.g. P04637-2. Accessions are
+ * encoded in a {@code long} as the base 36 value of the accession in the lower
+ * 52 bits and the isoform number plus one in the 11 bits above, so that the
+ * codes can be used as keys of primitive maps and sorted arrays. Codes of accessions of the same length
+ * sort in the same order as the accessions.
+ */
 public class Accession {
 
-	private static final String iso = "-[0-9]+";
 	private static final Accession INSTANCE = new Accession();
-	private static final String
-		pattern = "[OPQ][0-9][A-Z0-9]{3}[0-9]|[A-NR-Z][0-9]([A-Z][A-Z0-9]{2}[0-9]){1,2}";
-	
+
 	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
 
-	public static Accession getInstance() { 
+	/**
+	 * Code of strings that are not UniProt accessions
+	 */
+	public static final long INVALID = -1L;
+
+	/**
+	 * Largest isoform number that can be encoded
+	 */
+	public static final int MAX_ISOFORM = (1 << 11) - 2;
+
+	private static final int ISO_SHIFT = 52;
+	private static final long BASE_MASK = (1L << ISO_SHIFT) - 1;
+	private static final long SHORT_LIMIT = 36L * 36 * 36 * 36 * 36 * 36;
+	private static final String DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+	/*
+	 * The alternatives of the accession pattern that a character is
+	 * allowed in at each position; the 6 character accessions starting
+	 * with O, P or Q, and the 6 or 10 character accessions starting
+	 * with other letters, of which the first 6 characters are alike.
+	 */
+	private static final int OPQ = 1, OTHER = 2;
+	private static final byte[][] ALLOWED = new byte[10][128];
+	private static final byte[] VALUE = new byte[128];
+	static {
+		for(int i=0; i < DIGITS.length(); i++)
+			VALUE[DIGITS.charAt(i)] = (byte) i;
+
+		allow(0, "OPQ", OPQ);
+		allow(0, "ABCDEFGHIJKLMNRSTUVWXYZ", OTHER);
+		allow(1, "0123456789", OPQ | OTHER);
+		allow(2, DIGITS, OPQ);
+		allow(2, DIGITS.substring(10), OTHER);
+		allow(3, DIGITS, OPQ | OTHER);
+		allow(4, DIGITS, OPQ | OTHER);
+		allow(5, "0123456789", OPQ | OTHER);
+		allow(6, DIGITS.substring(10), OTHER);
+		allow(7, DIGITS, OTHER);
+		allow(8, DIGITS, OTHER);
+		allow(9, "0123456789", OTHER);
+	}
+
+	private static void allow(int pos, String chars, int alternatives){
+		for(int i=0; i < chars.length(); i++)
+			ALLOWED[pos][chars.charAt(i)] |= alternatives;
+	}
+
+	public static Accession getInstance() {
 		return INSTANCE;
 	}
-	
+
+	/**
+	 * @return {@code true} if the string is a UniProt accession,
+	 * with or without an isoform number
+	 */
 	public static boolean isValid(String str) {
-		int dash = str.indexOf("-");
+		int dash = str.indexOf('-');
 		if (dash < 0)
-			return str.matches(pattern);
+			return encodeBase(str, str.length()) != INVALID;
 		else
-			return str.substring(0, dash).matches(pattern) && 
-					str.substring(dash, str.length()).matches(iso);
+			return encodeBase(str, dash) != INVALID &&
+					parseIsoform(str, dash + 1, Integer.MAX_VALUE) >= 0;
 	}
-	
+
 	public static boolean isIsoform(String acc){
-		return acc.contains("-") && isValid(acc); 
-	}	
+		return acc.indexOf('-') > 0 && isValid(acc);
+	}
+
+	/**
+	 * @return the code of the accession, {@link #INVALID} if the string is
+	 * not an accession or its isoform number exceeds {@link #MAX_ISOFORM}
+	 */
+	public static long encode(CharSequence acc){
+		int dash = -1;
+		for(int i=0; i < acc.length() && dash < 0; i++){
+			if(acc.charAt(i) == '-')
+				dash = i;
+		}
+
+		long base = encodeBase(acc, dash < 0 ? acc.length() : dash);
+		if(base == INVALID || dash < 0)
+			return base;
+
+		int isoform = parseIsoform(acc, dash + 1, MAX_ISOFORM);
+		return isoform < 0 ? INVALID : base | ((isoform + 1L) << ISO_SHIFT);
+	}
+
+	/**
+	 * @return the accession of the given code
+	 * @throws IllegalArgumentException if the code is {@link #INVALID}
+	 */
+	public static String decode(long code){
+		if(code < 0)
+			throw new IllegalArgumentException("Invalid accession code: " + code);
+
+		long base = code & BASE_MASK;
+		int len = base < SHORT_LIMIT ? 6 : 10;
+		char[] chars = new char[len];
+		for(int i=len-1; i >= 0; i--){
+			chars[i] = DIGITS.charAt((int) (base % 36));
+			base /= 36;
+		}
+
+		int isoform = getIsoform(code);
+		return isoform < 0 ? new String(chars) : new String(chars) + "-" + isoform;
+	}
+
+	/**
+	 * @return the isoform number of the code, -1 for a canonical accession
+	 */
+	public static int getIsoform(long code){
+		return (int) (code >>> ISO_SHIFT) - 1;
+	}
+
+	/**
+	 * @return the code of the canonical accession, i.e. without the isoform number
+	 */
+	public static long getCanonical(long code){
+		return code < 0 ? INVALID : code & BASE_MASK;
+	}
+
+	/**
+	 * Validates and encodes the first {@code len} characters of the string;
+	 * the positions are checked against all alternatives of the pattern at
+	 * once, without branching on the characters.
+	 * @return the base 36 value, {@link #INVALID} if the characters do not
+	 * make up an accession
+	 */
+	private static long encodeBase(CharSequence s, int len){
+		if(len != 6 && len != 10)
+			return INVALID;
+
+		int match = OPQ | OTHER;
+		long value = 0;
+		for(int i=0; i < len; i++){
+			int c = s.charAt(i);
+			int ascii = (c - 128) >> 31;
+			match &= ALLOWED[i][c & 0x7f] & ascii;
+			value = value * 36 + VALUE[c & 0x7f];
+		}
+		return match != 0 ? value : INVALID;
+	}
+
+	/**
+	 * @return the isoform number of the digits from {@code start} to the end,
+	 * -1 if there are no digits, other characters or the number exceeds {@code max}
+	 */
+	private static int parseIsoform(CharSequence s, int start, int max){
+		if(start == s.length())
+			return -1;
+
+		long n = 0;
+		for(int i=start; i < s.length(); i++){
+			int c = s.charAt(i);
+			if(c < '0' || c > '9')
+				return -1;
+			n = Math.min(n * 10 + (c - '0'), (long) max + 1);
+		}
+		return n > max ? -1 : (int) n;
+	}
 }
@@ -193,12 +193,13 @@ public class AnalysisAction implements Runnable{
 			for(ProteinImpl p : allProts){
 				
 				// Avoid iterating the dataset, if an accession is not contained within the Dataset
-				if (!data.getProteinsIds().contains(p.getAcc()))
+				int symbol = data.getProteinSymbol(p.getAcc());
+				if (symbol < 0)
 					continue;
 				
 				boolean hit = false;
 				for(Data d : data.getDataRows()){
-					if(d.getProteins().contains(p.getAcc())){
+					if(d.containsProtein(symbol)){
 						if(hit)
 							logger.warning("Multiple hits for accession: " + p.getAcc());
 						
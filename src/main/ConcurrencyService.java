@@ -226,8 +226,14 @@ public class ConcurrencyService {
 					throw new RuntimeException("Dataset is mock");
 				
 				try {
-					int i = 0;
+					int i = 0, rejected = 0;
 					outer: for(String prot : ds.getProteinsIds()){
+						// accessions without any pathway associations cannot match
+						if(!dbMan.mayHavePathways(prot)){
+							rejected++;
+							continue;
+						}
+						
 						inner: for(PathwayImpl path : dbMan.getAllPathsWithProtein(prot)){
 							if(i++ > debugLimiter)
 								break outer;
@@ -236,7 +242,8 @@ public class ConcurrencyService {
 						}
 					}
 					
-					logger.info("Total number of queried paths: " + i);
+					logger.info("Total number of queried paths: " + i + ", "
+							+ rejected + " accessions rejected without querying");
 					
 				} catch (SQLException e) {
 					logger.severe("Unexpected database error: "
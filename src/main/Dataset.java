@@ -1,16 +1,20 @@
 package main;
 
-import gui.FeverMainFrame;
-
 import java.io.Serializable;
 import java.text.DecimalFormat;
+import java.util.AbstractList;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -21,6 +25,7 @@ import org.apache.commons.math3.random.RandomDataGenerator;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.stat.inference.TestUtils;
 
+import db.AccessionIndex;
 import db.PathwayImpl;
 
 public class Dataset implements Serializable{
@@ -52,14 +57,28 @@ public class Dataset implements Serializable{
 	private LinkedList<Data> sortedRows;
 	private List<Data> rows;
 	private HashSet<Data> roi;
-	private HashSet<String> uniprot_ids;
-	private HashSet<String> peptide_seqs;
+	private final BitSet uniprot_ids;
+	private final BitSet peptide_seqs;
 	private double[] ratios;
 	private List<Dataset> mock_data;
 	private volatile boolean finalized;
 	private EmpiricalDistribution edi;
 	private int row_counter;
 	
+	/**
+	 * Optional index used to resolve isoform and secondary accessions to 
+	 * the primary accessions of the database, {@code null} if not used.
+	 * The index belongs to the database and is not serialized, see 
+	 * {@link #setAccessionIndex(AccessionIndex)}.
+	 */
+	private transient AccessionIndex accIndex;
+	
+	/**
+	 * Accessions and peptide sequences of the rows, shared with the mock 
+	 * datasets; the rows and the id sets above hold the symbol IDs
+	 */
+	private final SymbolTable symbols;
+	
 	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
 
 	
@@ -69,15 +88,37 @@ public class Dataset implements Serializable{
 	 * later on, hence the created {@code Dataset} is not finalized.
 	 */
 	public Dataset(){
-		this(false, false, new LinkedList<Data>(), new HashSet<String>(), new HashSet<String>());
+		this(null);
+	}
+	
+	/**
+	 * Creates a empty, non-mock {@code Dataset} whose protein accessions are 
+	 * normalized using the given index while the rows are added.
+	 * @param accIndex - accession index of the database to be used in the analysis
+	 */
+	public Dataset(AccessionIndex accIndex){
+		this(false, false, new LinkedList<Data>(), new SymbolTable(), new BitSet(), new BitSet(), accIndex);
 	}
 	
 	protected Dataset(boolean isMock, boolean isFinal, 
 						List<Data> rows, 
-						HashSet<String> uniprot_ids, 
-						HashSet<String> peptide_seqs) 
+						SymbolTable symbols,
+						BitSet uniprot_ids, 
+						BitSet peptide_seqs) 
+	{
+		this(isMock, isFinal, rows, symbols, uniprot_ids, peptide_seqs, null);
+	}
+	
+	private Dataset(boolean isMock, boolean isFinal, 
+						List<Data> rows, 
+						SymbolTable symbols,
+						BitSet uniprot_ids, 
+						BitSet peptide_seqs,
+						AccessionIndex accIndex) 
 	{
 		super();
+		this.accIndex = accIndex;
+		this.symbols = symbols;
 		this.isMock = isMock;
 		this.finalized = isFinal;
 		this.rows = rows;
@@ -92,8 +133,16 @@ public class Dataset implements Serializable{
 	public boolean addRow(Data d){
 		this.rows.add(d);
 		this.ratio_stats.addValue(d.getRatio());
-		this.uniprot_ids.addAll(d.getProteins());
-		this.peptide_seqs.addAll(d.getPeptides());
+		if(d.getOuterType() == this){
+			setAll(uniprot_ids, d.prot_ids);
+			setAll(peptide_seqs, d.peptides);
+		}
+		else{
+			for(String acc : d.getProteins())
+				uniprot_ids.set(symbols.intern(acc));
+			for(String pep : d.getPeptides())
+				peptide_seqs.set(symbols.intern(pep));
+		}
 		return true;
 	}
 	
@@ -126,12 +175,10 @@ public class Dataset implements Serializable{
 		for(int i=0;i<annots.length;i++){
 			switch(annots[i]){
 			case ProteinID: 
-				prot = Arrays.asList(line[i].split(sepCh));
-				uniprot_ids.addAll(prot); 
+				prot = normalizeAccessions(Arrays.asList(line[i].split(sepCh)));
 				break;
 			case PeptideSeq:
 				pep = Arrays.asList(line[i].split(sepCh));
-				peptide_seqs.addAll(pep); 
 				break;
 			case Intensity_S1:
 				s1.addValue(valueToIntensity(line[i]));
@@ -163,57 +210,117 @@ public class Dataset implements Serializable{
 		if(s1.getN() > 1 && s2.getN() > 1)
 			pval = TestUtils.tTest(s1, s2);
 		
+		return addRow(prot, pep, ratio, pval);
+	}
+	
+	/**
+	 * Adds a row whose values are already parsed, as done by {@link DatasetBuilder}
+	 * @param prots - normalized protein accessions of the row
+	 * @param peps - peptide sequences of the row, {@code null} if the 
+	 * dataset has no peptide column
+	 */
+	public boolean addRow(List<String> prots, List<String> peps, double ratio, double pval){
+		if(finalized)
+			throw new UnsupportedOperationException("Cannot add rows to a finalized dataset");
+		if(isMock)
+			throw new UnsupportedOperationException("Cannot add rows to a mock dataset");
+		
+		if(prots == null)
+			throw new IllegalArgumentException("UniProt accesion(s) cannot be null!");
+		
+		int[] protIds = intern(prots);
+		int[] pepIds = (peps != null) ? intern(peps) : NO_SYMBOLS;
+		setAll(uniprot_ids, protIds);
+		setAll(peptide_seqs, pepIds);
 		this.ratio_stats.addValue(ratio);
-		if(Arrays.asList(annots).contains(ANNOT_TYPE.PeptideSeq))
-			return rows.add(new Data(row_counter++, prot,pep,ratio,pval));
-		else
-			return rows.add(new Data(row_counter++, prot,ratio,pval));
+		return rows.add(new Data(row_counter++, protIds, pepIds, ratio, pval));
+	}
+	
+	private int[] intern(List<String> strs){
+		int[] ids = new int[strs.size()];
+		for(int i=0; i < ids.length; i++)
+			ids[i] = symbols.intern(strs.get(i));
+		return ids;
+	}
+	
+	private static void setAll(BitSet set, int[] ids){
+		for(int id : ids)
+			set.set(id);
 	}
 	
+	/**
+	 * Sets the index that normalizes the accessions of the rows added from now 
+	 * on, e.g. to re-attach the index of the database to a deserialized dataset
+	 * @param accIndex - accession index of the database, {@code null} to add 
+	 * the accessions as they are
+	 */
+	public void setAccessionIndex(AccessionIndex accIndex){
+		this.accIndex = accIndex;
+	}
+	
+	/**
+	 * Resolves the given accessions to primary accessions if an 
+	 * {@code AccessionIndex} is set, duplicates that arise are removed.
+	 */
+	List<String> normalizeAccessions(List<String> accs){
+		if(accIndex == null)
+			return accs;
+		
+		LinkedHashSet<String> normalized = new LinkedHashSet<String>(accs.size());
+		for(String acc : accs)
+			normalized.add(accIndex.normalize(acc));
+		
+		return new ArrayList<String>(normalized);
+	}
+	
+	/**
+	 * Converts a single value to the linear scale
+	 * @return {@link #missingVal} for blank and <code>NA</code> values
+	 * @throws NumberFormatException if the value is not a number, or 
+	 * overflows once converted to the linear scale
+	 */
 	public double valueToIntensity(String val){
-		if(val.equalsIgnoreCase("") || val.equalsIgnoreCase("NA"))
+		String v = val.trim();
+		if(v.isEmpty() || v.equalsIgnoreCase("NA"))
 			return missingVal;
 		
-		
-		try{
-			double d = Double.parseDouble(val);
-			switch(valType){
-				case RAW: break;
-				case LOG2: 	d = StrictMath.pow(2,d); break;
-				case LOGN: 	d = StrictMath.pow(StrictMath.E, d); break;
-				case LOG10: d = StrictMath.pow(10,d); break;
-				default: throw new RuntimeException("Unrecognized value type");
-			}
+		double d = Double.parseDouble(v);
+		double[] tmp = {d};
+		toLinear(tmp, 1, valType);
+		if(Double.isInfinite(tmp[0])){
+			StringBuilder msg = new StringBuilder("Double precision overflow occurred: 'd' is infinite!!");
+			msg.append(System.lineSeparator())
+				.append("chosen value scale is ").append(valType)
+				.append(System.lineSeparator())
+				.append("value = ").append(val);
 			
-			if(Double.isInfinite(d)){
-				StringBuilder msg = new StringBuilder("Double precision overflow occurred: 'd' is infinite!!");
-				msg.append(System.lineSeparator())
-					.append("chosen value scale is ").append(valType)
-					.append(System.lineSeparator())
-					.append("value = ").append(val);
-				
-				logger.severe(msg.toString()  + System.lineSeparator());
-				
-				System.err.println("Data parsing error!!" +
-						"Please make sure that you have selected the correct scale...");
-				System.exit(FeverMainFrame.exitCodes.get(this.getClass()));			
-			}
-			else
-				return d;
-				
-		} catch (NumberFormatException e){
-			System.err.println("Data parsing error!!");					
-			logger.severe("Expected: string representation of a numerical value, "
-							+ "Found: " + val  + System.lineSeparator());
-			System.err.println("Please make sure the datafile does not include any strings "
-									+ "like 'N/A' or '-' for denoting missing values.");
+			logger.severe(msg.toString()  + System.lineSeparator());
+			throw new NumberFormatException("Value " + val + " overflows on the " + valType + " scale");
+		}
+		return tmp[0];
+	}
 	
-			
-			System.exit(FeverMainFrame.exitCodes.get(this.getClass()));			
+	/**
+	 * Converts the first {@code n} values from the given scale to the linear 
+	 * scale in place, the log-scales are converted as {@code exp(d * ln(base))}.
+	 * Missing values remain missing, values that overflow become infinite.
+	 */
+	public static void toLinear(double[] vals, int n, AnalysisParams.RVAL_TYPE scale){
+		double lnBase;
+		switch(scale){
+			case RAW: 	return;
+			case LOG2: 	lnBase = LN_2; break;
+			case LOGN: 	lnBase = 1; break;
+			case LOG10: lnBase = LN_10; break;
+			default: throw new RuntimeException("Unrecognized value type");
 		}
 		
-		// TODO: This should never happen!
-		throw new RuntimeException("Assertion failed during dataset parsing...");
+		for(int i=0; i < n; i++)
+			vals[i] = Math.exp(vals[i] * lnBase);
+	}
+	
+	public AnalysisParams.RVAL_TYPE getValueType(){
+		return valType;
 	}
 	
 	
@@ -254,7 +361,7 @@ public class Dataset implements Serializable{
 					d = this.rows.get(i);
 					dlist.add(new Data(d.getUid(), d.prot_ids, d.peptides, ratio, pval));
 				}
-				mock_data.add(new Dataset(true, true, dlist, uniprot_ids, peptide_seqs));				
+				mock_data.add(new Dataset(true, true, dlist, symbols, uniprot_ids, peptide_seqs));				
 			}
 			logger.info(N_REPL + " mock values generated using Empirical Distribution method" + 
 					System.lineSeparator());
@@ -276,7 +383,7 @@ public class Dataset implements Serializable{
 					d = this.rows.get(i);
 					dlist.add(new Data(d.getUid(), d.prot_ids, d.peptides, ratio, pval));
 				}
-				mock_data.add(new Dataset(true, true, dlist, uniprot_ids, peptide_seqs));
+				mock_data.add(new Dataset(true, true, dlist, symbols, uniprot_ids, peptide_seqs));
 			}
 			logger.info(N_REPL + " mock values generated using Permutation method "  + 
 					System.lineSeparator());
@@ -451,23 +558,36 @@ public class Dataset implements Serializable{
 	}
 	
 	public Data getProteinData(String acc){
-		if(!this.uniprot_ids.contains(acc))
+		int id = getProteinSymbol(acc);
+		if(id < 0)
 			return null;
 		
 		for(Data d : this.rows){
-			if(d.getProteins().contains(acc))
+			if(d.containsProtein(id))
 				return d;
 		}
 		
 		return null;
 	}
 	
+	/**
+	 * @return symbol ID of the accession, -1 if no row contains it
+	 */
+	public int getProteinSymbol(String acc){
+		int id = symbols.find(acc);
+		return (id >= 0 && uniprot_ids.get(id)) ? id : -1;
+	}
+	
+	public SymbolTable getSymbols(){
+		return symbols;
+	}
+	
 	public Set<String> getProteinsIds(){
-		return Collections.unmodifiableSet(this.uniprot_ids);
+		return new SymbolSet(this.uniprot_ids);
 	}
 	
 	public Set<String> getPeptideSeqs(){
-		return Collections.unmodifiableSet(this.peptide_seqs);
+		return new SymbolSet(this.peptide_seqs);
 	}
 	
 	@Override
@@ -482,9 +602,9 @@ public class Dataset implements Serializable{
 		builder.append(rows.size());
 
 		builder.append("\n- nbrOfProteins=");
-		builder.append(uniprot_ids.size());
+		builder.append(uniprot_ids.cardinality());
 		builder.append("\n- nbrOfPeptides=");
-		builder.append(peptide_seqs.size());
+		builder.append(peptide_seqs.cardinality());
 		builder.append("\n- roi=");
 		builder.append(getROI().size());
 		builder.append(" (");
@@ -503,29 +623,27 @@ public class Dataset implements Serializable{
 	 * @author Ufuk Kirik
 	 *
 	 */
-	public class Data{
+	public class Data implements Serializable{
+		
+		private static final long serialVersionUID = 1L;
 		
 		final private int uid;
-		final private List<String> prot_ids;
-		final private List<String> peptides;
+		final private int[] prot_ids;
+		final private int[] peptides;
 		final private double ratio,pval;
 		
 		public Data(int id, List<String> prots, double ratio, double pval) {
-			if(prots == null)
-				throw new IllegalArgumentException("UniProt accesion(s) cannot be null!");
-			if(ratio < 0)
-				throw new IllegalArgumentException("Ratio cannot be less than zero!");
-			if(pval < 0 || pval > 1)
-				throw new IllegalArgumentException("P-value cannot be outside range (0,1)!");
-			
-			this.uid = id;
-			this.prot_ids = prots;
-			this.peptides = new ArrayList<String>();
-			this.ratio = ratio;
-			this.pval = pval;
+			this(id, prots, new ArrayList<String>(), ratio, pval);
 		}
 		
 		public Data(int id, List<String> prots, List<String> peps, double ratio, double pval) {
+			this(id, 
+				(prots != null) ? intern(prots) : null, 
+				(peps != null) ? intern(peps) : null, 
+				ratio, pval);
+		}
+		
+		private Data(int id, int[] prots, int[] peps, double ratio, double pval) {
 			if(prots == null)
 				throw new IllegalArgumentException("UniProt accesion(s) cannot be null!");
 			if(peps == null)
@@ -540,15 +658,26 @@ public class Dataset implements Serializable{
 			this.peptides = peps;
 			this.ratio = ratio;
 			this.pval = pval;
-		}		
+		}
+		
 		public int getUid() {
 			return uid;
 		}
 		public List<String> getProteins() {
-			return Collections.unmodifiableList(prot_ids);
+			return new SymbolList(prot_ids);
 		}
 		public List<String> getPeptides() {
-			return peptides;
+			return new SymbolList(peptides);
+		}
+		/**
+		 * @param symbol - symbol ID of an accession, see {@link Dataset#getProteinSymbol(String)}
+		 */
+		public boolean containsProtein(int symbol) {
+			for(int id : prot_ids){
+				if(id == symbol)
+					return true;
+			}
+			return false;
 		}
 		public double getRatio() {
 			return ratio;
@@ -561,8 +690,8 @@ public class Dataset implements Serializable{
 			final int prime = 31;
 			int result = 1;
 			result = prime * result + getOuterType().hashCode();
-			result = prime * result + ((peptides == null) ? 0 : peptides.hashCode());
-			result = prime * result + ((prot_ids == null) ? 0 : prot_ids.hashCode());
+			result = prime * result + Arrays.hashCode(peptides);
+			result = prime * result + Arrays.hashCode(prot_ids);
 			long temp;
 			temp = Double.doubleToLongBits(pval);
 			result = prime * result + (int) (temp ^ (temp >>> 32));
@@ -581,15 +710,9 @@ public class Dataset implements Serializable{
 			Data other = (Data) obj;
 			if (!getOuterType().equals(other.getOuterType()))
 				return false;
-			if (peptides == null) {
-				if (other.peptides != null)
-					return false;
-			} else if (!peptides.equals(other.peptides))
+			if (!Arrays.equals(peptides, other.peptides))
 				return false;
-			if (prot_ids == null) {
-				if (other.prot_ids != null)
-					return false;
-			} else if (!prot_ids.equals(other.prot_ids))
+			if (!Arrays.equals(prot_ids, other.prot_ids))
 				return false;
 			if (Double.doubleToLongBits(pval) != Double
 					.doubleToLongBits(other.pval))
@@ -604,12 +727,101 @@ public class Dataset implements Serializable{
 		}
 		@Override
 		public String toString() {
-			return "Data [prot=" + prot_ids + ", pep=" + peptides + ", ratio=" + ratio
+			return "Data [prot=" + getProteins() + ", pep=" + getPeptides() + ", ratio=" + ratio
 					+ ", pval=" + pval + "]";
 		}
 	}
 	
 	
+	/**
+	 * Read-only view of symbol IDs as strings, {@code contains} 
+	 * and {@code indexOf} look the string up in the symbol table
+	 */
+	private class SymbolList extends AbstractList<String> {
+		private final int[] ids;
+		
+		SymbolList(int[] ids){
+			this.ids = ids;
+		}
+		
+		@Override
+		public String get(int index) {
+			return symbols.get(ids[index]);
+		}
+		
+		@Override
+		public int size() {
+			return ids.length;
+		}
+		
+		@Override
+		public int indexOf(Object o) {
+			if(!(o instanceof String))
+				return -1;
+			int id = symbols.find((String) o);
+			for(int i=0; id >= 0 && i < ids.length; i++){
+				if(ids[i] == id)
+					return i;
+			}
+			return -1;
+		}
+		
+		@Override
+		public boolean contains(Object o) {
+			return indexOf(o) >= 0;
+		}
+	}
+	
+	/**
+	 * Read-only view of a set of symbol IDs as strings
+	 */
+	private class SymbolSet extends AbstractSet<String> {
+		private final BitSet ids;
+		
+		SymbolSet(BitSet ids){
+			this.ids = ids;
+		}
+		
+		@Override
+		public boolean contains(Object o) {
+			if(!(o instanceof String))
+				return false;
+			int id = symbols.find((String) o);
+			return id >= 0 && ids.get(id);
+		}
+		
+		@Override
+		public int size() {
+			return ids.cardinality();
+		}
+		
+		@Override
+		public Iterator<String> iterator() {
+			return new Iterator<String>() {
+				int next = ids.nextSetBit(0);
+				
+				@Override
+				public boolean hasNext() {
+					return next >= 0;
+				}
+				
+				@Override
+				public String next() {
+					if(next < 0)
+						throw new NoSuchElementException();
+					String str = symbols.get(next);
+					next = ids.nextSetBit(next + 1);
+					return str;
+				}
+				
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+	
 	public class DataFoldChangeComparator<E> implements Comparator<Data> {
 
 		@Override
@@ -628,6 +840,8 @@ public class Dataset implements Serializable{
 	}
 	
 	public static final double missingVal = Double.NaN;
+	private static final int[] NO_SYMBOLS = new int[0];
+	private static final double LN_2 = Math.log(2), LN_10 = Math.log(10);
 	
 	public static enum ANNOT_TYPE 
 		{Ignore, ProteinID, PeptideSeq, Intensity_S1, Intensity_S2, Ratio, Fold_Ch, Pval}
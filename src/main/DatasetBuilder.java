@@ -0,0 +1,529 @@
+package main;
+
+import io.CompressionUtils;
+import io.NumberParser;
+import io.ParallelTextFileParser;
+import io.TokenHandler;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.apache.commons.math3.stat.inference.TestUtils;
+
+import db.PathwayImpl;
+import main.Dataset.ANNOT_TYPE;
+
+/**
+ * Populates a {@link Dataset} directly from the tokens of a data file, without
+ * keeping the file in memory as strings. The column annotations are resolved
+ * once into a plan of the columns to read. Numbers are parsed straight from the
+ * tokenized bytes and buffered per column, blocks of rows are then converted to
+ * the linear scale a column at a time before they are added to the dataset; the
+ * values are the same as those of {@link Dataset#addRow(String[], ANNOT_TYPE[])}.
+ * <p> Values that are not numbers, or that overflow on the linear scale, are
+ * treated as missing and reported through {@link #getErrors()}. The rows are 
+ * only complete after {@link #finish()} has been called.
+ * <p> With {@link #parse(ParallelTextFileParser, RowFilterFactory)} the chunks of
+ * a file are tokenized and converted on the threads of the parser, each into a
+ * {@link Chunk} of its own, and the chunks are added to the dataset in file order.
+ */
+public class DatasetBuilder implements TokenHandler {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	/**
+	 * Number of rows buffered before they are converted and added to the dataset
+	 */
+	public static final int BLOCK_SIZE = 1024;
+	public static final int MAX_REPORTED_ERRORS = 100;
+
+	private final Dataset ds;
+	private final ANNOT_TYPE[] plan;
+	private final boolean hasPeptides;
+	private final byte sepCh;
+	private final BitSet ignoredRows;
+	private final Charset cs = Charset.defaultCharset();
+
+	// numeric columns, and the slot of their values in the block
+	private final int[] numCols, slots;
+	
+	// the buffered block; raw values are kept for error reporting
+	private final double[][] raw, linear;
+	private final double[] pvals = new double[BLOCK_SIZE];
+	private final int[] rowIndices = new int[BLOCK_SIZE];
+	private final List<List<String>> prots = new ArrayList<List<String>>(BLOCK_SIZE),
+									 peps = new ArrayList<List<String>>(BLOCK_SIZE);
+	private int nbuffered = 0;
+
+	// state of the current row, reused between rows
+	private final DescriptiveStatistics s1 = new DescriptiveStatistics(),
+										s2 = new DescriptiveStatistics();
+	private List<String> prot, pep;
+	private int row = 0, added = 0;
+
+	private final List<ParseError> errors = new ArrayList<ParseError>();
+	private int nerrors = 0, discarded = 0;
+
+	// the converted rows of a chunk, null if the rows go to the dataset
+	private final Chunk chunk;
+
+	/**
+	 * Creates the handler that passes the rows on to a builder,
+	 * e.g. to discard some of them
+	 */
+	public interface RowFilterFactory {
+		public TokenHandler newRowFilter(DatasetBuilder builder);
+	}
+
+	/**
+	 * @param ds - an empty, non-finalized dataset
+	 * @param annots - the annotation of each column of the file
+	 * @param ignoredRows - indices of the data rows to skip, may be {@code null}
+	 */
+	public DatasetBuilder(Dataset ds, ANNOT_TYPE[] annots, BitSet ignoredRows){
+		this(ds, annots, ignoredRows, null);
+	}
+
+	/**
+	 * Builder of a single chunk of the file, the rows are converted into the
+	 * chunk; as row indices are local to the chunk, ignored rows and rows with
+	 * the wrong number of fields are only dealt with by {@link #append(Chunk)}
+	 */
+	private DatasetBuilder(Dataset ds, ANNOT_TYPE[] annots, BitSet ignoredRows, Chunk chunk){
+		String sep = AnalysisParams.getInstance().getIdSepChar();
+		if(sep.length() != 1)
+			throw new IllegalArgumentException("Unsupported separation char: " + sep);
+
+		this.ds = ds;
+		this.plan = annots.clone();
+		this.hasPeptides = Arrays.asList(annots).contains(ANNOT_TYPE.PeptideSeq);
+		this.sepCh = (byte) sep.charAt(0);
+		this.ignoredRows = (ignoredRows == null) ? new BitSet() : ignoredRows;
+		this.chunk = chunk;
+
+		this.slots = new int[annots.length];
+		int nnum = 0;
+		for(int i=0; i < annots.length; i++)
+			slots[i] = isNumeric(annots[i]) ? nnum++ : -1;
+		this.numCols = new int[nnum];
+		for(int i=0; i < annots.length; i++){
+			if(slots[i] >= 0)
+				numCols[slots[i]] = i;
+		}
+		this.raw = new double[nnum][BLOCK_SIZE];
+		this.linear = new double[nnum][BLOCK_SIZE];
+		resetRow();
+	}
+
+	@Override
+	public void field(int col, byte[] buf, int start, int end) {
+		if(col >= plan.length || ignoredRows.get(row))
+			return;
+
+		switch(plan[col]){
+		case ProteinID:
+			prot = ds.normalizeAccessions(splitIds(buf, start, end));
+			break;
+		case PeptideSeq:
+			pep = splitIds(buf, start, end);
+			break;
+		case Intensity_S1:
+		case Intensity_S2:
+		case Ratio:
+		case Fold_Ch:
+			raw[slots[col]][nbuffered] = parse(col, buf, start, end);
+			break;
+		case Pval:
+			pvals[nbuffered] = parse(col, buf, start, end);
+			break;
+		default: break;
+		}
+	}
+
+	@Override
+	public boolean endRow(int nfields) {
+		if(ignoredRows.get(row++)){
+			resetRow();
+			return true;
+		}
+
+		if(nfields != plan.length && chunk != null){
+			chunk.malformed.add(new int[]{row - 1, nfields});
+			resetRow();
+			return true;
+		}
+		if(nfields != plan.length){
+			logger.severe("Row " + (row-1) + " has " + nfields + " fields, "
+					+ plan.length + " columns are annotated" + System.lineSeparator());
+			throw new IllegalArgumentException("Array lengths do not match!");
+		}
+
+		rowIndices[nbuffered] = row - 1;
+		prots.add(prot);
+		peps.add(hasPeptides ? pep : null);
+		if(++nbuffered == BLOCK_SIZE)
+			flush();
+		resetRow();
+		return true;
+	}
+
+	/**
+	 * Converts and adds the buffered rows, to be called once the whole file 
+	 * has been streamed through the builder
+	 */
+	public void finish(){
+		flush();
+		if(nerrors > 0 && chunk == null){
+			StringBuilder sb = new StringBuilder();
+			sb.append(nerrors).append(" values could not be read and are treated as missing");
+			for(ParseError e : errors)
+				sb.append(System.lineSeparator()).append("... ").append(e);
+			if(nerrors > errors.size())
+				sb.append(System.lineSeparator()).append("... and ")
+					.append(nerrors - errors.size()).append(" more");
+			logger.warning(sb.toString() + System.lineSeparator());
+		}
+	}
+
+	private void flush(){
+		int n = nbuffered;
+		if(n == 0)
+			return;
+
+		// Convert the block a column at a time
+		for(int s=0; s < numCols.length; s++){
+			System.arraycopy(raw[s], 0, linear[s], 0, n);
+			Dataset.toLinear(linear[s], n, ds.getValueType());
+			for(int i=0; i < n; i++){
+				if(Double.isInfinite(linear[s][i])){
+					addError(rowIndices[i], numCols[s], String.valueOf(raw[s][i]),
+							"overflows on the " + ds.getValueType() + " scale");
+					linear[s][i] = Dataset.missingVal;
+				}
+			}
+		}
+
+		for(int i=0; i < n; i++){
+			double ratio = Double.NaN;
+			s1.clear();
+			s2.clear();
+			for(int s=0; s < numCols.length; s++){
+				double d = linear[s][i];
+				switch(plan[numCols[s]]){
+				case Intensity_S1: 	s1.addValue(d); break;
+				case Intensity_S2: 	s2.addValue(d); break;
+				case Ratio: 		ratio = d; break;
+				case Fold_Ch: 		ratio = d > 0 ? d : -1/d; break;
+				default: break;
+				}
+			}
+
+			// Make sure ratio is set
+			if(Double.isNaN(ratio))
+				ratio = s1.getMean() / s2.getMean();
+
+			// At least 2 observations for each sample to calculate a pval
+			double pval = pvals[i];
+			if(s1.getN() > 1 && s2.getN() > 1)
+				pval = TestUtils.tTest(s1, s2);
+
+			if(chunk != null)
+				chunk.add(prots.get(i), peps.get(i), ratio, pval, rowIndices[i]);
+			else
+				ds.addRow(prots.get(i), peps.get(i), ratio, pval);
+			added++;
+		}
+
+		prots.clear();
+		peps.clear();
+		nbuffered = 0;
+	}
+
+	private double parse(int col, byte[] buf, int start, int end){
+		if(NumberParser.isMissing(buf, start, end))
+			return Dataset.missingVal;
+		try{
+			return NumberParser.parseDouble(buf, start, end);
+		}
+		catch(NumberFormatException e){
+			addError(row, col, decode(buf, start, end), "is not a number");
+			return Dataset.missingVal;
+		}
+	}
+
+	private void addError(int row, int col, String value, String reason){
+		if(nerrors++ < MAX_REPORTED_ERRORS)
+			errors.add(new ParseError(row, col, value, reason));
+	}
+
+	private static boolean isNumeric(ANNOT_TYPE type){
+		return type == ANNOT_TYPE.Intensity_S1 || type == ANNOT_TYPE.Intensity_S2
+				|| type == ANNOT_TYPE.Ratio || type == ANNOT_TYPE.Fold_Ch;
+	}
+
+	/**
+	 * Ends the current row without adding it to the dataset, to be called 
+	 * instead of {@link #endRow(int)} for rows rejected by a filter
+	 */
+	public void discardRow(){
+		row++;
+		discarded++;
+		resetRow();
+	}
+
+	/**
+	 * Streams the file of the parser into the builder. Plain files are split
+	 * into chunks that are tokenized and converted on the threads of the
+	 * parser, the rows of the chunks are then added to the dataset in file
+	 * order on the calling thread. Compressed files cannot be split and are
+	 * streamed on the calling thread. {@link #finish()} has to be called
+	 * afterwards, as for sequential streaming.
+	 * @param filters - creates the filter of the rows of each chunk,
+	 * may be {@code null}
+	 * @throws IOException
+	 */
+	public void parse(ParallelTextFileParser parser, final RowFilterFactory filters) throws IOException{
+		if(chunk != null)
+			throw new IllegalStateException("A chunk cannot be parsed into");
+
+		if(CompressionUtils.isGzipped(parser.getFile())){
+			parser.stream(filters == null ? this : filters.newRowFilter(this));
+			return;
+		}
+
+		List<Chunk> chunks = parser.parseChunks(new ParallelTextFileParser.ChunkHandlerFactory<Chunk>() {
+			@Override
+			public ParallelTextFileParser.ChunkHandler<Chunk> newHandler(int n) {
+				final DatasetBuilder b = new DatasetBuilder(ds, plan, null, new Chunk());
+				final TokenHandler h = filters == null ? b : filters.newRowFilter(b);
+				return new ParallelTextFileParser.ChunkHandler<Chunk>() {
+					@Override
+					public void field(int col, byte[] buf, int start, int end) {
+						h.field(col, buf, start, end);
+					}
+
+					@Override
+					public boolean endRow(int nfields) {
+						return h.endRow(nfields);
+					}
+
+					@Override
+					public Chunk getResult() {
+						b.flush();
+						b.chunk.nrows = b.row;
+						b.chunk.discarded = b.discarded;
+						b.chunk.nerrors = b.nerrors;
+						b.chunk.errors.addAll(b.errors);
+						return b.chunk;
+					}
+				};
+			}
+		});
+
+		for(Chunk c : chunks)
+			append(c);
+	}
+
+	/**
+	 * Adds the rows of a chunk that follows the rows read so far, skipping
+	 * the ignored rows
+	 * @throws IllegalArgumentException if a row that is not ignored has the
+	 * wrong number of fields
+	 */
+	private void append(Chunk c){
+		flush();
+		int offset = row;
+		for(int[] bad : c.malformed){
+			if(!ignoredRows.get(offset + bad[0])){
+				logger.severe("Row " + (offset + bad[0]) + " has " + bad[1] + " fields, "
+						+ plan.length + " columns are annotated" + System.lineSeparator());
+				throw new IllegalArgumentException("Array lengths do not match!");
+			}
+		}
+
+		for(int i=0; i < c.size; i++){
+			if(ignoredRows.get(offset + c.rows[i]))
+				continue;
+			ds.addRow(c.prots.get(i), c.peps.get(i), c.ratios[i], c.pvals[i]);
+			added++;
+		}
+
+		for(ParseError e : c.errors){
+			if(!ignoredRows.get(offset + e.row))
+				addError(offset + e.row, e.col, e.value, e.reason);
+		}
+		// the rows of the errors that were not reported are not known
+		nerrors += c.nerrors - c.errors.size();
+		row += c.nrows;
+		discarded += c.discarded;
+	}
+
+	/**
+	 * @return flags of the columns that the builder reads, i.e. all 
+	 * columns not annotated as {@link ANNOT_TYPE#Ignore}
+	 */
+	public boolean[] getColumnProjection(){
+		boolean[] cols = new boolean[plan.length];
+		for(int i=0; i < plan.length; i++)
+			cols[i] = plan[i] != ANNOT_TYPE.Ignore;
+		return cols;
+	}
+
+	/**
+	 * @return number of rows read, including the ignored ones
+	 */
+	public int getNbrOfRowsRead(){
+		return row;
+	}
+
+	/**
+	 * @return number of rows discarded by a filter, see {@link #discardRow()}
+	 */
+	public int getNbrOfRowsDiscarded(){
+		return discarded;
+	}
+
+	/**
+	 * @return number of rows added to the dataset, buffered 
+	 * rows are only added by {@link #finish()}
+	 */
+	public int getNbrOfRowsAdded(){
+		return added;
+	}
+
+	/**
+	 * @return the first {@value #MAX_REPORTED_ERRORS} values 
+	 * that could not be read
+	 */
+	public List<ParseError> getErrors(){
+		return Collections.unmodifiableList(errors);
+	}
+
+	/**
+	 * @return number of values that could not be read
+	 */
+	public int getNbrOfErrors(){
+		return nerrors;
+	}
+
+	private void resetRow(){
+		prot = null;
+		pep = null;
+		pvals[nbuffered] = Double.NaN;
+		for(int s=0; s < numCols.length; s++)
+			raw[s][nbuffered] = Dataset.missingVal;
+	}
+
+	private String decode(byte[] buf, int start, int end){
+		return new String(buf, start, end - start, cs);
+	}
+
+	/**
+	 * Splits a field of identifiers like {@code String.split} does,
+	 * i.e. trailing empty identifiers are dropped
+	 */
+	private List<String> splitIds(byte[] buf, int start, int end){
+		List<String> ids = new ArrayList<String>(2);
+		if(start == end){
+			ids.add("");
+			return ids;
+		}
+
+		int from = start;
+		for(int i=start; i <= end; i++){
+			if(i == end || buf[i] == sepCh){
+				ids.add(decode(buf, from, i));
+				from = i + 1;
+			}
+		}
+
+		int n = ids.size();
+		while(n > 0 && ids.get(n-1).isEmpty())
+			ids.remove(--n);
+		return ids;
+	}
+
+	/**
+	 * Rows of a chunk of the file, converted on a worker thread; rows are
+	 * indexed from the start of the chunk
+	 */
+	public static class Chunk {
+		private final List<List<String>> prots = new ArrayList<List<String>>(),
+										 peps = new ArrayList<List<String>>();
+		private double[] ratios = new double[BLOCK_SIZE], pvals = new double[BLOCK_SIZE];
+		private int[] rows = new int[BLOCK_SIZE];
+		private int size = 0;
+
+		// row and number of fields of the rows with the wrong number of fields
+		private final List<int[]> malformed = new ArrayList<int[]>();
+		private final List<ParseError> errors = new ArrayList<ParseError>();
+		private int nrows = 0, discarded = 0, nerrors = 0;
+
+		private Chunk(){}
+
+		private void add(List<String> prot, List<String> pep, double ratio, double pval, int row){
+			if(size == ratios.length){
+				ratios = Arrays.copyOf(ratios, size * 2);
+				pvals = Arrays.copyOf(pvals, size * 2);
+				rows = Arrays.copyOf(rows, size * 2);
+			}
+			prots.add(prot);
+			peps.add(pep);
+			ratios[size] = ratio;
+			pvals[size] = pval;
+			rows[size] = row;
+			size++;
+		}
+
+		/**
+		 * @return number of converted rows
+		 */
+		public int size(){
+			return size;
+		}
+	}
+
+	/**
+	 * A value that could not be read, the row is the index of the data 
+	 * row in the file and the column the index of the annotated column
+	 */
+	public static class ParseError {
+		private final int row, col;
+		private final String value, reason;
+
+		ParseError(int row, int col, String value, String reason){
+			this.row = row;
+			this.col = col;
+			this.value = value;
+			this.reason = reason;
+		}
+
+		public int getRow(){
+			return row;
+		}
+
+		public int getColumn(){
+			return col;
+		}
+
+		public String getValue(){
+			return value;
+		}
+
+		public String getReason(){
+			return reason;
+		}
+
+		@Override
+		public String toString(){
+			return "row " + row + ", column " + col + ": '" + value + "' " + reason;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package main;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import db.PathwayImpl;
+
+/**
+ * Hash map from {@code long} keys to non-negative {@code int} values, e.g. from
+ * {@link Accession#encode(CharSequence) accession codes} to dense IDs, without
+ * boxing. Uses open addressing with linear probing.
+ */
+public class LongIntMap {
+
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	/**
+	 * Returned by {@link #get(long)} for absent keys
+	 */
+	public static final int NO_VALUE = -1;
+
+	private static final long FREE = Long.MIN_VALUE;
+
+	private long[] keys;
+	private int[] values;
+	private int size = 0;
+
+	public LongIntMap(){
+		this(16);
+	}
+
+	public LongIntMap(int expectedSize){
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) * 2;
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, FREE);
+	}
+
+	/**
+	 * @return the value of the key, {@link #NO_VALUE} if the key is absent
+	 */
+	public int get(long key){
+		int mask = keys.length - 1;
+		for(int i = slot(key, mask); keys[i] != FREE; i = (i + 1) & mask){
+			if(keys[i] == key)
+				return values[i];
+		}
+		return NO_VALUE;
+	}
+
+	public boolean containsKey(long key){
+		return get(key) != NO_VALUE;
+	}
+
+	/**
+	 * @return the previous value of the key, {@link #NO_VALUE} if it was absent
+	 * @throws IllegalArgumentException if the key is {@code Long.MIN_VALUE}
+	 * or the value is negative
+	 */
+	public int put(long key, int value){
+		if(key == FREE)
+			throw new IllegalArgumentException("Reserved key: " + key);
+		if(value < 0)
+			throw new IllegalArgumentException("Negative value: " + value);
+
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		for(; keys[i] != FREE; i = (i + 1) & mask){
+			if(keys[i] == key){
+				int old = values[i];
+				values[i] = value;
+				return old;
+			}
+		}
+
+		keys[i] = key;
+		values[i] = value;
+		if(++size * 2 > keys.length)
+			rehash(keys.length * 2);
+		return NO_VALUE;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return the keys, in no particular order
+	 */
+	public long[] keys(){
+		long[] ks = new long[size];
+		int n = 0;
+		for(long k : keys){
+			if(k != FREE)
+				ks[n++] = k;
+		}
+		return ks;
+	}
+
+	private void rehash(int capacity){
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, FREE);
+
+		int mask = capacity - 1;
+		for(int j=0; j < oldKeys.length; j++){
+			if(oldKeys[j] == FREE)
+				continue;
+			int i = slot(oldKeys[j], mask);
+			while(keys[i] != FREE)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+
+	private static int slot(long key, int mask){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
@@ -0,0 +1,198 @@
+package main;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.logging.Logger;
+
+import db.PathwayImpl;
+
+/**
+ * Interns strings such as accessions, peptide sequences and pathway names,
+ * mapping each distinct string to a dense int ID (0, 1, 2, ...) in the order
+ * they are first seen. The characters are kept in a single byte pool, one byte
+ * per character; strings with characters beyond Latin-1 take two bytes per
+ * character. No {@code String} instances are held, they are only created by
+ * {@link #get(int)}.
+ * <p> Interning is not thread-safe, lookups are once the table is populated.
+ */
+public class SymbolTable implements Serializable {
+
+	private static final long serialVersionUID = -2385640237914632547L;
+	public static Logger logger = Logger.getLogger(PathwayImpl.class.getName());
+
+	private static final int EMPTY = -1;
+
+	private byte[] pool = new byte[1 << 12];
+	private int poolSize = 0;
+
+	// offsets[id] is the start of a symbol in the pool, offsets[id+1] its end
+	private int[] offsets = new int[257];
+	private int[] hashes = new int[256];
+	private final BitSet wide = new BitSet();
+	private int size = 0;
+
+	// open addressing table of IDs, the capacity is a power of two
+	private int[] slots = newSlots(512);
+
+	/**
+	 * @return ID of the string, a new ID is assigned if
+	 * the string has not been seen before
+	 */
+	public int intern(CharSequence s){
+		int h = hash(s);
+		int mask = slots.length - 1;
+		int i = h & mask;
+		for(int id; (id = slots[i]) != EMPTY; i = (i + 1) & mask){
+			if(hashes[id] == h && matches(id, s))
+				return id;
+		}
+
+		int id = add(s, h);
+		slots[i] = id;
+		if(size * 2 > slots.length)
+			rehash(slots.length * 2);
+		return id;
+	}
+
+	/**
+	 * @return ID of the string, -1 if it has not been interned
+	 */
+	public int find(CharSequence s){
+		int h = hash(s);
+		int mask = slots.length - 1;
+		for(int i = h & mask, id; (id = slots[i]) != EMPTY; i = (i + 1) & mask){
+			if(hashes[id] == h && matches(id, s))
+				return id;
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * @return the string with the given ID
+	 * @throws IndexOutOfBoundsException if the ID has not been assigned
+	 */
+	public String get(int id){
+		checkId(id);
+		int start = offsets[id], n = length(id);
+		char[] chars = new char[n];
+		if(wide.get(id)){
+			for(int i=0; i < n; i++)
+				chars[i] = (char) (((pool[start + 2*i] & 0xff) << 8) | (pool[start + 2*i + 1] & 0xff));
+		}
+		else{
+			for(int i=0; i < n; i++)
+				chars[i] = (char) (pool[start + i] & 0xff);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * @return number of characters of the string with the given ID
+	 */
+	public int length(int id){
+		checkId(id);
+		int n = offsets[id + 1] - offsets[id];
+		return wide.get(id) ? n / 2 : n;
+	}
+
+	/**
+	 * @return number of strings interned
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return number of bytes used by the characters of the strings
+	 */
+	public int getPoolSize(){
+		return poolSize;
+	}
+
+	private int add(CharSequence s, int h){
+		int n = s.length();
+		boolean isWide = false;
+		for(int i=0; i < n && !isWide; i++)
+			isWide = s.charAt(i) > 0xff;
+
+		int nbytes = isWide ? 2 * n : n;
+		if(poolSize + nbytes > pool.length)
+			pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + nbytes));
+		if(size + 1 == hashes.length){
+			hashes = Arrays.copyOf(hashes, hashes.length * 2);
+			offsets = Arrays.copyOf(offsets, hashes.length + 1);
+		}
+
+		if(isWide){
+			for(int i=0; i < n; i++){
+				char c = s.charAt(i);
+				pool[poolSize++] = (byte) (c >>> 8);
+				pool[poolSize++] = (byte) c;
+			}
+			wide.set(size);
+		}
+		else{
+			for(int i=0; i < n; i++)
+				pool[poolSize++] = (byte) s.charAt(i);
+		}
+
+		hashes[size] = h;
+		offsets[size + 1] = poolSize;
+		return size++;
+	}
+
+	private boolean matches(int id, CharSequence s){
+		if(length(id) != s.length())
+			return false;
+
+		int start = offsets[id], n = s.length();
+		if(wide.get(id)){
+			for(int i=0; i < n; i++){
+				char c = (char) (((pool[start + 2*i] & 0xff) << 8) | (pool[start + 2*i + 1] & 0xff));
+				if(c != s.charAt(i))
+					return false;
+			}
+		}
+		else{
+			for(int i=0; i < n; i++){
+				if((pool[start + i] & 0xff) != s.charAt(i))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash(int capacity){
+		slots = newSlots(capacity);
+		int mask = capacity - 1;
+		for(int id=0; id < size; id++){
+			int i = hashes[id] & mask;
+			while(slots[i] != EMPTY)
+				i = (i + 1) & mask;
+			slots[i] = id;
+		}
+	}
+
+	private void checkId(int id){
+		if(id < 0 || id >= size)
+			throw new IndexOutOfBoundsException("Symbol " + id + " is not assigned, size: " + size);
+	}
+
+	private static int[] newSlots(int capacity){
+		int[] slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		return slots;
+	}
+
+	/**
+	 * Same as {@link String#hashCode()}, spread so that the
+	 * low bits used to index the table depend on all characters
+	 */
+	private static int hash(CharSequence s){
+		int h = 0;
+		for(int i=0; i < s.length(); i++)
+			h = 31 * h + s.charAt(i);
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,60 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import main.Accession;
+
+import org.junit.Test;
+
+public class AccessionTest {
+
+	String pattern = "([OPQ][0-9][A-Z0-9]{3}[0-9]|[A-NR-Z][0-9]([A-Z][A-Z0-9]{2}[0-9]){1,2})(-[0-9]+)?";
+	String[] valid = new String[]{"P04637", "P04637-2", "Q9Y6K9", "A0A024RBG1", "A2A274", "O43264-12"};
+	String[] invalid = new String[]{"", "P0463", "p04637", "P04637-", "P04637-2-1", "A0AVT1X",
+			"A0AVTX", "A00VT1", "P04637É", "ENSP00000269305", "A0A024RBG1-a", "P04637 "};
+
+	@Test
+	public void testValidation() {
+		for(String acc : valid)
+			assertTrue(acc, Accession.isValid(acc));
+		for(String acc : invalid)
+			assertFalse(acc, Accession.isValid(acc));
+		
+		// agrees with the pattern on random strings
+		Random r = new Random(42);
+		String chars = "OPQAZ0123456789-";
+		for(int i=0; i < 100000; i++){
+			char[] str = new char[6 + r.nextInt(7)];
+			for(int j=0; j < str.length; j++)
+				str[j] = chars.charAt(r.nextInt(chars.length()));
+			String acc = new String(str);
+			assertTrue(acc, Accession.isValid(acc) == acc.matches(pattern));
+		}
+	}
+
+	@Test
+	public void testEncoding() {
+		for(String acc : valid)
+			assertTrue(acc, Accession.decode(Accession.encode(acc)).equals(acc));
+		for(String acc : invalid)
+			assertTrue(acc, Accession.encode(acc) == Accession.INVALID);
+		
+		long code = Accession.encode("P04637-2");
+		assertTrue(Accession.getIsoform(code) == 2);
+		assertTrue(Accession.getIsoform(Accession.encode("P04637")) == -1);
+		assertTrue(Accession.getCanonical(code) == Accession.encode("P04637"));
+		
+		// codes sort as the accessions of the same length
+		String[] accs = new String[]{"Q9Y6K9", "A2A274", "P04637", "O43264", "A0AVT1"};
+		long[] codes = new long[accs.length];
+		for(int i=0; i < accs.length; i++)
+			codes[i] = Accession.encode(accs[i]);
+		Arrays.sort(accs);
+		Arrays.sort(codes);
+		for(int i=0; i < accs.length; i++)
+			assertTrue(Accession.decode(codes[i]).equals(accs[i]));
+	}
+}
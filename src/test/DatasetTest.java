@@ -2,12 +2,26 @@ package test;
 
 import static org.junit.Assert.*;
 
+import io.AbstractInputFileParser;
+import io.ParallelTextFileParser;
+import io.TextFileParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Random;
 
+import db.AccessionIndex;
 import main.AnalysisParams;
 import main.Dataset;
+import main.DatasetBuilder;
 import main.Dataset.ANNOT_TYPE;
 
 import org.hamcrest.core.IsEqual;
@@ -48,6 +62,164 @@ public class DatasetTest {
 		assertTrue(ds.getRows(new HashSet<Integer>(Arrays.asList(1,2,3))).size() == 3);
 	}
 	
+	@Test
+	public void testAccessionNormalization(){
+		AccessionIndex index = new AccessionIndex();
+		index.addPrimary("A0AVT1");
+		index.addPrimary("Q99798");
+		index.addSecondary("A2A274", "Q99798");
+		
+		Dataset normalized = new Dataset(index);
+		for(String str : lines)
+			normalized.addRow(str.split(","), annots);
+		
+		// isoform and secondary accessions collapse onto their primaries
+		assertTrue(normalized.getDataRows().get(0).getProteins().equals(Arrays.asList("A0AVT1")));
+		assertTrue(normalized.getDataRows().get(3).getProteins().equals(Arrays.asList("Q99798")));
+		assertTrue(normalized.getProteinsIds().size() == 7);
+		assertTrue(normalized.getProteinData("Q99798") != null);
+	}
+	
+	@Test
+	public void testSerialization() throws IOException, ClassNotFoundException{
+		AccessionIndex index = new AccessionIndex();
+		index.addPrimary("Q99798");
+		index.addSecondary("A2A274", "Q99798");
+		Dataset normalized = new Dataset(index);
+		normalized.addRow(lines[0].split(","), annots);
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(normalized);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		Dataset copy = (Dataset) in.readObject();
+		in.close();
+		assertTrue(copy.getNbrOfRows() == 1);
+		assertTrue(copy.getDataRows().get(0).toString().equals(normalized.getDataRows().get(0).toString()));
+		
+		// the index is re-attached after deserialization
+		copy.setAccessionIndex(index);
+		copy.addRow(lines[3].split(","), annots);
+		assertTrue(copy.getDataRows().get(1).getProteins().equals(Arrays.asList("Q99798")));
+	}
+	
+	@Test
+	public void testStreamingBuilder() throws IOException{
+		File f = File.createTempFile("fever_dataset", ".csv");
+		f.deleteOnExit();
+		FileWriter fw = new FileWriter(f);
+		for(String str : lines)
+			fw.write(str + "\n");
+		fw.close();
+		
+		TextFileParser tfp = new TextFileParser(f, AbstractInputFileParser.COMMA);
+		tfp.setHeaderFlag(false);
+		BitSet ignored = new BitSet();
+		ignored.set(2);
+		
+		Dataset streamed = new Dataset();
+		DatasetBuilder builder = new DatasetBuilder(streamed, annots, ignored);
+		tfp.stream(builder);
+		builder.finish();
+		
+		assertTrue(builder.getNbrOfRowsRead() == 4);
+		assertTrue(builder.getNbrOfErrors() == 0);
+		assertTrue(streamed.getNbrOfRows() == 3);
+		assertTrue(streamed.getProteinsIds().size() == 6);
+		assertTrue(streamed.getDataRows().get(0).toString().equals(ds.getDataRows().get(0).toString()));
+		assertTrue(streamed.getDataRows().get(2).toString().equals(ds.getDataRows().get(3).toString()));
+	}
+	
+	@Test
+	public void testParseErrors() throws IOException{
+		File f = File.createTempFile("fever_dataset", ".csv");
+		f.deleteOnExit();
+		FileWriter fw = new FileWriter(f);
+		fw.write(lines[0] + "\n");
+		fw.write("A1A528,abc,0.5\n");
+		fw.write("A1L0T0,NA,\n");
+		fw.write(lines[3] + "\n");
+		fw.close();
+		
+		TextFileParser tfp = new TextFileParser(f, AbstractInputFileParser.COMMA);
+		tfp.setHeaderFlag(false);
+		Dataset streamed = new Dataset();
+		DatasetBuilder builder = new DatasetBuilder(streamed, annots, null);
+		tfp.stream(builder);
+		builder.finish();
+		
+		// malformed values are reported and read as missing
+		assertTrue(streamed.getNbrOfRows() == 4);
+		assertTrue(builder.getNbrOfErrors() == 1);
+		assertTrue(builder.getErrors().get(0).getRow() == 1);
+		assertTrue(builder.getErrors().get(0).getColumn() == 1);
+		assertTrue(builder.getErrors().get(0).getValue().equals("abc"));
+	}
+	
+	@Test
+	public void testParallelBuilder() throws IOException{
+		File f = File.createTempFile("fever_dataset", ".csv");
+		f.deleteOnExit();
+		FileWriter fw = new FileWriter(f);
+		for(int i=0; i < 3000; i++){
+			if(i == 1234)
+				fw.write("P01234,0.5\n");
+			else
+				fw.write(String.format("P%05d,%s,0.%d\n", i, i % 500 == 7 ? "abc" : (i % 3) - 1.5, i));
+		}
+		fw.close();
+		BitSet ignored = new BitSet();
+		ignored.set(5);
+		ignored.set(507);
+		ignored.set(1234);
+		
+		TextFileParser seq = new TextFileParser(f, AbstractInputFileParser.COMMA);
+		seq.setHeaderFlag(false);
+		Dataset expected = new Dataset();
+		DatasetBuilder sb = new DatasetBuilder(expected, annots, ignored);
+		seq.stream(sb);
+		sb.finish();
+		
+		ParallelTextFileParser par = new ParallelTextFileParser(f, AbstractInputFileParser.COMMA, 4);
+		par.setHeaderFlag(false);
+		par.setChunkSize(4096);
+		Dataset streamed = new Dataset();
+		DatasetBuilder pb = new DatasetBuilder(streamed, annots, ignored);
+		pb.parse(par, null);
+		pb.finish();
+		
+		assertTrue(pb.getNbrOfRowsRead() == 3000);
+		assertTrue(streamed.getNbrOfRows() == expected.getNbrOfRows());
+		assertTrue(streamed.getNbrOfRows() == 2997);
+		for(int i=0; i < expected.getNbrOfRows(); i++)
+			assertTrue(streamed.getDataRows().get(i).toString().equals(expected.getDataRows().get(i).toString()));
+		
+		// the error on the ignored row 507 is not reported
+		assertTrue(pb.getNbrOfErrors() == sb.getNbrOfErrors() && pb.getNbrOfErrors() == 5);
+		for(int i=0; i < pb.getErrors().size(); i++)
+			assertTrue(pb.getErrors().get(i).getRow() == sb.getErrors().get(i).getRow());
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testParallelMalformedRow() throws IOException{
+		File f = File.createTempFile("fever_dataset", ".csv");
+		f.deleteOnExit();
+		FileWriter fw = new FileWriter(f);
+		fw.write(lines[0] + "\n");
+		fw.write("A1A528,0.5\n");
+		fw.close();
+		
+		ParallelTextFileParser par = new ParallelTextFileParser(f, AbstractInputFileParser.COMMA, 2);
+		par.setHeaderFlag(false);
+		new DatasetBuilder(new Dataset(), annots, null).parse(par, null);
+	}
+	
+	@Test(expected=NumberFormatException.class)
+	public void testMalformedValue(){
+		ds.valueToIntensity("abc");
+	}
+	
 	@Test(expected=UnsupportedOperationException.class)
 	public void testPermutationRandomization(){
 		param.addParam(AnalysisParams.rand_key, AnalysisParams.RANDMETHOD.PERMUTATION);
@@ -0,0 +1,74 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import db.DbBuilder;
+import db.DbOptimizer;
+import db.SProtEntry;
+import db.Trypsinator;
+import io.SProtParser;
+
+public class DbBuilderTest {
+
+	private File write(String content) throws IOException {
+		File f = File.createTempFile("fever_reactome", ".txt");
+		f.deleteOnExit();
+		FileWriter fw = new FileWriter(f);
+		fw.write(content);
+		fw.close();
+		return f;
+	}
+
+	private int count(Connection conn, String sql) throws SQLException {
+		Statement s = conn.createStatement();
+		ResultSet set = s.executeQuery(sql);
+		set.next();
+		int n = set.getInt(1);
+		s.close();
+		return n;
+	}
+
+	@Test
+	public void testBuild() throws Exception {
+		File pathways = write("R-HSA-69541\tStabilization of p53\tHomo sapiens\n" +
+				"R-HSA-69563\tp53-Dependent G1 DNA Damage Response\tHomo sapiens\n" +
+				"R-MMU-69541\tStabilization of p53\tMus musculus\n");
+		File relations = write("R-HSA-69563\tR-HSA-69541\n");
+
+		List<SProtEntry> entries = new ArrayList<SProtEntry>();
+		entries.add(SProtParser.parseEntry(SProtParserTest.ENTRY));
+		entries.add(SProtParser.parseEntry(SProtParserTest.ENTRY.replace("P04637", "Q00001")
+				.replace("EPPLSQETFS", "KPEPTIDERSAMPLEKAAAAAAR")));
+
+		Connection conn = DriverManager.getConnection("jdbc:hsqldb:mem:fever_builder", "SA", "");
+		DbBuilder builder = new DbBuilder(conn);
+		builder.createSchema();
+		assertTrue(builder.loadPathways(pathways, relations, "Homo sapiens") == 2);
+		assertTrue(builder.loadProteins(entries.iterator()) == 2);
+		int nPeps = builder.loadPeptides(new Trypsinator(), 2);
+		List<String> indexes = builder.finish();
+
+		assertTrue(count(conn, "select count(*) from PROTEININFO") == 2);
+		assertTrue(count(conn, "select count(*) from PATHWAYINFO where PARENT = 'R-HSA-69563'") == 1);
+		assertTrue(count(conn, "select count(*) from PATHWAYASSOC") == 2);
+		assertTrue(count(conn, "select count(*) from PEPTIDEINFO") == nPeps && nPeps > 0);
+		assertTrue(builder.getNbrOfUnknownPathways() == 0);
+		assertTrue(indexes.size() == DbOptimizer.REQUIRED_INDEXES.length);
+		assertTrue(new DbOptimizer(conn).getMissingIndexes().isEmpty());
+		assertTrue(builder.getStats().get("PROTEININFO").getRows() == 2);
+		conn.close();
+	}
+}
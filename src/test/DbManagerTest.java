@@ -3,6 +3,7 @@ package test;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.SQLException;
 import java.util.Set;
@@ -14,6 +15,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import db.DbManager;
+import db.DbOptimizer;
 import db.PathwayImpl;
 import db.ProteinImpl;
 
@@ -124,5 +126,20 @@ public class DbManagerTest {
 		s = dbm.getAllProtsContainingPepSeq("QENEEK");
 		assertTrue(s.size() == 7);
 	}
+	
+	@Test
+	public void testOptimizeCopy() throws SQLException, IOException{
+		File tmp = new File(System.getProperty("java.io.tmpdir"), "fever-dbtest");
+		File copy = DbManager.copyDatabase(dbfile, tmp);
+		DbManager writable = new DbManager(copy, false);
+		
+		DbOptimizer.Report report = writable.optimize();
+		assertTrue(report.getTimesAfter().size() == report.getTimesBefore().size());
+		
+		// a second pass should not find anything to do
+		assertTrue(writable.optimize().getCreatedIndexes().isEmpty());
+		assertTrue(writable.getAllPathsWithProtein(acc).size() == paths_containing_acc);
+		writable.closeResources();
+	}
 
 }
@@ -0,0 +1,195 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import db.DigestionPipeline;
+import db.SProtEntry;
+import db.TrypticPeptide;
+import db.Trypsinator;
+
+public class DigestionPipelineTest {
+
+	private List<SProtEntry> proteome(int n) {
+		List<SProtEntry> entries = new RandomProteome(7).entries(n, 50, 550);
+		// a duplicate protein
+		SProtEntry dup = new SProtEntry();
+		dup.setAcc("Q00000");
+		dup.setSequence(entries.get(0).getSequence());
+		entries.add(dup);
+		return entries;
+	}
+
+	@Test
+	public void testSameAsSequential() throws Exception {
+		List<SProtEntry> entries = proteome(1000);
+		final Set<String> rows = new HashSet<String>();
+		DigestionPipeline pipeline = new DigestionPipeline(new Trypsinator(), 4);
+		pipeline.setBatchSize(16);
+		int n = pipeline.run(entries.iterator(), new DigestionPipeline.PeptideSink() {
+			@Override
+			public void write(String acc, String seq, int start, int stop, double mass) {
+				rows.add(acc + ":" + seq + ":" + start + ":" + stop);
+			}
+			@Override
+			public void close() {}
+			@Override
+			public void abort() {
+				throw new IllegalStateException("Aborted");
+			}
+		});
+		
+		int expected = 0;
+		Set<String> unique = new HashSet<String>();
+		Trypsinator t = new Trypsinator();
+		for(SProtEntry e : entries){
+			for(TrypticPeptide p : t.digestSequence(e.getSequence())){
+				assertTrue(rows.contains(e.getAcc() + ":" + p.getSeq() + ":" + p.getStart() + ":" + p.getStop()));
+				unique.add(p.getSeq());
+				expected++;
+			}
+		}
+		assertTrue(n == expected && rows.size() == expected);
+		assertTrue(pipeline.getNbrOfProteins() == entries.size());
+		
+		// each sequence once
+		final Set<String> seqs = new HashSet<String>();
+		pipeline = new DigestionPipeline(new Trypsinator(), 4);
+		pipeline.setDeduplicate(true);
+		n = pipeline.run(entries.iterator(), new DigestionPipeline.PeptideSink() {
+			@Override
+			public void write(String acc, String seq, int start, int stop, double mass) {
+				assertTrue(seqs.add(seq));
+			}
+			@Override
+			public void close() {}
+			@Override
+			public void abort() {
+				throw new IllegalStateException("Aborted");
+			}
+		});
+		assertTrue(n == unique.size());
+	}
+
+	@Test
+	public void testTextSink() throws IOException, InterruptedException {
+		File f = File.createTempFile("fever_peptides", ".txt.gz");
+		f.deleteOnExit();
+		List<SProtEntry> entries = proteome(50);
+		int n = new DigestionPipeline(new Trypsinator(), 2).run(entries.iterator(), new DigestionPipeline.TextSink(f));
+		
+		BufferedReader br = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(new FileInputStream(f)), StandardCharsets.UTF_8));
+		int lines = 0;
+		while(br.readLine() != null)
+			lines++;
+		br.close();
+		assertTrue(lines == n + 1);
+	}
+
+	@Test
+	public void testAbortOnFailure() throws InterruptedException {
+		final AtomicInteger closed = new AtomicInteger(), aborted = new AtomicInteger(), afterAbort = new AtomicInteger();
+		DigestionPipeline pipeline = new DigestionPipeline(new Trypsinator(), 4);
+		pipeline.setBatchSize(4);
+		String error = null;
+		try {
+			pipeline.run(proteome(500).iterator(), new DigestionPipeline.PeptideSink() {
+				private int written = 0;
+				@Override
+				public void write(String acc, String seq, int start, int stop, double mass) throws IOException {
+					if(aborted.get() > 0)
+						afterAbort.incrementAndGet();
+					if(++written == 1000)
+						throw new IOException("disk full");
+				}
+				@Override
+				public void close() {
+					closed.incrementAndGet();
+				}
+				@Override
+				public void abort() {
+					aborted.incrementAndGet();
+				}
+			});
+		} catch(IOException e) {
+			error = e.getMessage();
+		}
+		assertTrue("disk full".equals(error));
+		assertTrue(closed.get() == 0 && aborted.get() == 1 && afterAbort.get() == 0);
+	}
+	
+	@Test
+	public void testTextSinkAbort() throws IOException {
+		File f = File.createTempFile("fever_peptides", ".txt");
+		f.deleteOnExit();
+		DigestionPipeline.TextSink sink = new DigestionPipeline.TextSink(f);
+		sink.write("P00001", "PEPTIDEK", 1, 9, 927.45);
+		sink.abort();
+		assertFalse(f.exists());
+	}
+
+	@Test
+	public void testTableSinkCommitInterval() throws Exception {
+		// a connection that only counts the batches and commits
+		final AtomicInteger rows = new AtomicInteger(), committed = new AtomicInteger(), commits = new AtomicInteger();
+		final PreparedStatement insert = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{PreparedStatement.class}, new InvocationHandler() {
+			private int batch = 0;
+			@Override
+			public Object invoke(Object proxy, Method m, Object[] args) {
+				if(m.getName().equals("addBatch"))
+					batch++;
+				else if(m.getName().equals("executeBatch")){
+					rows.addAndGet(batch);
+					int[] counts = new int[batch];
+					batch = 0;
+					return counts;
+				}
+				return null;
+			}
+		});
+		Connection conn = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{Connection.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method m, Object[] args) {
+				if(m.getName().equals("prepareStatement"))
+					return insert;
+				if(m.getName().equals("getAutoCommit"))
+					return true;
+				if(m.getName().equals("commit")){
+					committed.set(rows.get());
+					commits.incrementAndGet();
+				}
+				return null;
+			}
+		});
+		
+		DigestionPipeline.TableSink sink = new DigestionPipeline.TableSink(conn, 25000);
+		for(int i=0; i < 60000; i++){
+			sink.write("P00001", "PEPTIDEK", 1, 9, 927.45);
+			if(i == 49999)
+				assertTrue(commits.get() == 2 && committed.get() == 50000);
+		}
+		sink.close();
+		assertTrue(commits.get() == 3 && committed.get() == 60000);
+	}
+}
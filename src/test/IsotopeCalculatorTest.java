@@ -0,0 +1,89 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import db.IsotopeCalculator;
+import db.PeptideMassIndex;
+import db.SequenceStore;
+import db.Trypsinator;
+
+public class IsotopeCalculatorTest {
+
+	@Test
+	public void testComposition() {
+		// PEPTIDE is C34H53N7O15
+		assertTrue(Arrays.equals(IsotopeCalculator.getComposition("PEPTIDE"), new int[]{34, 53, 7, 15, 0}));
+		
+		for(String pep : new RandomProteome(5, RandomProteome.AMINO_ACIDS).sequences(200, 1, 61)){
+			double m = IsotopeCalculator.getMass(IsotopeCalculator.getComposition(pep));
+			assertTrue(Math.abs(m - Trypsinator.calcPepMass(pep)) < 1e-4);
+		}
+	}
+
+	@Test
+	public void testEnvelope() {
+		IsotopeCalculator calc = new IsotopeCalculator(8, 40);
+		String pep = "SAMPLERPEPTIDEK";
+		int[] comp = IsotopeCalculator.getComposition(pep);
+		double[] env = calc.getEnvelope(pep);
+		
+		// the first two peaks in closed form
+		double[] p0 = {0.9893, 0.999885, 0.99636, 0.99757, 0.9499},
+				p1 = {0.0107, 0.000115, 0.00364, 0.00038, 0.0075};
+		double mono = 1, ratio = 0;
+		for(int e=0; e < comp.length; e++){
+			mono *= Math.pow(p0[e], comp[e]);
+			ratio += comp[e] * p1[e] / p0[e];
+		}
+		assertTrue(Math.abs(env[0] - mono) < 1e-12);
+		assertTrue(Math.abs(env[1] - mono * ratio) < 1e-12);
+		
+		double sum = 0;
+		for(double a : env)
+			sum += a;
+		assertTrue(sum > 0.9999 && sum <= 1 + 1e-12);
+		double[] byComp = calc.getEnvelope(comp);
+		for(int k=0; k < env.length; k++)
+			assertTrue(Math.abs(env[k] - byComp[k]) < 1e-12);
+		
+		// beyond the cached length
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i < 10; i++)
+			sb.append(pep);
+		double[] longEnv = calc.getEnvelope(sb);
+		byComp = calc.getEnvelope(IsotopeCalculator.getComposition(sb));
+		for(int k=0; k < longEnv.length; k++)
+			assertTrue(Math.abs(longEnv[k] - byComp[k]) < 1e-12);
+		
+		IsotopeCalculator.normalizeToMax(longEnv);
+		assertTrue(longEnv[0] < 1);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnknownResidue() {
+		new IsotopeCalculator().getEnvelope("PEPTUDEK");
+	}
+
+	@Test
+	public void testMassIndexEnvelopes() {
+		SequenceStore store = new SequenceStore();
+		store.add("P00001", "MSAMPLERPEPTIDEKAAGGSSTTLLK");
+		store.add("P00002", "GGGGGGKUUUUUUR");
+		Trypsinator t = new Trypsinator();
+		PeptideMassIndex index = PeptideMassIndex.build(t, store.getSequences(), 0);
+		IsotopeCalculator calc = new IsotopeCalculator();
+		double[] all = calc.getEnvelopes(index, store);
+		assertTrue(all.length == index.size() * calc.getNbrOfPeaks());
+		for(int i=0; i < index.size(); i++){
+			String pep = store.getSequence(index.getProtein(i)).toString().substring(index.getStart(i), index.getEnd(i));
+			if(pep.contains("U"))
+				assertTrue(Double.isNaN(all[i * calc.getNbrOfPeaks()]));
+			else
+				assertTrue(all[i * calc.getNbrOfPeaks()] == calc.getEnvelope(pep)[0]);
+		}
+	}
+}
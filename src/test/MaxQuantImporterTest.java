@@ -0,0 +1,111 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import io.AbstractInputFileParser;
+import io.MaxQuantImporter;
+import io.TextFileParser;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import main.AnalysisParams;
+import main.Dataset;
+import main.Dataset.ANNOT_TYPE;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MaxQuantImporterTest {
+
+	AnalysisParams param = AnalysisParams.getInstance();
+	File pg;
+
+	@Before
+	public void setup() throws IOException{
+		param.addParam(AnalysisParams.sepchar_key, 0);
+		param.addParam(AnalysisParams.value_key, 0);
+
+		pg = File.createTempFile("proteinGroups", ".txt");
+		pg.deleteOnExit();
+		FileWriter fw = new FileWriter(pg);
+		fw.write("Protein IDs\tMajority protein IDs\tIntensity\tRatio H/L\tRatio H/L normalized"
+				+ "\tSignificance B\tOnly identified by site\tReverse\tPotential contaminant\n");
+		fw.write("P04637;P04637-2\tP04637\t1000\t1.5\t2.0\t0.01\t\t\t\n");
+		fw.write("REV__Q9Y6K9\tREV__Q9Y6K9\t10\t1.0\t1.0\t0.5\t\t+\t\n");
+		fw.write("CON__P02768\tCON__P02768\t50000\t1.1\t1.2\t0.4\t\t\t+\n");
+		fw.write("Q99798;A2A274\tQ99798;A2A274\t200\t0.5\t0.25\t0.02\t\t\t\n");
+		fw.write("CON__P13645;P35908\tCON__P13645\t700\t0.9\t0.8\t0.3\t\t\t\n");
+		fw.close();
+	}
+
+	@Test
+	public void testRecognition() {
+		String[] peptides = {"Sequence", "Length", "Proteins", "Leading razor protein", "Ratio H/L"};
+		assertTrue(MaxQuantImporter.getTableType(peptides) == MaxQuantImporter.TABLE_TYPE.PEPTIDES);
+		assertFalse(MaxQuantImporter.isMaxQuantTable(new String[]{"Accession", "Ratio", "Pval"}));
+
+		MaxQuantImporter mq = new MaxQuantImporter(peptides);
+		ANNOT_TYPE[] annots = mq.getAnnotations();
+		assertTrue(annots[0] == ANNOT_TYPE.PeptideSeq);
+		assertTrue(annots[2] == ANNOT_TYPE.ProteinID);
+		assertTrue(annots[4] == ANNOT_TYPE.Ratio);
+		assertTrue(mq.isComplete());
+	}
+
+	@Test
+	public void testImport() throws IOException {
+		TextFileParser tfp = new TextFileParser(pg, AbstractInputFileParser.TAB);
+		tfp.parseSample(1);
+		MaxQuantImporter mq = new MaxQuantImporter(tfp.getColumnHeaders());
+
+		ANNOT_TYPE[] annots = mq.getAnnotations();
+		assertTrue(annots[1] == ANNOT_TYPE.ProteinID);
+		assertTrue("Normalized ratios are preferred", annots[4] == ANNOT_TYPE.Ratio);
+		assertTrue(annots[3] == ANNOT_TYPE.Ignore);
+		assertTrue(annots[5] == ANNOT_TYPE.Pval);
+
+		Dataset ds = new Dataset();
+		int rejected = mq.importInto(tfp, ds);
+		assertTrue(rejected == 3);
+		assertTrue(ds.getNbrOfRows() == 2);
+		assertTrue(ds.getDataRows().get(0).getRatio() == 2.0);
+		assertTrue(ds.getDataRows().get(1).getProteins().size() == 2);
+		assertTrue(ds.getProteinData("P02768") == null);
+	}
+
+	private Dataset importTable(String header, String... rows) throws IOException {
+		File f = File.createTempFile("proteinGroups", ".txt");
+		f.deleteOnExit();
+		FileWriter fw = new FileWriter(f);
+		fw.write(header + "\n");
+		for(String row : rows)
+			fw.write(row + "\n");
+		fw.close();
+
+		TextFileParser tfp = new TextFileParser(f, AbstractInputFileParser.TAB);
+		tfp.parseSample(1);
+		Dataset ds = new Dataset();
+		new MaxQuantImporter(tfp.getColumnHeaders()).importInto(tfp, ds);
+		return ds;
+	}
+
+	@Test
+	public void testIntensityFallbackOrientation() throws IOException {
+		Dataset byRatio = importTable("Protein IDs\tMajority protein IDs\tRatio H/L",
+				"P04637\tP04637\t4.0",
+				"Q99798\tQ99798\t0.25");
+		Dataset byIntensity = importTable("Protein IDs\tMajority protein IDs\tIntensity L\tIntensity H",
+				"P04637\tP04637\t100\t400",
+				"Q99798\tQ99798\t200\t50");
+
+		assertTrue(byRatio.getNbrOfRows() == 2 && byIntensity.getNbrOfRows() == 2);
+		for(int i=0; i < 2; i++){
+			double r1 = byRatio.getDataRows().get(i).getRatio(),
+					r2 = byIntensity.getDataRows().get(i).getRatio();
+			assertTrue(Math.abs(r1 - r2) < 1e-9);
+		}
+		assertTrue(byIntensity.getDataRows().get(0).getRatio() > 1);
+	}
+}
@@ -0,0 +1,40 @@
+package test;
+
+import static org.junit.Assert.*;
+import io.NumberParser;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class NumberParserTest {
+
+	String[] numbers = new String[]{
+		"0", "-0", "1", "-1.5", "+2.25", "0.704027237592198", "-1.26192737955577",
+		"1e5", "1.5E-3", "3.14159265358979323846", ".5", "5.", "123456789012345678",
+		"1e-400", "1e400", "NaN", "-Infinity", " 42 ", "6.02214076e23", "0.000001"
+	};
+
+	@Test
+	public void testSameAsParseDouble() {
+		for(String str : numbers){
+			byte[] buf = ("x" + str + "x").getBytes(StandardCharsets.ISO_8859_1);
+			double d = NumberParser.parseDouble(buf, 1, buf.length - 1);
+			assertTrue(str, Double.compare(d, Double.parseDouble(str)) == 0);
+		}
+	}
+
+	@Test
+	public void testMissingValues() {
+		assertTrue(NumberParser.isMissing(new byte[0], 0, 0));
+		assertTrue(NumberParser.isMissing("  ".getBytes(), 0, 2));
+		assertTrue(NumberParser.isMissing("NA".getBytes(), 0, 2));
+		assertTrue(NumberParser.isMissing(" na ".getBytes(), 0, 4));
+		assertFalse(NumberParser.isMissing("NaN".getBytes(), 0, 3));
+	}
+
+	@Test(expected=NumberFormatException.class)
+	public void testMalformedNumber() {
+		NumberParser.parseDouble("1.5e".getBytes(), 0, 4);
+	}
+}
@@ -0,0 +1,70 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import io.AbstractInputFileParser;
+import io.ParallelTextFileParser;
+import io.TextFileParser;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelTextFileParserTest {
+
+	File tsv;
+
+	@Before
+	public void setup() throws IOException{
+		tsv = File.createTempFile("fever_chunks", ".txt");
+		tsv.deleteOnExit();
+		FileWriter fw = new FileWriter(tsv);
+		fw.write("Accession\tRatio\tPval\r\n");
+		for(int i=0; i < 500; i++){
+			if(i % 50 == 0)
+				fw.write("% comment " + i + "\r");
+			fw.write("P" + i + "\t\"" + (i % 7) + "\"\t0." + i + (i % 2 == 0 ? "\r\n" : "\n"));
+		}
+		fw.close();
+	}
+
+	@Test
+	public void testSameAsSequential() {
+		TextFileParser seq = new TextFileParser(tsv, AbstractInputFileParser.TAB);
+		seq.setZeroFlag(true);
+		List<String[]> expected = seq.parse();
+
+		ParallelTextFileParser par = new ParallelTextFileParser(tsv, AbstractInputFileParser.TAB, 4);
+		par.setChunkSize(512);
+		par.setZeroFlag(true);
+		List<String[]> rows = par.parse();
+
+		assertTrue(rows.size() == 500);
+		assertTrue(rows.size() == expected.size());
+		for(int i=0; i < rows.size(); i++)
+			assertTrue("Row " + i + " differs", Arrays.equals(rows.get(i), expected.get(i)));
+		assertTrue(Arrays.equals(par.getColumnHeaders(), seq.getColumnHeaders()));
+		assertTrue(par.getNbrOfRows() == seq.getNbrOfRows());
+		assertTrue(par.getNbrOfCols() == 3);
+	}
+
+	@Test
+	public void testEmptyLineEndsInput() throws IOException {
+		FileWriter fw = new FileWriter(tsv, true);
+		fw.write("\r\n");
+		for(int i=0; i < 200; i++)
+			fw.write("Q" + i + "\t1\t0.5\n");
+		fw.close();
+
+		ParallelTextFileParser par = new ParallelTextFileParser(tsv, AbstractInputFileParser.TAB, 4);
+		par.setChunkSize(256);
+		List<String[]> rows = par.parse();
+		assertTrue(rows.size() == 500);
+		assertTrue(rows.get(499)[0].equals("P499"));
+	}
+}
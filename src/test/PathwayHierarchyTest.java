@@ -0,0 +1,132 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import db.DbBuilder;
+import db.DbManager;
+import db.PathwayImpl;
+import graph.PathwayGraph;
+import graph.PathwayGraphNode;
+import main.AnalysisResult;
+import main.Pair;
+
+/**
+ * Builds the pathway hierarchy from a small database, without the GUI.
+ * R1 has the children R11 and R12, R11 has R111, R2 is a second root.
+ * Loop has the RDF ID of R1 and the parent R11, which closes a cycle.
+ */
+public class PathwayHierarchyTest {
+
+	private static File dir;
+	private static DbManager dbm;
+
+	private static File write(String content) throws IOException {
+		File f = File.createTempFile("fever_reactome", ".txt");
+		f.deleteOnExit();
+		FileWriter fw = new FileWriter(f);
+		fw.write(content);
+		fw.close();
+		return f;
+	}
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		dir = File.createTempFile("fever_graph", "");
+		dir.delete();
+		dir.mkdir();
+		File pathways = write("R1\tRoot one\tHomo sapiens\n" +
+				"R2\tRoot two\tHomo sapiens\n" +
+				"R11\tChild one\tHomo sapiens\n" +
+				"R12\tChild two\tHomo sapiens\n" +
+				"R111\tGrandchild\tHomo sapiens\n");
+		File relations = write("R1\tR11\nR1\tR12\nR11\tR111\n");
+
+		Connection conn = DriverManager.getConnection("jdbc:hsqldb:file:" + dir.getAbsolutePath()
+				+ "/fever_graph;hsqldb.script_format=3", "SA", "");
+		DbBuilder builder = new DbBuilder(conn);
+		builder.createSchema();
+		assertTrue(builder.loadPathways(pathways, relations, "Homo sapiens") == 5);
+		builder.finish();
+		Statement s = conn.createStatement();
+		s.execute("insert into PATHWAYINFO values (99, 'Loop', 'Other', 'Homo sapiens', 'R1', 'R11')");
+		s.execute("SHUTDOWN");
+		s.close();
+		conn.close();
+
+		dbm = new DbManager(new File(dir, "fever_graph.script"));
+	}
+
+	@AfterClass
+	public static void tearDown() throws Exception {
+		dbm.closeResources();
+		for(File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	private static PathwayGraphNode child(PathwayGraphNode node, String name) {
+		for(PathwayGraphNode c : node.getChildren()){
+			if(c.getResult().getPath().getName().equals(name))
+				return c;
+		}
+		return null;
+	}
+
+	@Test
+	public void testHierarchy() throws Exception {
+		Map<String, List<Pair<PathwayImpl, String>>> hierarchy = dbm.getPathwayHierarchy();
+		assertTrue(hierarchy.get(null).size() == 2);
+		assertTrue(hierarchy.get("R1").size() == 2);
+		assertTrue(hierarchy.get("R11").size() == 2);
+		assertTrue(hierarchy.get("R12") == null);
+		for(Pair<PathwayImpl, String> p : hierarchy.get("R1"))
+			assertTrue(p.second.equals("R11") || p.second.equals("R12"));
+	}
+
+	@Test
+	public void testGraph() throws Exception {
+		Map<PathwayImpl, AnalysisResult> results = new HashMap<PathwayImpl, AnalysisResult>();
+		for(List<Pair<PathwayImpl, String>> siblings : dbm.getPathwayHierarchy().values()){
+			for(Pair<PathwayImpl, String> p : siblings)
+				results.put(p.first, new AnalysisResult(p.first));
+		}
+		PathwayGraph graph = new PathwayGraph(dbm, results);
+		PathwayGraphNode root = graph.getRoot();
+		assertTrue(root.isRoot());
+		assertTrue(root.getNbrOfChildren() == 2);
+
+		PathwayGraphNode r1 = child(root, "Root one");
+		PathwayGraphNode r2 = child(root, "Root two");
+		assertTrue(r1 != null && r1.getParent() == root);
+		assertTrue(r2 != null && r2.getNbrOfChildren() == 0);
+		assertTrue(r1.getNbrOfChildren() == 2);
+
+		PathwayGraphNode r11 = child(r1, "Child one");
+		PathwayGraphNode r12 = child(r1, "Child two");
+		assertTrue(r11 != null && r11.getParent() == r1);
+		assertTrue(r12 != null && r12.getNbrOfChildren() == 0);
+		assertTrue(r11.getNbrOfChildren() == 2);
+
+		PathwayGraphNode r111 = child(r11, "Grandchild");
+		PathwayGraphNode loop = child(r11, "Loop");
+		assertTrue(r111 != null && r111.getParent() == r11);
+		assertTrue(loop != null && loop.getParent() == r11);
+		// the cycle back to R1 is cut instead of repeating its subtree
+		assertTrue(loop.getNbrOfChildren() == 0);
+		assertTrue(graph.getNbrOfNodes() == 7);
+	}
+}
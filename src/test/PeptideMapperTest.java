@@ -0,0 +1,68 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import db.PeptideMapper;
+
+public class PeptideMapperTest {
+
+	@Test
+	public void testSameAsIndexOf() {
+		RandomProteome proteome = new RandomProteome(5, RandomProteome.AMINO_ACIDS);
+		Map<String, String> proteins = proteome.proteins(200, 50, 350);
+		Random r = proteome.getRandom();
+		
+		// substrings of the proteins, some overlapping, and random ones
+		List<String> peps = new ArrayList<String>();
+		List<String> seqs = new ArrayList<String>(proteins.values());
+		for(int i=0; i < 2000; i++){
+			String s = seqs.get(r.nextInt(seqs.size()));
+			int start = r.nextInt(s.length() - 20);
+			peps.add(s.substring(start, start + 1 + r.nextInt(15)));
+		}
+		peps.addAll(proteome.sequences(500, 7, 8));
+		
+		Map<String, Set<String>> hits = new PeptideMapper(peps, false).map(proteins);
+		for(String pep : peps){
+			Set<String> expected = new HashSet<String>();
+			for(Map.Entry<String, String> e : proteins.entrySet()){
+				if(e.getValue().contains(pep))
+					expected.add(e.getKey());
+			}
+			Set<String> found = hits.get(pep);
+			assertTrue(pep, expected.isEmpty() ? found == null : expected.equals(found));
+		}
+	}
+
+	@Test
+	public void testPositionsAndIsoleucine() {
+		final List<String> found = new ArrayList<String>();
+		PeptideMapper.HitHandler handler = new PeptideMapper.HitHandler() {
+			@Override
+			public void hit(int peptide, int protein, int start) {
+				found.add(peptide + ":" + start);
+			}
+		};
+		
+		List<String> peps = Arrays.asList("PEPTIDE", "TIDE", "PEPTLDE", "X1");
+		PeptideMapper mapper = new PeptideMapper(peps, false);
+		assertTrue(mapper.scan("AAPEPTIDEAA", 0, handler) == 2);
+		assertTrue(found.contains("0:2") && found.contains("1:5"));
+		assertTrue(mapper.getNbrOfSkippedPeptides() == 1);
+		
+		found.clear();
+		mapper = new PeptideMapper(peps, true);
+		assertTrue(mapper.scan("AAPEPTLDEAA", 0, handler) == 3);
+		assertTrue(found.contains("0:2") && found.contains("1:5") && found.contains("2:2"));
+	}
+}
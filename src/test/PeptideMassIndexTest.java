@@ -0,0 +1,78 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import db.MassSortedPeptides;
+import db.PeptideMassIndex;
+import db.Trypsinator;
+
+public class PeptideMassIndexTest {
+
+	private List<String> proteome(int n) {
+		return new RandomProteome(11).sequences(n, 50, 550);
+	}
+
+	@Test
+	public void testWindows() {
+		List<String> seqs = proteome(500);
+		PeptideMassIndex plain = PeptideMassIndex.build(new Trypsinator(), seqs, 0);
+		PeptideMassIndex bucketed = PeptideMassIndex.build(new Trypsinator(), seqs, 0.01);
+		assertTrue(plain.size() == bucketed.size() && plain.size() > 0);
+		
+		Random r = new Random(3);
+		for(int q=0; q < 10000; q++){
+			// around known peptides and at random
+			double m = (q % 2 == 0) ? 
+					plain.getMass(r.nextInt(plain.size())) * (1 + (r.nextDouble() - 0.5) * 2e-5) : 
+					500 + r.nextDouble() * 3500;
+			double ppm = 10;
+			long a = plain.query(m, ppm), b = bucketed.query(m, ppm);
+			assertTrue(a == b);
+			
+			// brute force
+			double tol = PeptideMassIndex.tolerance(m, ppm);
+			int from = PeptideMassIndex.from(a), to = PeptideMassIndex.to(a);
+			for(int i=0; i < plain.size(); i++){
+				boolean inside = plain.getMass(i) >= m - tol && plain.getMass(i) <= m + tol;
+				assertTrue(inside == (i >= from && i < to));
+			}
+		}
+	}
+
+	@Test
+	public void testMzQueries() {
+		PeptideMassIndex index = PeptideMassIndex.build(new Trypsinator(), proteome(100), 0.01);
+		int i = index.size() / 2;
+		double m = index.getMass(i);
+		double[] mzs = new double[]{m / 2 + PeptideMassIndex.PROTON, 1234.5};
+		int[] from = new int[8], to = new int[8];
+		
+		long total = index.queryMz(mzs, 1, 4, 5, from, to);
+		assertTrue(total >= 1);
+		// the peptide is found at charge 2
+		assertTrue(from[1] <= i && i < to[1]);
+	}
+
+	@Test
+	public void testDenseBuckets() {
+		// many peptides within a few buckets, and many of equal mass
+		Random r = new Random(13);
+		MassSortedPeptides peps = new MassSortedPeptides();
+		for(int i=0; i < 100000; i++)
+			peps.add(i, 0, 1, i % 3 == 0 ? 1000.0 : 1000 + r.nextDouble() * 0.05);
+		PeptideMassIndex plain = new PeptideMassIndex(peps, 0);
+		PeptideMassIndex bucketed = new PeptideMassIndex(peps, 0.01);
+		
+		for(int q=0; q < 2000; q++){
+			double m = q % 4 == 0 ? plain.getMass(r.nextInt(plain.size())) : 999.99 + r.nextDouble() * 0.07;
+			assertTrue(plain.lowerBound(m) == bucketed.lowerBound(m));
+			assertTrue(plain.upperBound(m) == bucketed.upperBound(m));
+		}
+		assertTrue(bucketed.upperBound(1000.0) - bucketed.lowerBound(1000.0) == 33334);
+	}
+}
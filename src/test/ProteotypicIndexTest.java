@@ -0,0 +1,87 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import db.PeptideMassIndex;
+import db.ProteotypicIndex;
+import db.SequenceStore;
+import db.TrypticPeptide;
+import db.Trypsinator;
+
+public class ProteotypicIndexTest {
+
+	@Test
+	public void testUniqueness() throws InterruptedException {
+		SequenceStore store = new SequenceStore();
+		store.add("P00000", "AAAAAAKSHAREDPEPKGGGGGGR");
+		store.add("P00001", "CCCCCCKSHAREDPEPKGGGGGGR");
+		store.add("P00002", "SHAREDPEPKDDDDLDR");
+		store.add("P00003", "DDDDIDREEEEEEK");
+		String[] genes = {"G1", "G1", "G2", null};
+		
+		ProteotypicIndex index = ProteotypicIndex.build(new Trypsinator(), store, genes, 2);
+		assertTrue(index.getProtein("AAAAAAK") == 0);
+		assertTrue(index.getProtein("SHAREDPEPK") == ProteotypicIndex.SHARED);
+		assertTrue(index.getProtein("WWWWWWK") == ProteotypicIndex.NOT_FOUND);
+		assertTrue(Arrays.equals(index.getProteins("SHAREDPEPK"), new int[]{0, 1, 2}));
+		assertTrue(Arrays.equals(index.getProteins("AAAAAAK"), new int[]{0}));
+		assertTrue(index.getProteins("WWWWWWK").length == 0);
+		assertTrue(!index.isProteotypic("GGGGGGR") && index.isGeneUnique("GGGGGGR"));
+		assertTrue(!index.isGeneUnique("SHAREDPEPK"));
+		// I and L are not distinguished
+		assertTrue(!index.isProteotypic("DDDDLDR") && !index.isGeneUnique("DDDDIDR"));
+		assertTrue(Arrays.equals(index.getProteins("DDDDIDR"), new int[]{2, 3}));
+		// a protein without gene is a gene of its own
+		assertTrue(index.isGeneUnique("EEEEEEK"));
+	}
+
+	@Test
+	public void testParallelAndMarking() throws InterruptedException {
+		SequenceStore store = new RandomProteome(3).store(500, 50, 350);
+		String[] genes = new String[store.size()];
+		for(int i=0; i < genes.length; i++)
+			genes[i] = "G" + (i / 2);
+		
+		Trypsinator t = new Trypsinator();
+		ProteotypicIndex seq = ProteotypicIndex.build(t, store, genes, 1);
+		ProteotypicIndex par = ProteotypicIndex.build(t, store, genes, 4);
+		assertTrue(seq.size() == par.size());
+		assertTrue(seq.getNbrOfProteotypic() == par.getNbrOfProteotypic());
+		assertTrue(seq.getNbrOfGeneUnique() == par.getNbrOfGeneUnique());
+		assertTrue(par.getNbrOfGeneUnique() >= par.getNbrOfProteotypic());
+		
+		PeptideMassIndex masses = PeptideMassIndex.build(t, store.getSequences(), 0);
+		BitSet unique = par.markUnique(masses, false);
+		for(int i=0; i < masses.size(); i++){
+			String pep = store.getSequence(masses.getProtein(i)).toString()
+					.substring(masses.getStart(i), masses.getEnd(i));
+			assertTrue(unique.get(i) == par.isProteotypic(pep));
+			assertTrue(Arrays.equals(par.getProteins(pep), seq.getProteins(pep)));
+		}
+		
+		// the protein sets of some peptides against a scan of the proteome
+		for(int i=0; i < masses.size(); i += 97){
+			String pep = store.getSequence(masses.getProtein(i)).toString()
+					.substring(masses.getStart(i), masses.getEnd(i));
+			List<Integer> expected = new ArrayList<Integer>();
+			for(int p=0; p < store.size(); p++){
+				for(TrypticPeptide tp : t.digestSequence(store.getSequence(p).toString()))
+					if(tp.getSeq().replace('I', 'L').equals(pep.replace('I', 'L'))){
+						expected.add(p);
+						break;
+					}
+			}
+			int[] found = par.getProteins(pep);
+			assertTrue(found.length == expected.size());
+			for(int k=0; k < found.length; k++)
+				assertTrue(found[k] == expected.get(k));
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import db.SProtEntry;
+import db.SequenceStore;
+
+/**
+ * Seeded generator of random protein sequences for the tests, the same seed
+ * always gives the same proteome. Protein {@code i} has the accession
+ * {@link #accession(int)}.
+ */
+public class RandomProteome {
+
+	public static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+	/**
+	 * The amino acids with K and R twice as frequent, which gives tryptic
+	 * peptides of a more realistic length
+	 */
+	public static final String TRYPTIC = AMINO_ACIDS + "KR";
+
+	private final Random r;
+	private final String alphabet;
+
+	public RandomProteome(long seed) {
+		this(seed, TRYPTIC);
+	}
+
+	/**
+	 * @param alphabet - the residues to draw from, uniformly
+	 */
+	public RandomProteome(long seed, String alphabet) {
+		this.r = new Random(seed);
+		this.alphabet = alphabet;
+	}
+
+	/**
+	 * @return the random source of the sequences, to draw anything else
+	 * from the same seed
+	 */
+	public Random getRandom() {
+		return r;
+	}
+
+	public static String accession(int i) {
+		return "P" + (10000 + i);
+	}
+
+	/**
+	 * @return a sequence of {@code minLength} to {@code maxLength - 1} residues
+	 */
+	public String sequence(int minLength, int maxLength) {
+		StringBuilder sb = new StringBuilder();
+		for(int j = minLength + r.nextInt(maxLength - minLength); j > 0; j--)
+			sb.append(alphabet.charAt(r.nextInt(alphabet.length())));
+		return sb.toString();
+	}
+
+	public List<String> sequences(int n, int minLength, int maxLength) {
+		List<String> seqs = new ArrayList<String>(n);
+		for(int i=0; i < n; i++)
+			seqs.add(sequence(minLength, maxLength));
+		return seqs;
+	}
+
+	/**
+	 * @return the sequences by accession, in the order of the proteins
+	 */
+	public Map<String, String> proteins(int n, int minLength, int maxLength) {
+		Map<String, String> proteins = new LinkedHashMap<String, String>();
+		for(int i=0; i < n; i++)
+			proteins.put(accession(i), sequence(minLength, maxLength));
+		return proteins;
+	}
+
+	public List<SProtEntry> entries(int n, int minLength, int maxLength) {
+		List<SProtEntry> entries = new ArrayList<SProtEntry>(n);
+		for(int i=0; i < n; i++){
+			SProtEntry e = new SProtEntry();
+			e.setAcc(accession(i));
+			e.setSequence(sequence(minLength, maxLength));
+			entries.add(e);
+		}
+		return entries;
+	}
+
+	public SequenceStore store(int n, int minLength, int maxLength) {
+		SequenceStore store = new SequenceStore();
+		for(int i=0; i < n; i++)
+			store.add(accession(i), sequence(minLength, maxLength));
+		return store;
+	}
+}
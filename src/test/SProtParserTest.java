@@ -0,0 +1,121 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import io.SProtParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import db.SProtEntry;
+import db.SProtEntry.FuncAnnotation;
+import db.SProtEntry.PTMAnnotation;
+import db.SProtEntry.PTMType;
+
+public class SProtParserTest {
+
+	static final String ENTRY =
+			"ID   P53_HUMAN               Reviewed;         393 AA.\n" +
+			"AC   P04637; Q15086; Q15087;\n" +
+			"AC   Q9UQ61;\n" +
+			"DT   13-AUG-1987, integrated into UniProtKB/Swiss-Prot.\n" +
+			"DT   10-APR-2019, entry version 253.\n" +
+			"DE   RecName: Full=Cellular tumor antigen p53 {ECO:0000303|PubMed:1};\n" +
+			"DE   AltName: Full=Antigen NY-CO-13;\n" +
+			"GN   Name=TP53 {ECO:0000312|HGNC:11998}; Synonyms=P53;\n" +
+			"OS   Homo sapiens\n" +
+			"OS   (Human).\n" +
+			"DR   GO; GO:0005737; C:cytoplasm; IDA:UniProtKB.\n" +
+			"DR   Reactome; R-HSA-69541; Stabilization of p53.\n" +
+			"DR   KEGG; hsa:7157; -.\n" +
+			"FT   MOD_RES         15\n" +
+			"FT                   /note=\"Phosphoserine; by PRKDC\"\n" +
+			"FT                   /evidence=\"ECO:0000269|PubMed:2\"\n" +
+			"FT   MOD_RES         18\n" +
+			"FT                   /note=\"Phosphothreonine; by VRK1\"\n" +
+			"FT   MOD_RES         24\n" +
+			"FT                   /note=\"N6-acetyllysine\"\n" +
+			"FT   MOD_RES     55     55       Phosphotyrosine.\n" +
+			"SQ   SEQUENCE   20 AA;  2000 MW;  0 CRC64;\n" +
+			"     MEEPQSDPSV EPPLSQETFS\n";
+
+	private File write(int n, boolean gzip) throws IOException {
+		File f = File.createTempFile("fever_sprot", gzip ? ".dat.gz" : ".dat");
+		f.deleteOnExit();
+		OutputStream os = new FileOutputStream(f);
+		if(gzip)
+			os = new GZIPOutputStream(os);
+		Writer w = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+		for(int i=0; i < n; i++)
+			w.write(ENTRY.replace("P04637", "P" + (10000 + i)) + "//\n");
+		w.close();
+		return f;
+	}
+
+	@Test
+	public void testParseEntry() {
+		SProtEntry e = SProtParser.parseEntry(ENTRY);
+		assertTrue(e.getAcc().equals("P04637"));
+		assertTrue(e.getUid().equals("P53_HUMAN"));
+		assertTrue(e.getName().equals("Cellular tumor antigen p53"));
+		assertTrue(e.getGeneSymbols().equals("TP53"));
+		assertTrue(e.getOrganism().equals("Homo sapiens (Human)"));
+		assertTrue(e.getSequence().equals("MEEPQSDPSVEPPLSQETFS"));
+		assertTrue(e.getSecondaryAccs().size() == 3);
+		assertTrue(e.getSecondaryAccs().contains("Q9UQ61"));
+		
+		Calendar c = Calendar.getInstance();
+		c.setTime(e.getLast_update());
+		assertTrue(c.get(Calendar.YEAR) == 2019 && c.get(Calendar.MONTH) == Calendar.APRIL);
+		
+		assertTrue(e.getPTMs().size() == 3);
+		for(PTMAnnotation p : e.getPTMs()){
+			if(p.getPosition() == 15) assertTrue(p.getType() == PTMType.pS);
+			else if(p.getPosition() == 18) assertTrue(p.getType() == PTMType.pT);
+			else assertTrue(p.getPosition() == 55 && p.getType() == PTMType.pY);
+		}
+		
+		assertTrue(e.getAnnotations().size() == 2);
+		for(FuncAnnotation a : e.getAnnotations()){
+			if(a.getSource().equals(SProtParser.GO))
+				assertTrue(a.getId().equals("GO:0005737") && a.getName().equals("C:cytoplasm"));
+			else
+				assertTrue(a.getId().equals("R-HSA-69541") && a.getName().equals("Stabilization of p53"));
+		}
+		assertTrue(e.isValid());
+	}
+
+	@Test
+	public void testStreamInOrder() throws IOException {
+		for(boolean gzip : new boolean[]{false, true}){
+			SProtParser parser = new SProtParser(write(1000, gzip), 4);
+			parser.setBatchSize(7);
+			List<SProtEntry> entries = parser.parse();
+			assertTrue(entries.size() == 1000);
+			for(int i=0; i < entries.size(); i++)
+				assertTrue(entries.get(i).getAcc().equals("P" + (10000 + i)));
+		}
+	}
+
+	@Test
+	public void testCloseEarly() throws IOException {
+		SProtParser parser = new SProtParser(write(100, false), 2);
+		parser.setBatchSize(3);
+		SProtParser.EntryIterator it = parser.open();
+		Iterator<SProtEntry> i = it;
+		assertTrue(i.hasNext() && i.next().getAcc().equals("P10000"));
+		it.close();
+		assertTrue(!i.hasNext());
+	}
+}
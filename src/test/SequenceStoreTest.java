@@ -0,0 +1,54 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import db.SequenceStore;
+import db.Trypsinator;
+
+public class SequenceStoreTest {
+
+	@Test
+	public void testRoundTrip() {
+		List<String> seqs = new RandomProteome(9, RandomProteome.AMINO_ACIDS + "UOBZX*").sequences(2000, 0, 700);
+		SequenceStore store = new SequenceStore();
+		for(int i=0; i < seqs.size(); i++)
+			assertTrue(store.add(RandomProteome.accession(i), seqs.get(i)) == i);
+		
+		long total = 0;
+		for(int i=0; i < seqs.size(); i++){
+			assertTrue(store.getSequence(i).toString().equals(seqs.get(i)));
+			assertTrue(store.length(i) == seqs.get(i).length());
+			total += seqs.get(i).length();
+		}
+		assertTrue(store.getNbrOfResidues() == total);
+		assertTrue(store.indexOf("P10042") == 42);
+		assertTrue(store.getAccession(42).equals("P10042"));
+		
+		CharSequence s = store.getSequence(7);
+		if(s.length() > 10)
+			assertTrue(s.subSequence(3, 10).toString().equals(seqs.get(7).substring(3, 10)));
+		
+		// views digest like strings
+		Trypsinator t = new Trypsinator();
+		for(int i=0; i < 50; i++)
+			assertTrue(t.digestSequence(seqs.get(i)).size() == t.digestSequence(store.getSequence(i).toString()).size());
+	}
+
+	@Test
+	public void testUnknownResidues() {
+		SequenceStore store = new SequenceStore();
+		store.add("P12345", "MK1?\u00e9");
+		assertTrue(store.getSequence(0).toString().equals("MKXXX"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testDuplicateAccession() {
+		SequenceStore store = new SequenceStore();
+		store.add("P12345", "MK");
+		store.add("P12345", "MR");
+	}
+}
@@ -0,0 +1,47 @@
+package test;
+
+import static org.junit.Assert.*;
+import main.SymbolTable;
+
+import org.junit.Test;
+
+public class SymbolTableTest {
+
+	@Test
+	public void testInterning() {
+		SymbolTable table = new SymbolTable();
+		int a = table.intern("P12345");
+		int b = table.intern("Q99798-2");
+		
+		assertTrue(a == 0 && b == 1);
+		assertTrue(table.intern(new StringBuilder("P12345")) == a);
+		assertTrue(table.find("Q99798-2") == b);
+		assertTrue(table.find("Q99798") == -1);
+		assertTrue(table.get(b).equals("Q99798-2"));
+		assertTrue(table.length(a) == 6);
+		assertTrue(table.size() == 2);
+	}
+
+	@Test
+	public void testWideCharacters() {
+		SymbolTable table = new SymbolTable();
+		int a = table.intern("TNF-\u03b1 signaling");
+		int b = table.intern("Caf\u00e9");
+		
+		assertTrue(table.get(a).equals("TNF-\u03b1 signaling"));
+		assertTrue(table.get(b).equals("Caf\u00e9"));
+		assertTrue(table.find("TNF-\u03b1 signaling") == a);
+		assertTrue(table.getPoolSize() == 2 * 15 + 4);
+	}
+
+	@Test
+	public void testGrowth() {
+		SymbolTable table = new SymbolTable();
+		for(int i=0; i < 100000; i++)
+			assertTrue(table.intern("PEPTIDE" + i) == i);
+		for(int i=0; i < 100000; i++){
+			assertTrue(table.find("PEPTIDE" + i) == i);
+			assertTrue(table.get(i).equals("PEPTIDE" + i));
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import io.AbstractInputFileParser;
+import io.CompressionUtils;
+import io.DelimtedTextWriter;
+import io.LineOffsetIndex;
+import io.TextFileParser;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TextFileParserTest {
+
+	File csv;
+
+	@Before
+	public void setup() throws IOException{
+		csv = File.createTempFile("fever_parser", ".csv");
+		csv.deleteOnExit();
+		FileWriter fw = new FileWriter(csv);
+		fw.write("\"Accession\",Ratio,Pval\r\n");
+		fw.write("# a comment line\r\n");
+		fw.write("P04637,\"1,5\",0\r\n");
+		fw.write("'Q99798;A2A274',0.75,\n");
+		fw.write("O43264,0,0.98\r");
+		fw.write("\r\n");
+		fw.write("A1L0T0,1,1\n");
+		fw.close();
+	}
+
+	@Test
+	public void testParse() {
+		TextFileParser tfp = new TextFileParser(csv, AbstractInputFileParser.COMMA);
+		List<String[]> rows = tfp.parse();
+
+		assertTrue(tfp.getColumnHeaders().length == 3);
+		assertTrue(tfp.getColumnHeaders()[0].equals("Accession"));
+		assertTrue("Rows after the empty line must be ignored", rows.size() == 3);
+		assertTrue(tfp.getNbrOfRows() == 5);
+		assertTrue(tfp.getNbrOfCols() == 3);
+
+		assertTrue(rows.get(0)[1].equals("1,5"));
+		assertTrue(rows.get(0)[2].equals("0"));
+		assertTrue(rows.get(1)[0].equals("Q99798;A2A274"));
+		assertTrue("Trailing empty fields must be kept", rows.get(1).length == 3);
+		assertTrue(rows.get(1)[2].isEmpty());
+	}
+
+	@Test
+	public void testZerosAndQuotes() {
+		TextFileParser tfp = new TextFileParser(csv, AbstractInputFileParser.COMMA);
+		tfp.setZeroFlag(true);
+		tfp.setIgnoreFlag(false);
+		List<String[]> rows = tfp.parse();
+
+		assertTrue(rows.get(0)[1].equals("\"1"));
+		assertTrue(rows.get(0)[3].isEmpty());
+		assertTrue(rows.get(2)[1].isEmpty());
+		assertTrue(rows.get(2)[2].equals("0.98"));
+	}
+
+	@Test
+	public void testColumnProjection() {
+		TextFileParser tfp = new TextFileParser(csv, AbstractInputFileParser.COMMA);
+		tfp.setColumnProjection(new boolean[]{false, true});
+		List<String[]> rows = tfp.parse();
+
+		assertTrue("Header must not be projected", tfp.getColumnHeaders().length == 3);
+		assertTrue(rows.size() == 3);
+		assertTrue(rows.get(0).length == 3);
+		assertTrue(rows.get(0)[0] == null);
+		assertTrue(rows.get(0)[1].equals("1,5"));
+		assertTrue(rows.get(0)[2] == null);
+		assertTrue(rows.get(1)[1].equals("0.75"));
+
+		// delimiters within skipped quoted fields must not shift the columns
+		tfp.setColumnProjection(new boolean[]{true, false, true});
+		rows = tfp.parse();
+		assertTrue(rows.get(0)[0].equals("P04637"));
+		assertTrue(rows.get(0)[2].equals("0"));
+	}
+
+	@Test
+	public void testLineOffsetIndex() throws IOException {
+		TextFileParser tfp = new TextFileParser(csv, AbstractInputFileParser.COMMA);
+		List<String[]> rows = tfp.parse();
+
+		LineOffsetIndex index = tfp.createLineIndex();
+		index.build(null);
+		assertTrue(index.isComplete());
+		assertTrue(index.size() == rows.size());
+
+		List<String[]> range = tfp.parseRows(index, 1, 3);
+		assertTrue(range.size() == 2);
+		assertTrue(Arrays.equals(range.get(0), rows.get(1)));
+		assertTrue(Arrays.equals(range.get(1), rows.get(2)));
+
+		List<String[]> sample = tfp.parseSample(1);
+		assertTrue(sample.size() == 1);
+		assertTrue(Arrays.equals(sample.get(0), rows.get(0)));
+	}
+
+	@Test
+	public void testGzipRoundTrip() throws IOException {
+		File gz = File.createTempFile("fever_parser", ".tsv.gz");
+		gz.deleteOnExit();
+		DelimtedTextWriter w = new DelimtedTextWriter(gz, DelimtedTextWriter.TAB);
+		w.writeRow(new String[]{"Accession", "Ratio"});
+		for(int i=0; i < 1000; i++)
+			w.writeRow(new Object[]{"P" + i, i});
+		w.close();
+		assertTrue(CompressionUtils.isGzipped(gz));
+
+		TextFileParser tfp = new TextFileParser(gz, AbstractInputFileParser.TAB);
+		List<String[]> rows = tfp.parse();
+		assertTrue(tfp.getColumnHeaders()[1].equals("Ratio"));
+		assertTrue(rows.size() == 1000);
+		assertTrue(rows.get(999)[0].equals("P999"));
+
+		LineOffsetIndex index = tfp.createLineIndex();
+		index.build(null);
+		List<String[]> range = tfp.parseRows(index, 500, 502);
+		assertTrue(Arrays.equals(range.get(0), rows.get(500)));
+		assertTrue(Arrays.equals(range.get(1), rows.get(501)));
+	}
+
+	@Test
+	public void testGzipSegments() throws IOException {
+		File gz = File.createTempFile("fever_parser", ".tsv.gz");
+		gz.deleteOnExit();
+		DelimtedTextWriter w = new DelimtedTextWriter(gz, DelimtedTextWriter.TAB);
+		w.writeRow(new String[]{"Accession", "Ratio", "Pval"});
+		for(int i=0; i < 400000; i++)
+			w.writeRow(new Object[]{"P" + i, i * 0.25, 1.0 / (i + 1)});
+		w.close();
+
+		TextFileParser tfp = new TextFileParser(gz, AbstractInputFileParser.TAB);
+		List<String[]> rows = tfp.parse();
+		LineOffsetIndex index = tfp.createLineIndex();
+		index.build(null);
+		assertTrue(index.size() == rows.size());
+		assertTrue(index.getEndOffset(rows.size() - 1) > 2L * LineOffsetIndex.SEGMENT_SIZE);
+
+		// pages at the start, across the segment boundaries and at the end
+		int[] starts = {0, 1, rows.size() - 3};
+		for(int from : starts)
+			checkRange(tfp, index, rows, from, from + 3);
+		for(int k=1; k <= 2; k++){
+			long boundary = (long) k * LineOffsetIndex.SEGMENT_SIZE;
+			int row = 0;
+			while(index.getEndOffset(row) <= boundary)
+				row++;
+			checkRange(tfp, index, rows, row - 2, row + 2);
+			checkRange(tfp, index, rows, row, row + 1);
+		}
+		checkRange(tfp, index, rows, 0, rows.size());
+		
+		// the segments are deleted, ranges are inflated from the start again
+		index.close();
+		checkRange(tfp, index, rows, rows.size() - 3, rows.size());
+	}
+
+	private void checkRange(TextFileParser tfp, LineOffsetIndex index, List<String[]> rows, int from, int to) throws IOException {
+		List<String[]> range = tfp.parseRows(index, from, to);
+		assertTrue(range.size() == to - from);
+		for(int i=from; i < to; i++)
+			assertTrue(Arrays.equals(range.get(i - from), rows.get(i)));
+	}
+}
@@ -0,0 +1,110 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import db.Enzyme;
+import db.MassSortedPeptides;
+import db.TrypticPeptide;
+import db.Trypsinator;
+
+public class TrypsinatorTest {
+
+	String seq = "MKWVTFISLLLLFSSAYSRGVFRRDTHKSEIAHRFKDLGEEHFKGLVLIAFSQYLQQCPFDEHVKLVNELTEFAKTCVADESHAGCEKSLHTLFGDELCKVASLRETYGDMADCCEKQEPERNECFLSHKDDSPDLPKLKPDPNTLCDEFKADEKKFWGKYLYEIARRHPYFYAPELLYYANKYNGVFQECCQAEDKGACLLPKIETMREKVLASSARQRLRCASIQKFGERALKAWSVARLSQKFPKAEFVEVTKLVTDLTKVHKECCHGDLLECADDRADLAKYICDNQDTISSKLKECCDKPLLEKSHCIAEVEKDAIPENLPPLTADFAEDKDVCKNYQEAKDAFLGSFLYEYSRRHPEYAVSVLLRLAKEYEATLEECCAKDDPHACYSTVFDKLKHLVDEPQNLIKQNCDQFEKLGEYGFQNALIVRYTRKVPQVSTPTLVEVSRSLGKVGTRCCTKPESERMPCTEDYLSLILNRLCVLHEKTPVSEKVTKCCTESLVNRRPCFSALTPDETYVPKAFDEKLFTFHADICTLPDTEKQIKKQTALVELLKHKPKATEEQLKTVMENFVAFVDKCCAADDKEACFAVEGPKLVVSTQTALA";
+
+	@Test
+	public void testDigestion() {
+		Trypsinator t = new Trypsinator();
+		final List<int[]> peps = new ArrayList<int[]>();
+		t.digest(seq, new Trypsinator.PeptideHandler() {
+			@Override
+			public void peptide(int start, int end, double mass) {
+				assertTrue(Math.abs(mass - Trypsinator.calcPepMass(seq.substring(start, end))) < 1e-6);
+				peps.add(new int[]{start, end});
+			}
+		});
+		
+		List<int[]> expected = bruteForce(seq, 1);
+		assertTrue(peps.size() == expected.size());
+		for(int i=0; i < peps.size(); i++)
+			assertTrue(Arrays.equals(peps.get(i), expected.get(i)));
+		
+		Set<TrypticPeptide> set = t.digestSequence(seq);
+		assertTrue(set.size() > 0 && set.size() <= peps.size());
+	}
+
+	@Test
+	public void testEnzymes() {
+		String s = "AAAAAAKPAAAAAARAAAAAAEAAAAAAFAAAAAA";
+		assertTrue(count(new Trypsinator(Enzyme.TRYPSIN, 0, 1, 100, 10000), s) == 2);
+		assertTrue(count(new Trypsinator(Enzyme.TRYPSIN_P, 0, 1, 100, 10000), s) == 3);
+		assertTrue(count(new Trypsinator(Enzyme.LYS_C, 0, 1, 100, 10000), s) == 1);
+		assertTrue(count(new Trypsinator(Enzyme.ARG_C, 0, 1, 100, 10000), s) == 2);
+		assertTrue(count(new Trypsinator(Enzyme.GLU_C, 0, 1, 100, 10000), s) == 2);
+		assertTrue(count(new Trypsinator(Enzyme.CHYMOTRYPSIN, 0, 1, 100, 10000), s) == 2);
+		
+		// missed cleavages and invalid residues
+		assertTrue(count(new Trypsinator(Enzyme.TRYPSIN_P, 2, 1, 100, 10000), s) == 6);
+		assertTrue(count(new Trypsinator(Enzyme.TRYPSIN, 0, 1, 100, 10000), "AAXAAKAAAA") == 1);
+	}
+
+	@Test
+	public void testIsobaricPeptides() {
+		// LAAAAAK and IAAAAAK have the same mass
+		Set<TrypticPeptide> set = new Trypsinator().digestSequence("LAAAAAKIAAAAAK");
+		assertTrue(set.size() == 3);
+		
+		MassSortedPeptides peps = new MassSortedPeptides();
+		Trypsinator t = new Trypsinator();
+		t.digest("LAAAAAKIAAAAAK", Trypsinator.collector(peps, 1));
+		t.digest(seq, Trypsinator.collector(peps, 0));
+		peps.sort();
+		
+		double[] masses = peps.getMasses();
+		for(int i=1; i < masses.length; i++){
+			assertTrue(masses[i-1] <= masses[i]);
+			if(masses[i-1] == masses[i])
+				assertTrue(peps.getProtein(i-1) < peps.getProtein(i) || peps.getStart(i-1) < peps.getStart(i));
+		}
+		assertTrue(peps.size() == bruteForce(seq, 1).size() + 3);
+	}
+
+	private int count(Trypsinator t, String s) {
+		return t.digest(s, new Trypsinator.PeptideHandler() {
+			@Override
+			public void peptide(int start, int end, double mass) {}
+		});
+	}
+
+	/**
+	 * Tryptic peptides of 6-75 residues with at most the given number of 
+	 * missed cleavages, from every pair of cleavage sites
+	 */
+	private List<int[]> bruteForce(String s, int missed) {
+		List<Integer> sites = new ArrayList<Integer>();
+		sites.add(0);
+		for(int i=0; i < s.length() - 1; i++){
+			char c = s.charAt(i);
+			if((c == 'K' || c == 'R') && s.charAt(i + 1) != 'P')
+				sites.add(i + 1);
+		}
+		sites.add(s.length());
+		
+		List<int[]> peps = new ArrayList<int[]>();
+		for(int i=0; i < sites.size() - 1; i++){
+			for(int j=i+1; j < sites.size() && j <= i + 1 + missed; j++){
+				String pep = s.substring(sites.get(i), sites.get(j));
+				if(pep.length() >= 6 && pep.length() <= 75 && Trypsinator.calcPepMass(pep) <= 4000
+						&& pep.matches("[ARNDCEQGHILKMFPSTWYVOU]+"))
+					peps.add(new int[]{sites.get(i), sites.get(j)});
+			}
+		}
+		return peps;
+	}
+}